@@ -70,4 +70,10 @@ public abstract class Attribute {
 
     public static final String VALUE = "value";
 
+    /**
+     * Set to true on monitors fired by an {@link Aggregator} to carry the
+     * rollup of other monitors, so that they are not aggregated again.
+     */
+    public static final String AGGREGATED = "aggregated";
+
 }
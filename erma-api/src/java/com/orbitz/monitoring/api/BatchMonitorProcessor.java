@@ -0,0 +1,25 @@
+package com.orbitz.monitoring.api;
+
+import java.util.List;
+
+/**
+ * An extension of {@link MonitorProcessor} for processors that can amortize
+ * the cost of processing over several monitors at once, such as processors
+ * that write to a database, a log or a network connection.<p>
+ *
+ * Processors that deliver monitors in bulk, like the AsyncMonitorProcessor,
+ * will call {@link #processBatch(List)} in place of calling
+ * {@link MonitorProcessor#process(Monitor)} once for each monitor.
+ */
+public interface BatchMonitorProcessor extends MonitorProcessor {
+
+    /**
+     * Processes a batch of completed monitors. The monitors are supplied in
+     * the order in which they completed. Implementations must not hold on to
+     * the supplied list after this method returns, as callers are free to
+     * reuse it for the next batch.
+     *
+     * @param monitors the Monitors that are ready to be processed
+     */
+    public void processBatch(List<Monitor> monitors);
+}
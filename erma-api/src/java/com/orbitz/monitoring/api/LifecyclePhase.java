@@ -0,0 +1,32 @@
+package com.orbitz.monitoring.api;
+
+/**
+ * The points in a monitor's lifetime at which the {@link MonitoringEngine}
+ * notifies {@link MonitorProcessor}s.
+ *
+ * @since 4.1
+ * @see SubscribingMonitorProcessor
+ */
+public enum LifecyclePhase {
+    /** Corresponds to {@link MonitorProcessor#monitorCreated(Monitor)}. */
+    MONITOR_CREATED,
+    /** Corresponds to {@link MonitorProcessor#monitorStarted(Monitor)}. */
+    MONITOR_STARTED,
+    /** Corresponds to {@link MonitorProcessor#process(Monitor)}. */
+    PROCESS;
+
+    /**
+     * Determines whether the supplied processor wants to be notified of this
+     * phase. Processors that do not implement
+     * {@link SubscribingMonitorProcessor} are subscribed to every phase.
+     *
+     * @param processor the processor to check
+     * @return true if the processor should be called for this phase
+     */
+    public boolean isSubscribedBy(MonitorProcessor processor) {
+        if (processor instanceof SubscribingMonitorProcessor) {
+            return ((SubscribingMonitorProcessor) processor).getSubscribedPhases().contains(this);
+        }
+        return true;
+    }
+}
@@ -5,13 +5,17 @@ import com.orbitz.monitoring.api.monitor.AttributeMap;
 import org.apache.log4j.Logger;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The engine that controls basic correlation of monitors as they are collected
@@ -42,6 +46,17 @@ public class MonitoringEngine {
 
     private Runnable startupRunnable;
 
+    private volatile Set<LifecyclePhase> subscribedPhases = EnumSet.allOf(LifecyclePhase.class);
+
+    private final ConcurrentMap<MonitorProcessor, ProcessorCircuitBreaker> circuitBreakers =
+            new ConcurrentHashMap<MonitorProcessor, ProcessorCircuitBreaker>();
+    private volatile int processorTimingSampleInterval = 16;
+    private volatile int processorBreakerWindowSize = 100;
+    private volatile long processorLatencyBudgetNanos = 0;
+    private volatile double processorErrorBudget = 0;
+    private volatile long processorBreakerOpenMillis = 30000;
+    private volatile long processorFailureLogIntervalMillis = 10000;
+
     protected MonitoringEngine() {
         monitorProcessorLevels = new HashMap();
 
@@ -85,6 +100,10 @@ public class MonitoringEngine {
         inheritableStrategy.startup();
         processorFactory.startup();
 
+        circuitBreakers.clear();
+
+        subscribedPhases = findSubscribedPhases();
+
         running = true;
 
         if (startupRunnable != null) {
@@ -189,7 +208,7 @@ public class MonitoringEngine {
      * @param monitor the monitor that has been created
      */
     public void monitorCreated(final Monitor monitor) {
-        if (!isEnabled()) {
+        if (!isEnabled() || !subscribedPhases.contains(LifecyclePhase.MONITOR_CREATED)) {
             return;
         }
 
@@ -198,6 +217,10 @@ public class MonitoringEngine {
 
     private static ProcessClosure MONITOR_CREATED_CLOSURE =
             new ProcessClosure() {
+                public LifecyclePhase getPhase() {
+                    return LifecyclePhase.MONITOR_CREATED;
+                }
+
                 public void processWithProcessor(Monitor monitor,
                                                  MonitorProcessor processor) {
                     processor.monitorCreated(monitor);
@@ -212,7 +235,7 @@ public class MonitoringEngine {
      * @param monitor the monitor that has started
      */
     public void monitorStarted(final Monitor monitor) {
-        if (!isEnabled()) {
+        if (!isEnabled() || !subscribedPhases.contains(LifecyclePhase.MONITOR_STARTED)) {
             return;
         }
 
@@ -221,6 +244,10 @@ public class MonitoringEngine {
 
     private static ProcessClosure MONITOR_STARTED_CLOSURE =
             new ProcessClosure() {
+                public LifecyclePhase getPhase() {
+                    return LifecyclePhase.MONITOR_STARTED;
+                }
+
                 public void processWithProcessor(Monitor monitor,
                                                  MonitorProcessor processor) {
                     processor.monitorStarted(monitor);
@@ -241,11 +268,17 @@ public class MonitoringEngine {
 
         inheritableStrategy.processMonitorForCompositeMonitor(monitor);
 
-        handleMonitor(monitor, PROCESS_CLOSURE);
+        if (subscribedPhases.contains(LifecyclePhase.PROCESS)) {
+            handleMonitor(monitor, PROCESS_CLOSURE);
+        }
     }
 
     private static ProcessClosure PROCESS_CLOSURE =
             new ProcessClosure() {
+                public LifecyclePhase getPhase() {
+                    return LifecyclePhase.PROCESS;
+                }
+
                 public void processWithProcessor(Monitor monitor,
                                                  MonitorProcessor processor) {
                     processor.process(monitor);
@@ -497,12 +530,18 @@ public class MonitoringEngine {
      * processors are also caught separately to ensure that one failing
      * processor does not affect other working processors.
      *
+     * <p>Processors that have not subscribed to the closure's phase are
+     * skipped. A {@link PhasedMonitorProcessorFactory} is told the phase.
+     *
      * @param monitor the monitor to handle
      * @param closure the work we should perform across each processor
      */
     private void handleMonitor(Monitor monitor, ProcessClosure closure) {
         try {
-            MonitorProcessor[] processors = processorFactory.getProcessorsForMonitor(monitor);
+            LifecyclePhase phase = closure.getPhase();
+            MonitorProcessor[] processors = (processorFactory instanceof PhasedMonitorProcessorFactory)
+                    ? ((PhasedMonitorProcessorFactory) processorFactory).getProcessorsForMonitor(monitor, phase)
+                    : processorFactory.getProcessorsForMonitor(monitor);
 
             if (log.isDebugEnabled()) {
                 log.debug(monitor + " will be processed by "
@@ -510,12 +549,22 @@ public class MonitoringEngine {
             }
 
             for (int i = 0; i < processors.length; i++) {
+                if (!phase.isSubscribedBy(processors[i])) {
+                    continue;
+                }
+                ProcessorCircuitBreaker circuitBreaker = getCircuitBreaker(processors[i]);
+                int permit = circuitBreaker.acquire();
+                if (permit == ProcessorCircuitBreaker.BYPASS) {
+                    continue;
+                }
+                long startNanos = circuitBreaker.begin(permit);
+                Throwable failure = null;
                 try {
                     closure.processWithProcessor(monitor, processors[i]);
                 } catch (Throwable t) {
-                    log.warn("Throwable caught while processing " + monitor +
-                            "; application is unaffected: ", t);
+                    failure = t;
                 }
+                circuitBreaker.end(permit, startNanos, monitor, failure);
             }
         } catch (Throwable t) {
             log.warn("Throwable caught while processing " + monitor
@@ -523,6 +572,53 @@ public class MonitoringEngine {
         }
     }
 
+    private ProcessorCircuitBreaker getCircuitBreaker(MonitorProcessor processor) {
+        ProcessorCircuitBreaker circuitBreaker = circuitBreakers.get(processor);
+        if (circuitBreaker == null) {
+            String name = processor.getName() != null ? processor.getName() : processor.getClass().getName();
+            ProcessorCircuitBreaker newCircuitBreaker = new ProcessorCircuitBreaker(name, this);
+            circuitBreaker = circuitBreakers.putIfAbsent(processor, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Determines which lifecycle phases at least one of the factory's
+     * processors subscribes to. If the factory does not report its processors
+     * all phases are assumed to be subscribed.
+     *
+     * @return the set of phases that need to be dispatched
+     */
+    private Set<LifecyclePhase> findSubscribedPhases() {
+        MonitorProcessor[] processors = processorFactory.getAllProcessors();
+        if (processors == null || processors.length == 0) {
+            return EnumSet.allOf(LifecyclePhase.class);
+        }
+
+        Set<LifecyclePhase> phases = EnumSet.noneOf(LifecyclePhase.class);
+        for (int i = 0; i < processors.length; i++) {
+            for (LifecyclePhase phase : LifecyclePhase.values()) {
+                if (phase.isSubscribedBy(processors[i])) {
+                    phases.add(phase);
+                }
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * Returns the lifecycle phases that are dispatched to processors. This is
+     * determined from the processor factory when the engine starts up.
+     *
+     * @return the subscribed phases
+     */
+    public Set<LifecyclePhase> getSubscribedPhases() {
+        return Collections.unmodifiableSet(subscribedPhases);
+    }
+
     private void inheritGlobals(Monitor monitor) {
         for (Iterator it = globalAttributes.getAllAttributeHolders().entrySet().iterator(); it.hasNext();) {
             Map.Entry entry = (Map.Entry) it.next();
@@ -596,6 +692,123 @@ public class MonitoringEngine {
         return monitorProcessorLevels.toString();
     }
 
+    /**
+     * Gets the circuit breakers of the processors invoked since startup.
+     *
+     * @return the circuit breakers
+     */
+    public Collection<ProcessorCircuitBreaker> getProcessorCircuitBreakers() {
+        return Collections.unmodifiableCollection(circuitBreakers.values());
+    }
+
+    public String getProcessorCircuitBreakerListing() {
+        return circuitBreakers.values().toString();
+    }
+
+    /**
+     * Closes the circuit breakers of all processors.
+     */
+    public void resetProcessorCircuitBreakers() {
+        for (ProcessorCircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            circuitBreaker.reset();
+        }
+    }
+
+    public int getProcessorTimingSampleInterval() {
+        return processorTimingSampleInterval;
+    }
+
+    /**
+     * Sets how often processor invocations are timed, as one in every
+     * processorTimingSampleInterval invocations.
+     *
+     * @param processorTimingSampleInterval the sample interval, at least 1
+     */
+    public void setProcessorTimingSampleInterval(int processorTimingSampleInterval) {
+        if (processorTimingSampleInterval < 1) {
+            throw new IllegalArgumentException("processorTimingSampleInterval must be at least 1");
+        }
+        this.processorTimingSampleInterval = processorTimingSampleInterval;
+    }
+
+    public int getProcessorBreakerWindowSize() {
+        return processorBreakerWindowSize;
+    }
+
+    /**
+     * Sets the number of invocations of a processor after which its failure
+     * rate and sampled latency are checked against the budgets.
+     *
+     * @param processorBreakerWindowSize the window size, at least 1
+     */
+    public void setProcessorBreakerWindowSize(int processorBreakerWindowSize) {
+        if (processorBreakerWindowSize < 1) {
+            throw new IllegalArgumentException("processorBreakerWindowSize must be at least 1");
+        }
+        this.processorBreakerWindowSize = processorBreakerWindowSize;
+    }
+
+    long getProcessorLatencyBudgetNanos() {
+        return processorLatencyBudgetNanos;
+    }
+
+    public long getProcessorLatencyBudgetMicros() {
+        return processorLatencyBudgetNanos / 1000;
+    }
+
+    /**
+     * Sets the average invocation latency above which a processor is
+     * bypassed. 0, the default, disables the check.
+     *
+     * @param processorLatencyBudgetMicros the latency budget in microseconds
+     */
+    public void setProcessorLatencyBudgetMicros(long processorLatencyBudgetMicros) {
+        this.processorLatencyBudgetNanos = processorLatencyBudgetMicros * 1000;
+    }
+
+    public double getProcessorErrorBudget() {
+        return processorErrorBudget;
+    }
+
+    /**
+     * Sets the fraction of failed invocations above which a processor is
+     * bypassed. 0, the default, disables the check.
+     *
+     * @param processorErrorBudget the error budget, between 0 and 1
+     */
+    public void setProcessorErrorBudget(double processorErrorBudget) {
+        if (processorErrorBudget < 0 || processorErrorBudget > 1) {
+            throw new IllegalArgumentException("processorErrorBudget must be between 0 and 1");
+        }
+        this.processorErrorBudget = processorErrorBudget;
+    }
+
+    public long getProcessorBreakerOpenMillis() {
+        return processorBreakerOpenMillis;
+    }
+
+    /**
+     * Sets how long a processor over budget is bypassed before it is probed.
+     *
+     * @param processorBreakerOpenMillis the open time in milliseconds
+     */
+    public void setProcessorBreakerOpenMillis(long processorBreakerOpenMillis) {
+        this.processorBreakerOpenMillis = processorBreakerOpenMillis;
+    }
+
+    public long getProcessorFailureLogIntervalMillis() {
+        return processorFailureLogIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum time between logged failures of each processor.
+     *
+     * @param processorFailureLogIntervalMillis the log interval in milliseconds
+     */
+    public void setProcessorFailureLogIntervalMillis(long processorFailureLogIntervalMillis) {
+        this.processorFailureLogIntervalMillis = processorFailureLogIntervalMillis;
+    }
+
     public void addMonitorLevel(String nameStartsWith, MonitoringLevel level) {
         if (nameStartsWith == null) {
             throw new NullPointerException("null monitor name");
@@ -661,6 +874,8 @@ public class MonitoringEngine {
     }
 
     private static interface ProcessClosure {
+        public LifecyclePhase getPhase();
+
         public void processWithProcessor(Monitor monitor, MonitorProcessor processor);
     }
 
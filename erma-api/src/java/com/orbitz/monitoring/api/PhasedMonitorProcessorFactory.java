@@ -0,0 +1,23 @@
+package com.orbitz.monitoring.api;
+
+/**
+ * An extension of {@link MonitorProcessorFactory} for factories whose choice
+ * of processors depends on the lifecycle phase, such as those that sample
+ * monitors once they are processed. The {@link MonitoringEngine} calls
+ * {@link #getProcessorsForMonitor(Monitor, LifecyclePhase)} instead of
+ * {@link #getProcessorsForMonitor(Monitor)} for such factories.
+ *
+ * @since 4.1
+ */
+public interface PhasedMonitorProcessorFactory extends MonitorProcessorFactory {
+
+    /**
+     * Returns the MonitorProcessor instances that should be called for this
+     * monitor in the given phase.
+     *
+     * @param monitor the monitor
+     * @param phase the lifecycle phase the monitor is in
+     * @return The processors that are applicable for this monitor
+     */
+    public MonitorProcessor[] getProcessorsForMonitor(Monitor monitor, LifecyclePhase phase);
+}
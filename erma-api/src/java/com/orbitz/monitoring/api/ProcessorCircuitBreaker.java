@@ -0,0 +1,256 @@
+package com.orbitz.monitoring.api;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters the invocations of one {@link MonitorProcessor} by the
+ * {@link MonitoringEngine} and bypasses the processor while it is over its
+ * latency or error budget.<p>
+ *
+ * Every invocation and failure is counted, but only one in every
+ * timingSampleInterval invocations is timed. At the end of each window of
+ * invocations the failure rate and the average sampled latency are compared
+ * against the budgets configured on the engine; a processor over either
+ * budget is opened and bypassed for the configured time. After that a single
+ * probe invocation is let through: if it succeeds within the latency budget
+ * the breaker closes again, otherwise it stays open for another period.
+ * Failures are logged at most once per log interval.<p>
+ *
+ * A budget of 0 disables the corresponding check.
+ *
+ * @since 4.1
+ */
+public final class ProcessorCircuitBreaker {
+
+    private static final Logger log = Logger.getLogger(ProcessorCircuitBreaker.class);
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public static enum State {
+        /** The processor is invoked normally. */
+        CLOSED,
+        /** The processor is bypassed. */
+        OPEN,
+        /** A single probe invocation is in progress. */
+        HALF_OPEN
+    }
+
+    // the results of acquire()
+    static final int BYPASS = 0;
+    static final int PERMIT = 1;
+    static final int PROBE = 2;
+
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final String name;
+    private final MonitoringEngine engine;
+
+    private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+    private volatile long openUntilMillis;
+
+    private final AtomicLong invocationCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong bypassedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong sampledNanos = new AtomicLong();
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicLong maxSampledNanos = new AtomicLong();
+
+    private final AtomicLong windowInvocations = new AtomicLong();
+    private final AtomicLong windowFailures = new AtomicLong();
+    private final AtomicLong windowSampledNanos = new AtomicLong();
+    private final AtomicLong windowSamples = new AtomicLong();
+
+    private final AtomicLong nextLogMillis = new AtomicLong();
+    private final AtomicLong suppressedLogCount = new AtomicLong();
+
+    ProcessorCircuitBreaker(String name, MonitoringEngine engine) {
+        this.name = name;
+        this.engine = engine;
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    public long getInvocationCount() {
+        return invocationCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Gets the number of invocations skipped because the breaker was open.
+     *
+     * @return the number of bypassed invocations
+     */
+    public long getBypassedCount() {
+        return bypassedCount.get();
+    }
+
+    /**
+     * Gets the number of times the breaker has opened.
+     *
+     * @return the number of times the breaker opened
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * Gets the average latency of the sampled invocations.
+     *
+     * @return the average latency in microseconds
+     */
+    public double getAverageLatencyMicros() {
+        long samples = sampleCount.get();
+        return samples == 0 ? 0 : sampledNanos.get() / 1000.0 / samples;
+    }
+
+    /**
+     * Gets the highest latency of the sampled invocations.
+     *
+     * @return the highest latency in microseconds
+     */
+    public double getMaxLatencyMicros() {
+        return maxSampledNanos.get() / 1000.0;
+    }
+
+    /**
+     * Closes the breaker and clears its window.
+     */
+    public void reset() {
+        clearWindow();
+        state.set(State.CLOSED.ordinal());
+    }
+
+    public String toString() {
+        return name + " state=" + getState() + " invocations=" + getInvocationCount() +
+                " failures=" + getFailureCount() + " bypassed=" + getBypassedCount() +
+                " opened=" + getOpenedCount() + " avgLatencyMicros=" + getAverageLatencyMicros() +
+                " maxLatencyMicros=" + getMaxLatencyMicros();
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    // decides whether the processor may be invoked
+    int acquire() {
+        int current = state.get();
+        if (current == State.CLOSED.ordinal()) {
+            return PERMIT;
+        }
+        if (current == State.OPEN.ordinal() && System.currentTimeMillis() >= openUntilMillis
+                && state.compareAndSet(current, State.HALF_OPEN.ordinal())) {
+            return PROBE;
+        }
+        bypassedCount.incrementAndGet();
+        return BYPASS;
+    }
+
+    // returns the start time if this invocation is to be timed
+    long begin(int permit) {
+        long invocation = invocationCount.incrementAndGet();
+        if (permit == PROBE || invocation % engine.getProcessorTimingSampleInterval() == 0) {
+            return System.nanoTime();
+        }
+        return NOT_TIMED;
+    }
+
+    void end(int permit, long startNanos, Monitor monitor, Throwable failure) {
+        long elapsedNanos = -1;
+        if (startNanos != NOT_TIMED) {
+            elapsedNanos = System.nanoTime() - startNanos;
+            sampledNanos.addAndGet(elapsedNanos);
+            sampleCount.incrementAndGet();
+            long max = maxSampledNanos.get();
+            while (elapsedNanos > max && !maxSampledNanos.compareAndSet(max, elapsedNanos)) {
+                max = maxSampledNanos.get();
+            }
+        }
+        if (failure != null) {
+            failureCount.incrementAndGet();
+            logFailure(monitor, failure);
+        }
+
+        if (permit == PROBE) {
+            long latencyBudgetNanos = engine.getProcessorLatencyBudgetNanos();
+            if (failure == null && (latencyBudgetNanos <= 0 || elapsedNanos <= latencyBudgetNanos)) {
+                reset();
+                log.info("MonitorProcessor " + name + " recovered; circuit breaker closed");
+            } else {
+                open("probe " + (failure != null ? "failed" : "took " + elapsedNanos / 1000 + " micros"));
+            }
+            return;
+        }
+
+        if (elapsedNanos >= 0) {
+            windowSampledNanos.addAndGet(elapsedNanos);
+            windowSamples.incrementAndGet();
+        }
+        if (failure != null) {
+            windowFailures.incrementAndGet();
+        }
+        // the window size may have been lowered below the invocations counted
+        long invocations = windowInvocations.incrementAndGet();
+        if (invocations >= engine.getProcessorBreakerWindowSize()) {
+            evaluateWindow(invocations);
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    // only the thread that resets the window's invocations evaluates it
+    private void evaluateWindow(long invocations) {
+        if (!windowInvocations.compareAndSet(invocations, 0)) {
+            return;
+        }
+        long failures = windowFailures.getAndSet(0);
+        long samples = windowSamples.getAndSet(0);
+        long nanos = windowSampledNanos.getAndSet(0);
+
+        double errorBudget = engine.getProcessorErrorBudget();
+        long latencyBudgetNanos = engine.getProcessorLatencyBudgetNanos();
+        if (errorBudget > 0 && failures > errorBudget * invocations) {
+            open(failures + " of " + invocations + " invocations failed");
+        } else if (latencyBudgetNanos > 0 && samples > 0 && nanos / samples > latencyBudgetNanos) {
+            open("average sampled latency was " + nanos / samples / 1000 + " micros");
+        }
+    }
+
+    private void clearWindow() {
+        windowInvocations.set(0);
+        windowFailures.set(0);
+        windowSampledNanos.set(0);
+        windowSamples.set(0);
+    }
+
+    private void open(String reason) {
+        openUntilMillis = System.currentTimeMillis() + engine.getProcessorBreakerOpenMillis();
+        state.set(State.OPEN.ordinal());
+        openedCount.incrementAndGet();
+        log.warn("MonitorProcessor " + name + " is bypassed for " + engine.getProcessorBreakerOpenMillis() +
+                "ms; " + reason);
+    }
+
+    private void logFailure(Monitor monitor, Throwable t) {
+        long now = System.currentTimeMillis();
+        long next = nextLogMillis.get();
+        if (now >= next && nextLogMillis.compareAndSet(next, now + engine.getProcessorFailureLogIntervalMillis())) {
+            long suppressed = suppressedLogCount.getAndSet(0);
+            log.warn("Throwable caught while processing " + monitor + " with " + name +
+                    (suppressed > 0 ? " (" + suppressed + " more failures since the last report)" : "") +
+                    "; application is unaffected: ", t);
+        } else {
+            suppressedLogCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.orbitz.monitoring.api;
+
+import java.util.Set;
+
+/**
+ * An extension of {@link MonitorProcessor} for processors that only handle
+ * some of the monitor lifecycle phases. The {@link MonitoringEngine} will not
+ * call a processor for a phase it has not subscribed to, and will skip
+ * resolving processors for a phase altogether when no processor known to the
+ * {@link MonitorProcessorFactory} subscribes to it.<p>
+ *
+ * The engine reads subscriptions when it starts up, so the returned set
+ * should not change while the engine is running.
+ *
+ * @since 4.1
+ */
+public interface SubscribingMonitorProcessor extends MonitorProcessor {
+
+    /**
+     * Gets the lifecycle phases this processor should be called for.
+     *
+     * @return the subscribed phases
+     */
+    public Set<LifecyclePhase> getSubscribedPhases();
+}
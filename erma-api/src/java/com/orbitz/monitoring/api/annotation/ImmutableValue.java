@@ -0,0 +1,24 @@
+package com.orbitz.monitoring.api.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that instances of a class do not change once they are set as
+ * monitor attributes, such as configuration beans and reference data.
+ * <p/>
+ * A decomposer with an identity cache may then decompose each instance once
+ * and share the result between all the monitors that carry it.
+ * <p/>
+ * The annotation is not inherited, since subclasses may add mutable state.
+ *
+ * @since 4.1
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ImmutableValue {
+}
@@ -207,6 +207,17 @@ public abstract class AbstractMonitor implements Monitor {
         return attributes.getAllSerializable();
     }
 
+    /**
+     * Gets shallow copies of the serializable attribute holders of this
+     * monitor, keeping their flags without decomposing their values.
+     *
+     * @return a map of keys to attribute holders
+     * @since 4.1
+     */
+    public Map getAllSerializableAttributeHolders() {
+        return attributes.getAllSerializableAttributeHolders();
+    }
+
     public boolean getAsBoolean(String key, boolean defaultValue) {
         return attributes.getAsBoolean(key, defaultValue);
     }
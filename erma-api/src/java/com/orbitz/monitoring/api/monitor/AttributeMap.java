@@ -337,6 +337,25 @@ public class AttributeMap implements Serializable {
         return new HashMap(attributes);
     }
 
+    /**
+     * Gets copies of the serializable attribute holders, which keep their
+     * flags but share their values with the originals.
+     *
+     * @return a map of keys to attribute holders
+     * @since 4.1
+     */
+    public Map getAllSerializableAttributeHolders() {
+        Map allSerializable = new HashMap();
+        for (Iterator i = attributes.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            AttributeHolder attributeHolder = (AttributeHolder) entry.getValue();
+            if (attributeHolder.isSerializable()) {
+                allSerializable.put(entry.getKey(), attributeHolder.clone());
+            }
+        }
+        return allSerializable;
+    }
+
     public Map getAllSerializable() {
         Map allSerializable = new HashMap();
         for (Iterator i = attributes.entrySet().iterator(); i.hasNext();) {
@@ -47,6 +47,9 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
      */
     protected static final String BUSINESS_FAILURE = Attribute.BUSINESS_FAILURE;
 
+    private long startNanos;
+    private long latencyNanos = -1;
+
     /**
      * Creates a new transaction monitor with the provided
      * name. The monitor is marked as failed by default. Also,
@@ -176,10 +179,22 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
         failed();
     }
     
+    /**
+     * Gets the latency of this transaction as measured by the high resolution
+     * timer. Unlike the latency attribute this is not serialized.
+     *
+     * @return the latency in nanoseconds, or -1 if the transaction is not done
+     * @since 4.1
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
     /**
      * Stops the stop watch for this monitor. Delegates to AbstractMonitor.process().
      */
     public void done() {
+        latencyNanos = System.nanoTime() - startNanos;
         Date endTime = new Date();
         set(Attribute.END_TIME, endTime).serializable().lock();
 
@@ -198,6 +213,7 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
     private void startTransactionMonitor() {
         set(FAILED, true).serializable();
         set(START_TIME, new Date()).serializable().lock();
+        startNanos = System.nanoTime();
 
         MonitoringEngine.getInstance().monitorStarted(this);
     }
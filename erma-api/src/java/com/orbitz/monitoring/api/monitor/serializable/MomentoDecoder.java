@@ -0,0 +1,494 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the momentos written by a {@link MomentoEncoder}. A decoder reads
+ * one stream, since strings written once are referred to by index
+ * afterwards; the stream may be read from InputStreams or ByteBuffers in any
+ * mix, as long as each call is given whole momentos.<p>
+ *
+ * Lengths and counts are checked against what a ByteBuffer has left, or
+ * against 16M for a stream, whose strings are allocated no faster than it
+ * delivers bytes. A corrupt or hostile length fails with a
+ * StreamCorruptedException or EOFException rather than exhausting the heap.
+ * Values written with Java serialization are only read if every class they
+ * hold is an enum or is allowed. By default the JDK's boxed primitives,
+ * BigDecimal, BigInteger, Dates and StackTraceElements and arrays of them
+ * are allowed; values of any other class fail with a
+ * StreamCorruptedException unless the class is allowed with
+ * {@link #allowSerializedClass(String)}, so a stream from an untrusted
+ * sender cannot instantiate arbitrary classes. A decoder is not thread safe.
+ *
+ * @since 4.1
+ */
+public class MomentoDecoder {
+    // ** STATIC/FINAL DATA ***************************************************
+    private static final int STREAM_CHUNK_BYTES = 8 * 1024;
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+    // a stream's length is unknown, so no length read from one may exceed this
+    private static final int MAX_STREAM_LENGTH = 16 * 1024 * 1024;
+
+    private static final String[] SERIALIZED_CLASSES = {
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Double", "java.lang.Enum",
+            "java.lang.Float", "java.lang.Integer", "java.lang.Long", "java.lang.Number", "java.lang.Short",
+            "java.lang.StackTraceElement", "java.lang.String", "java.math.BigDecimal", "java.math.BigInteger",
+            "java.sql.Date", "java.sql.Time", "java.sql.Timestamp", "java.util.Date",
+            "[Ljava.lang.StackTraceElement;", "[Ljava.lang.String;",
+            "[B", "[C", "[D", "[F", "[I", "[J", "[S", "[Z"};
+
+    // ** PRIVATE DATA ********************************************************
+    private final List<String> _strings = new ArrayList<String>();
+    private final Set<String> _serializedClasses = new HashSet<String>(Arrays.asList(SERIALIZED_CLASSES));
+    private final Map<String, MomentoValueCodec> _codecs = new HashMap<String, MomentoValueCodec>();
+    private final List<Object> _references = new ArrayList<Object>();
+    private boolean _headerRead;
+    private Input _input;
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Decodes the next momento from a stream.
+     *
+     * @param in the stream
+     * @return the momento, or null if the stream has ended
+     * @throws IOException if the stream fails, ends within a momento, or is not
+     * in a supported format
+     */
+    public SerializableMonitor decode(final InputStream in)
+            throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        return decode(first, new Input() {
+            int read() throws IOException {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                return b;
+            }
+
+            // a corrupt length ends the stream before it is all allocated
+            byte[] readFully(int length) throws IOException {
+                byte[] bytes = new byte[Math.min(length, STREAM_CHUNK_BYTES)];
+                int offset = 0;
+                while (offset < length) {
+                    if (offset == bytes.length) {
+                        byte[] grown = new byte[Math.min(length, bytes.length * 2)];
+                        System.arraycopy(bytes, 0, grown, 0, offset);
+                        bytes = grown;
+                    }
+                    int read = in.read(bytes, offset, bytes.length - offset);
+                    if (read < 0) {
+                        throw new EOFException();
+                    }
+                    offset += read;
+                }
+                return bytes;
+            }
+
+            int remaining() {
+                return MAX_STREAM_LENGTH;
+            }
+        });
+    }
+
+    /**
+     * Decodes the next momento from a buffer.
+     *
+     * @param in the buffer
+     * @return the momento, or null if the buffer has nothing remaining
+     * @throws IOException if the buffer ends within a momento or is not in a
+     * supported format
+     */
+    public SerializableMonitor decode(final ByteBuffer in)
+            throws IOException {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        return decode(in.get() & 0xFF, new Input() {
+            int read() throws IOException {
+                if (!in.hasRemaining()) {
+                    throw new EOFException();
+                }
+                return in.get() & 0xFF;
+            }
+
+            byte[] readFully(int length) throws IOException {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                return bytes;
+            }
+
+            int remaining() {
+                return in.remaining();
+            }
+        });
+    }
+
+    /**
+     * Registers a codec for the values of its class, replacing any codec
+     * registered before for that class.
+     *
+     * @param codec the codec
+     */
+    public void registerCodec(MomentoValueCodec codec) {
+        _codecs.put(codec.getValueClass().getName(), codec);
+    }
+
+    /**
+     * Allows values of a class to be read with Java serialization.
+     *
+     * @param className the name of the class, as returned by Class.getName()
+     */
+    public void allowSerializedClass(String className) {
+        _serializedClasses.add(className);
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private SerializableMonitor decode(int first, Input input)
+            throws IOException {
+        _input = input;
+        try {
+            if (!_headerRead) {
+                int b = first;
+                for (int i = 0; i < MomentoFormat.MAGIC.length; i++) {
+                    if (i > 0) {
+                        b = input.read();
+                    }
+                    if (b != MomentoFormat.MAGIC[i]) {
+                        throw new StreamCorruptedException("not a momento stream");
+                    }
+                }
+                int version = input.read();
+                if (version != MomentoFormat.VERSION) {
+                    throw new StreamCorruptedException("unsupported momento stream version " + version);
+                }
+                _headerRead = true;
+                first = input.read();
+            }
+            if (first != MomentoFormat.TAG_MONITOR && first != MomentoFormat.TAG_COMPOSITE) {
+                throw new StreamCorruptedException("expected a momento but found tag " + first);
+            }
+            return readMonitor(first == MomentoFormat.TAG_COMPOSITE);
+        } finally {
+            _input = null;
+            _references.clear();
+        }
+    }
+
+    private SerializableMonitor readMonitor(boolean composite)
+            throws IOException {
+        String level = readString();
+        MonitoringLevel monitoringLevel = (level != null) ? MonitoringLevel.toLevel(level) : null;
+        List children = null;
+        SerializableMonitor momento;
+        if (composite) {
+            children = new ArrayList();
+            momento = new SerializableCompositeMonitor(null, children, monitoringLevel);
+        } else {
+            momento = new SerializableMonitor(null, monitoringLevel);
+        }
+        _references.add(momento);
+
+        int count = readLength();
+        Map holders = new HashMap(capacity(count) * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString();
+            holders.put(key, readHolder());
+        }
+        momento.setAllAttributeHolders(holders);
+
+        if (composite) {
+            int childCount = readLength();
+            for (int i = 0; i < childCount; i++) {
+                int tag = _input.read();
+                if (tag != MomentoFormat.TAG_MONITOR && tag != MomentoFormat.TAG_COMPOSITE) {
+                    throw new StreamCorruptedException("expected a child momento but found tag " + tag);
+                }
+                children.add(readMonitor(tag == MomentoFormat.TAG_COMPOSITE));
+            }
+        }
+        return momento;
+    }
+
+    private AttributeHolder readHolder()
+            throws IOException {
+        int flags = _input.read();
+        Object value = readValue();
+        AttributeHolder holder;
+        if ((flags & MomentoFormat.HOLDER_COMPOSITE) != 0) {
+            holder = new CompositeAttributeHolder(value, (flags & MomentoFormat.HOLDER_INHERITABLE) != 0);
+        } else {
+            holder = new AttributeHolder(value);
+        }
+        if ((flags & MomentoFormat.HOLDER_SERIALIZABLE) != 0) {
+            holder.serializable();
+        }
+        if ((flags & MomentoFormat.HOLDER_LOCKED) != 0) {
+            holder.lock();
+        }
+        _references.add(holder);
+        return holder;
+    }
+
+    private Object readValue()
+            throws IOException {
+        int tag = _input.read();
+        switch (tag) {
+            case MomentoFormat.TAG_NULL:
+                return null;
+            case MomentoFormat.TAG_TRUE:
+                return Boolean.TRUE;
+            case MomentoFormat.TAG_FALSE:
+                return Boolean.FALSE;
+            case MomentoFormat.TAG_BYTE:
+                return Byte.valueOf((byte) _input.read());
+            case MomentoFormat.TAG_SHORT:
+                return Short.valueOf((short) unzigzag(readVarint()));
+            case MomentoFormat.TAG_INT:
+                return Integer.valueOf(unzigzag(readVarint()));
+            case MomentoFormat.TAG_LONG:
+                return Long.valueOf(unzigzag(readVarlong()));
+            case MomentoFormat.TAG_FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int) readFixed(4)));
+            case MomentoFormat.TAG_DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(readFixed(8)));
+            case MomentoFormat.TAG_CHAR:
+                return Character.valueOf((char) readVarint());
+            case MomentoFormat.TAG_STRING:
+                return readString();
+            case MomentoFormat.TAG_DATE:
+                return new Date(unzigzag(readVarlong()));
+            case MomentoFormat.TAG_MAP: {
+                int size = readLength();
+                Map map = new HashMap(capacity(size) * 2);
+                _references.add(map);
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue();
+                    map.put(key, readValue());
+                }
+                return map;
+            }
+            case MomentoFormat.TAG_LIST: {
+                int size = readLength();
+                return readElements(new ArrayList(capacity(size)), size);
+            }
+            case MomentoFormat.TAG_SET: {
+                int size = readLength();
+                return readElements(new HashSet(capacity(size) * 2), size);
+            }
+            case MomentoFormat.TAG_ARRAY: {
+                Object[] array = new Object[readLength()];
+                _references.add(array);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue();
+                }
+                return array;
+            }
+            case MomentoFormat.TAG_HOLDER:
+                return readHolder();
+            case MomentoFormat.TAG_MONITOR:
+            case MomentoFormat.TAG_COMPOSITE:
+                return readMonitor(tag == MomentoFormat.TAG_COMPOSITE);
+            case MomentoFormat.TAG_REFERENCE: {
+                int index = readVarint();
+                if (index >= _references.size()) {
+                    throw new StreamCorruptedException("reference to unknown value " + index);
+                }
+                return _references.get(index);
+            }
+            case MomentoFormat.TAG_SERIALIZED:
+                return readSerialized();
+            case MomentoFormat.TAG_CODED:
+                return readCoded();
+            default:
+                throw new StreamCorruptedException("unknown tag " + tag);
+        }
+    }
+
+    private Collection readElements(Collection collection, int size)
+            throws IOException {
+        _references.add(collection);
+        for (int i = 0; i < size; i++) {
+            collection.add(readValue());
+        }
+        return collection;
+    }
+
+    private Object readCoded()
+            throws IOException {
+        String className = readString();
+        MomentoValueCodec codec = _codecs.get(className);
+        if (codec == null) {
+            throw new IOException("cannot decode attribute value: no codec for " + className);
+        }
+        Object[] creationFields = readFields();
+        Object value;
+        try {
+            value = codec.create(creationFields);
+            _references.add(value);
+            codec.setFields(value, readFields());
+        } catch (RuntimeException e) {
+            StreamCorruptedException sce = new StreamCorruptedException("invalid fields for " + className);
+            sce.initCause(e);
+            throw sce;
+        }
+        return value;
+    }
+
+    private Object[] readFields()
+            throws IOException {
+        Object[] fields = new Object[readLength()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = readValue();
+        }
+        return fields;
+    }
+
+    private Object readSerialized()
+            throws IOException {
+        byte[] bytes = _input.readFully(readLength());
+        ObjectInputStream in = new ValueInputStream(bytes);
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            IOException ioe = new IOException("cannot decode attribute value: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private String readString()
+            throws IOException {
+        int reference = readVarint();
+        if (reference == MomentoFormat.STRING_NULL) {
+            return null;
+        }
+        if (reference >= MomentoFormat.STRING_REFERENCE) {
+            int index = reference - MomentoFormat.STRING_REFERENCE;
+            if (index >= _strings.size()) {
+                throw new StreamCorruptedException("reference to unknown string " + index);
+            }
+            return _strings.get(index);
+        }
+        byte[] bytes = _input.readFully(readLength());
+        String s = new String(bytes, "UTF-8");
+        if (s.length() <= MomentoFormat.MAX_INTERNED_LENGTH && _strings.size() < MomentoFormat.MAX_STRING_TABLE_SIZE) {
+            _strings.add(s);
+        }
+        return s;
+    }
+
+    // every element and byte counted takes at least one byte of the input
+    private int readLength()
+            throws IOException {
+        int length = readVarint();
+        if (length < 0 || length > _input.remaining()) {
+            throw new StreamCorruptedException("invalid length " + length);
+        }
+        return length;
+    }
+
+    private int readVarint()
+            throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = _input.read();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint");
+    }
+
+    private long readVarlong()
+            throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = _input.read();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint");
+    }
+
+    private long readFixed(int bytes)
+            throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | _input.read();
+        }
+        return value;
+    }
+
+    // the capacity of a collection is not trusted beyond what it starts with
+    private static int capacity(int size) {
+        return Math.min(size, MAX_INITIAL_CAPACITY);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // ** INNER CLASSES *******************************************************
+    // resolves only the classes allowed, before any of them is instantiated
+    private final class ValueInputStream extends ObjectInputStream {
+        private ValueInputStream(byte[] bytes) throws IOException {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (_serializedClasses.contains(desc.getName())) {
+                return super.resolveClass(desc);
+            }
+            // an enum can only be read back as one of its constants
+            Class klass = super.resolveClass(desc);
+            if (!klass.isEnum()) {
+                throw new StreamCorruptedException("cannot decode attribute value of class " + desc.getName());
+            }
+            return klass;
+        }
+
+        protected Class resolveProxyClass(String[] interfaces) throws IOException {
+            throw new StreamCorruptedException("cannot decode attribute value of a proxy class");
+        }
+    }
+
+    private abstract static class Input {
+        abstract int read() throws IOException;
+
+        abstract byte[] readFully(int length) throws IOException;
+
+        // an upper bound on the bytes left, for checking lengths
+        abstract int remaining();
+    }
+}
@@ -0,0 +1,344 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes {@link SerializableMonitor}s and {@link SerializableCompositeMonitor}s
+ * in a compact binary format, to be read back by a {@link MomentoDecoder}.<p>
+ *
+ * An encoder writes one stream: the first momento is preceded by a versioned
+ * header, and attribute keys and short string values are written once per
+ * stream and then referred to by index. Numbers are written as varints,
+ * Dates as their time, and child monitors inline. Maps, lists, sets and
+ * arrays are read back as HashMaps, ArrayLists, HashSets and Object arrays,
+ * which is what the decomposer produces. Values of the classes of registered
+ * {@link MomentoValueCodec}s are written as their fields, and any other
+ * value with Java serialization.<p>
+ *
+ * A momento that cannot be encoded leaves the encoder as it was, so the
+ * stream can go on without it. An encoder is not thread safe. After an
+ * IOException from the underlying stream, the stream and its encoder should
+ * be discarded together.
+ *
+ * @since 4.1
+ */
+public class MomentoEncoder {
+    // ** PRIVATE DATA ********************************************************
+    private final Buffer _buffer = new Buffer();
+    private final Map<String, Integer> _stringIndexes = new HashMap<String, Integer>();
+    private final List<String> _strings = new ArrayList<String>();
+    private final Map<Class, MomentoValueCodec> _codecs = new HashMap<Class, MomentoValueCodec>();
+    private final IdentityHashMap<Object, Integer> _references = new IdentityHashMap<Object, Integer>();
+    // holders and coded values that are still being written have no index yet
+    private int _referenceCount;
+    private boolean _headerWritten;
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Encodes a momento to a stream.
+     *
+     * @param momento the momento
+     * @param out the stream, which is not flushed
+     * @throws IOException if the stream fails or a value cannot be serialized
+     */
+    public void encode(SerializableMonitor momento, OutputStream out)
+            throws IOException {
+        encodeToBuffer(momento);
+        _buffer.writeTo(out);
+    }
+
+    /**
+     * Encodes a momento into a buffer. If it does not fit, the buffer and this
+     * encoder are left as they were.
+     *
+     * @param momento the momento
+     * @param out the buffer
+     * @throws IOException if a value cannot be serialized
+     * @throws BufferOverflowException if the momento does not fit
+     */
+    public void encode(SerializableMonitor momento, ByteBuffer out)
+            throws IOException {
+        int stringMark = _strings.size();
+        boolean headerWritten = _headerWritten;
+        encodeToBuffer(momento);
+        if (_buffer.size() > out.remaining()) {
+            rollback(stringMark, headerWritten);
+            throw new BufferOverflowException();
+        }
+        _buffer.writeTo(out);
+    }
+
+    /**
+     * Registers a codec for the values of its class, replacing any codec
+     * registered before for that class. The stream's decoder must have the
+     * same codecs registered.
+     *
+     * @param codec the codec
+     */
+    public void registerCodec(MomentoValueCodec codec) {
+        _codecs.put(codec.getValueClass(), codec);
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    // a momento that fails to encode leaves the stream as it was
+    private void encodeToBuffer(SerializableMonitor momento)
+            throws IOException {
+        int stringMark = _strings.size();
+        boolean headerWritten = _headerWritten;
+        _buffer.reset();
+        if (!_headerWritten) {
+            _buffer.write(MomentoFormat.MAGIC);
+            _buffer.write(MomentoFormat.VERSION);
+            _headerWritten = true;
+        }
+        boolean written = false;
+        try {
+            writeMonitor(momento);
+            written = true;
+        } finally {
+            _references.clear();
+            _referenceCount = 0;
+            if (!written) {
+                rollback(stringMark, headerWritten);
+            }
+        }
+    }
+
+    private void rollback(int stringMark, boolean headerWritten) {
+        while (_strings.size() > stringMark) {
+            _stringIndexes.remove(_strings.remove(_strings.size() - 1));
+        }
+        _headerWritten = headerWritten;
+    }
+
+    private void writeMonitor(SerializableMonitor momento)
+            throws IOException {
+        boolean composite = momento instanceof SerializableCompositeMonitor;
+        _buffer.write(composite ? MomentoFormat.TAG_COMPOSITE : MomentoFormat.TAG_MONITOR);
+        _references.put(momento, Integer.valueOf(_referenceCount++));
+        MonitoringLevel level = momento.getMomentoLevel();
+        writeString(level != null ? level.toString() : null);
+
+        Map holders = momento.getAttributeHolders();
+        List entries = new ArrayList(holders.entrySet());
+        writeVarint(entries.size());
+        for (Iterator i = entries.iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            writeString((String) entry.getKey());
+            writeHolder((AttributeHolder) entry.getValue());
+        }
+
+        if (composite) {
+            Collection children = ((SerializableCompositeMonitor) momento).getChildMonitors();
+            List childMomentos = (children != null) ? new ArrayList(children) : new ArrayList(0);
+            writeVarint(childMomentos.size());
+            for (Iterator i = childMomentos.iterator(); i.hasNext();) {
+                Monitor child = (Monitor) i.next();
+                writeMonitor(child.getSerializableMomento());
+            }
+        }
+    }
+
+    private void writeHolder(AttributeHolder holder)
+            throws IOException {
+        int flags = 0;
+        if (holder.isSerializable()) {
+            flags |= MomentoFormat.HOLDER_SERIALIZABLE;
+        }
+        if (holder.isLocked()) {
+            flags |= MomentoFormat.HOLDER_LOCKED;
+        }
+        if (holder instanceof CompositeAttributeHolder) {
+            flags |= MomentoFormat.HOLDER_COMPOSITE;
+            if (((CompositeAttributeHolder) holder).isInheritable()) {
+                flags |= MomentoFormat.HOLDER_INHERITABLE;
+            }
+        }
+        _buffer.write(flags);
+        // a holder is only referred to once its value is written
+        _references.put(holder, null);
+        writeValue(holder.getValue());
+        _references.put(holder, Integer.valueOf(_referenceCount++));
+    }
+
+    private void writeValue(Object value)
+            throws IOException {
+        if (value == null) {
+            _buffer.write(MomentoFormat.TAG_NULL);
+        } else if (value instanceof String) {
+            _buffer.write(MomentoFormat.TAG_STRING);
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            _buffer.write(((Boolean) value).booleanValue() ? MomentoFormat.TAG_TRUE : MomentoFormat.TAG_FALSE);
+        } else if (value instanceof Integer) {
+            _buffer.write(MomentoFormat.TAG_INT);
+            writeVarint(zigzag(((Integer) value).intValue()));
+        } else if (value instanceof Long) {
+            _buffer.write(MomentoFormat.TAG_LONG);
+            writeVarlong(zigzag(((Long) value).longValue()));
+        } else if (value instanceof Double) {
+            _buffer.write(MomentoFormat.TAG_DOUBLE);
+            writeFixed(Double.doubleToLongBits(((Double) value).doubleValue()), 8);
+        } else if (value instanceof Float) {
+            _buffer.write(MomentoFormat.TAG_FLOAT);
+            writeFixed(Float.floatToIntBits(((Float) value).floatValue()), 4);
+        } else if (value instanceof Short) {
+            _buffer.write(MomentoFormat.TAG_SHORT);
+            writeVarint(zigzag(((Short) value).shortValue()));
+        } else if (value instanceof Byte) {
+            _buffer.write(MomentoFormat.TAG_BYTE);
+            _buffer.write(((Byte) value).byteValue());
+        } else if (value instanceof Character) {
+            _buffer.write(MomentoFormat.TAG_CHAR);
+            writeVarint(((Character) value).charValue());
+        } else if (value.getClass() == Date.class) {
+            _buffer.write(MomentoFormat.TAG_DATE);
+            writeVarlong(zigzag(((Date) value).getTime()));
+        } else if (_references.containsKey(value)) {
+            Integer index = _references.get(value);
+            if (index == null) {
+                throw new NotSerializableException(value.getClass().getName() + " contains itself");
+            }
+            _buffer.write(MomentoFormat.TAG_REFERENCE);
+            writeVarint(index.intValue());
+        } else if (value instanceof AttributeHolder) {
+            _buffer.write(MomentoFormat.TAG_HOLDER);
+            writeHolder((AttributeHolder) value);
+        } else if (value instanceof SerializableMonitor) {
+            writeMonitor((SerializableMonitor) value);
+        } else if (value instanceof Map) {
+            _buffer.write(MomentoFormat.TAG_MAP);
+            _references.put(value, Integer.valueOf(_referenceCount++));
+            List entries = new ArrayList(((Map) value).entrySet());
+            writeVarint(entries.size());
+            for (Iterator i = entries.iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof List || value instanceof Set) {
+            _buffer.write((value instanceof List) ? MomentoFormat.TAG_LIST : MomentoFormat.TAG_SET);
+            _references.put(value, Integer.valueOf(_referenceCount++));
+            writeElements(((Collection) value).toArray());
+        } else if (value instanceof Object[]) {
+            _buffer.write(MomentoFormat.TAG_ARRAY);
+            _references.put(value, Integer.valueOf(_referenceCount++));
+            writeElements((Object[]) value);
+        } else if (_codecs.containsKey(value.getClass())) {
+            writeCoded(value, _codecs.get(value.getClass()));
+        } else if (value instanceof Serializable) {
+            _buffer.write(MomentoFormat.TAG_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            writeVarint(bytes.size());
+            bytes.writeTo(_buffer);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    private void writeCoded(Object value, MomentoValueCodec codec)
+            throws IOException {
+        _buffer.write(MomentoFormat.TAG_CODED);
+        writeString(value.getClass().getName());
+        // like a holder, a value is only referred to once it can be created
+        _references.put(value, null);
+        writeElements(codec.getCreationFields(value));
+        _references.put(value, Integer.valueOf(_referenceCount++));
+        writeElements(codec.getFields(value));
+    }
+
+    private void writeElements(Object[] elements)
+            throws IOException {
+        writeVarint(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            writeValue(elements[i]);
+        }
+    }
+
+    private void writeString(String s)
+            throws UnsupportedEncodingException {
+        if (s == null) {
+            writeVarint(MomentoFormat.STRING_NULL);
+            return;
+        }
+        Integer index = _stringIndexes.get(s);
+        if (index != null) {
+            writeVarint(MomentoFormat.STRING_REFERENCE + index.intValue());
+            return;
+        }
+        writeVarint(MomentoFormat.STRING_LITERAL);
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarint(bytes.length);
+        _buffer.write(bytes, 0, bytes.length);
+        if (s.length() <= MomentoFormat.MAX_INTERNED_LENGTH && _strings.size() < MomentoFormat.MAX_STRING_TABLE_SIZE) {
+            _stringIndexes.put(s, Integer.valueOf(_strings.size()));
+            _strings.add(s);
+        }
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            _buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buffer.write(value);
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            _buffer.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buffer.write((int) value);
+    }
+
+    private void writeFixed(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            _buffer.write((int) (value >>> shift));
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(512);
+        }
+
+        private void writeTo(ByteBuffer out) {
+            out.put(buf, 0, count);
+        }
+    }
+}
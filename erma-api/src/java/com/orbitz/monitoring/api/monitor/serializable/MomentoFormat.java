@@ -0,0 +1,62 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+/**
+ * The constants of the binary momento format written by
+ * {@link MomentoEncoder} and read by {@link MomentoDecoder}.<p>
+ *
+ * A stream starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * momentos. Every value starts with a tag byte. Integers are written as
+ * varints, zigzag encoded when they are signed. Strings are written as a
+ * varint reference: 0 for null, 1 for a literal of a varint UTF-8 length and
+ * its bytes, or 2 plus the index of a string written before. Strings no
+ * longer than {@link #MAX_INTERNED_LENGTH} are added to the stream's string
+ * table as they are written, until it holds {@link #MAX_STRING_TABLE_SIZE}.
+ *
+ * @since 4.1
+ */
+final class MomentoFormat {
+    static final byte[] MAGIC = {'E', 'R', 'M', 'A'};
+    static final int VERSION = 1;
+
+    static final int MAX_STRING_TABLE_SIZE = 8192;
+    static final int MAX_INTERNED_LENGTH = 128;
+
+    static final int STRING_NULL = 0;
+    static final int STRING_LITERAL = 1;
+    static final int STRING_REFERENCE = 2;
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_TRUE = 1;
+    static final byte TAG_FALSE = 2;
+    static final byte TAG_BYTE = 3;
+    static final byte TAG_SHORT = 4;
+    static final byte TAG_INT = 5;
+    static final byte TAG_LONG = 6;
+    static final byte TAG_FLOAT = 7;
+    static final byte TAG_DOUBLE = 8;
+    static final byte TAG_CHAR = 9;
+    static final byte TAG_STRING = 10;
+    static final byte TAG_DATE = 11;
+    static final byte TAG_MAP = 12;
+    static final byte TAG_LIST = 13;
+    static final byte TAG_SET = 14;
+    static final byte TAG_ARRAY = 15;
+    static final byte TAG_HOLDER = 16;
+    static final byte TAG_MONITOR = 17;
+    static final byte TAG_COMPOSITE = 18;
+    // a container already written in the same momento, by index
+    static final byte TAG_REFERENCE = 19;
+    // any other Serializable, in Java serialization
+    static final byte TAG_SERIALIZED = 20;
+    // a value of a MomentoValueCodec's class: the class name, the creation
+    // fields and the other fields
+    static final byte TAG_CODED = 21;
+
+    static final int HOLDER_SERIALIZABLE = 1;
+    static final int HOLDER_LOCKED = 2;
+    static final int HOLDER_COMPOSITE = 4;
+    static final int HOLDER_INHERITABLE = 8;
+
+    private MomentoFormat() {
+    }
+}
@@ -0,0 +1,61 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import java.io.IOException;
+
+/**
+ * Encodes the attribute values of one class as fields that the
+ * {@link MomentoEncoder} writes natively, in place of Java serialization.
+ * Fields are written like any other value, so their strings are shared
+ * through the stream's string table and their values may themselves be
+ * encoded by codecs.<p>
+ *
+ * A value is written as the fields it is created from, then the fields
+ * that are set on it afterwards. Only the latter may refer back to the
+ * value itself. A codec is registered with both the encoder and the decoder
+ * of a stream, and is matched by the name of its class.
+ *
+ * @since 4.1
+ */
+public interface MomentoValueCodec {
+    /**
+     * Gets the class encoded. Only values of exactly this class are encoded,
+     * not those of its subclasses.
+     *
+     * @return the class
+     */
+    Class getValueClass();
+
+    /**
+     * Gets the fields a value is created from.
+     *
+     * @param value the value
+     * @return the fields, which must not refer to the value
+     */
+    Object[] getCreationFields(Object value);
+
+    /**
+     * Gets the fields set on a value once it is created.
+     *
+     * @param value the value
+     * @return the fields, which may refer to the value
+     */
+    Object[] getFields(Object value);
+
+    /**
+     * Creates a value from its creation fields.
+     *
+     * @param fields the fields returned by {@link #getCreationFields(Object)}
+     * @return the value
+     * @throws IOException if the fields are not valid
+     */
+    Object create(Object[] fields) throws IOException;
+
+    /**
+     * Sets the remaining fields of a created value.
+     *
+     * @param value the value returned by {@link #create(Object[])}
+     * @param fields the fields returned by {@link #getFields(Object)}
+     * @throws IOException if the fields are not valid
+     */
+    void setFields(Object value, Object[] fields) throws IOException;
+}
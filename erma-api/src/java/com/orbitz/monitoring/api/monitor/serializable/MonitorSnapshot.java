@@ -0,0 +1,117 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Decomposer;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.AbstractMonitor;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cheap, shallow copy of the serializable attributes and child monitors of a
+ * monitor, taken at a point in time so that the expensive work of building a
+ * {@link SerializableMonitor} can be done later, typically on another thread.<p>
+ *
+ * {@link #capture(Monitor)} copies the serializable attribute holders, with
+ * their locked and inheritable flags, but only the references to their
+ * values; the values are run through the {@link Decomposer} when
+ * {@link #toSerializableMomento()} is called, unless the engine has been
+ * disabled by then. Attribute values that are mutated by the application
+ * between the two calls will therefore be seen in their mutated state.
+ *
+ * @since 4.1
+ */
+public final class MonitorSnapshot {
+    // ** PRIVATE DATA ********************************************************
+    private final SerializableMonitor _momento;
+    private final Map _attributeHolders;
+    private final MonitorSnapshot[] _children;
+
+    // ** CONSTRUCTORS ********************************************************
+    private MonitorSnapshot(Map attributeHolders, MonitorSnapshot[] children) {
+        _momento = null;
+        _attributeHolders = attributeHolders;
+        _children = children;
+    }
+
+    private MonitorSnapshot(SerializableMonitor momento) {
+        _momento = momento;
+        _attributeHolders = null;
+        _children = null;
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Takes a snapshot of the supplied monitor and, if it is a composite, of
+     * each of its children. No decomposition is performed.
+     *
+     * @param monitor the monitor to snapshot
+     * @return the snapshot
+     */
+    public static MonitorSnapshot capture(Monitor monitor) {
+        if (monitor instanceof SerializableMonitor) {
+            return new MonitorSnapshot((SerializableMonitor) monitor);
+        }
+
+        MonitorSnapshot[] children = null;
+        if (monitor instanceof CompositeMonitor) {
+            Collection childMonitors = ((CompositeMonitor) monitor).getChildMonitors();
+            children = new MonitorSnapshot[childMonitors.size()];
+            int i = 0;
+            for (Iterator it = childMonitors.iterator(); it.hasNext();) {
+                children[i++] = capture((Monitor) it.next());
+            }
+        }
+
+        return new MonitorSnapshot(getSerializableAttributeHolders(monitor), children);
+    }
+
+    /**
+     * Decomposes the captured attributes and builds the equivalent of
+     * {@link Monitor#getSerializableMomento()} for the captured monitor.
+     *
+     * @return the serializable monitor
+     */
+    public SerializableMonitor toSerializableMomento() {
+        if (_momento != null) {
+            return _momento;
+        }
+
+        SerializableMonitor monitor;
+        if (_children != null) {
+            List childMomentos = new ArrayList(_children.length);
+            for (int i = 0; i < _children.length; i++) {
+                childMomentos.add(_children[i].toSerializableMomento());
+            }
+            monitor = new SerializableCompositeMonitor(null, childMomentos);
+        } else {
+            monitor = new SerializableMonitor(null);
+        }
+        monitor.setAllAttributeHolders(
+                MonitoringEngine.getInstance().makeAttributeHoldersSerializable(_attributeHolders));
+        return monitor;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    // monitors that do not expose their holders get plain serializable ones
+    private static Map getSerializableAttributeHolders(Monitor monitor) {
+        if (monitor instanceof AbstractMonitor) {
+            return ((AbstractMonitor) monitor).getAllSerializableAttributeHolders();
+        }
+
+        Map serializableAttributes = monitor.getAllSerializable();
+        Map attributeHolders = new HashMap(serializableAttributes.size());
+        for (Iterator i = serializableAttributes.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            attributeHolders.put(entry.getKey(), new AttributeHolder(entry.getValue()).serializable());
+        }
+        return attributeHolders;
+    }
+}
@@ -2,6 +2,7 @@ package com.orbitz.monitoring.api.monitor.serializable;
 
 import com.orbitz.monitoring.api.CompositeMonitor;
 import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
 
 import java.util.Collection;
@@ -39,6 +40,11 @@ public class SerializableCompositeMonitor extends SerializableMonitor
         _childMomentos = childMomentos;
     }
 
+    public SerializableCompositeMonitor(Map attributes, List childMomentos, MonitoringLevel monitoringLevel) {
+        super(attributes, monitoringLevel);
+        _childMomentos = childMomentos;
+    }
+
     public void addChildMonitor(Monitor monitor) {
         throw new UnsupportedOperationException(
                 "Adding child monitors not allowed");
@@ -101,6 +101,16 @@ public class SerializableMonitor implements Monitor, Serializable {
         return _attributes.getAllSerializable();
     }
 
+    /**
+     * Gets the attribute holders of this monitor, with their flags.
+     *
+     * @return a copy of the map of keys to attribute holders
+     * @since 4.1
+     */
+    public Map getAllAttributeHolders() {
+        return _attributes.getAllAttributeHolders();
+    }
+
     public void setAllAttributeHolders(final Map attributeHolders) {
         _attributes.setAllAttributeHolders(attributeHolders);
     }
@@ -209,4 +219,23 @@ public class SerializableMonitor implements Monitor, Serializable {
         MonitoringLevel overrideLevel = MonitoringEngine.getInstance().getOverrideLevelForMonitor(this);
         return (overrideLevel != null ? overrideLevel : _monitoringLevel);
     }
+
+    // ** PACKAGE METHODS *****************************************************
+    /**
+     * Gets the attribute holders of this monitor for encoding.
+     *
+     * @return the live map of keys to attribute holders
+     */
+    Map getAttributeHolders() {
+        return _attributes.getAttributes();
+    }
+
+    /**
+     * Gets the level this monitor was created with, ignoring any override.
+     *
+     * @return the level
+     */
+    MonitoringLevel getMomentoLevel() {
+        return _monitoringLevel;
+    }
 }
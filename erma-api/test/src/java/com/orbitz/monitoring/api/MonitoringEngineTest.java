@@ -11,8 +11,10 @@ import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
 import junit.framework.TestCase;
 
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Unit tests for the {@link MonitoringEngine}.
@@ -48,6 +50,11 @@ public class MonitoringEngineTest extends TestCase {
         super.tearDown();
 
         _engine.shutdown();
+        _engine.setProcessorTimingSampleInterval(16);
+        _engine.setProcessorBreakerWindowSize(100);
+        _engine.setProcessorErrorBudget(0);
+        _engine.setProcessorLatencyBudgetMicros(0);
+        _engine.setProcessorBreakerOpenMillis(30000);
     }
 
     // ** TEST METHODS ********************************************************
@@ -436,6 +443,132 @@ public class MonitoringEngineTest extends TestCase {
         assertEquals("decomposed string should equal monitor attributes", m.getAsString("foo"), ((AttributeHolder)decomposed.get("foo")).getValue());
     }
 
+    public void testUnsubscribedPhasesAreSkipped() {
+        ProcessOnlyProcessor processor = new ProcessOnlyProcessor();
+        _engine.setProcessorFactory(new MockMonitorProcessorFactory(processor));
+        _engine.startup();
+
+        assertEquals(EnumSet.of(LifecyclePhase.PROCESS), _engine.getSubscribedPhases());
+
+        TransactionMonitor monitor = new TransactionMonitor("test");
+        monitor.done();
+
+        assertEquals(0, processor.extractMonitorCreatedObjects().length);
+        assertEquals(0, processor.extractMonitorStartedObjects().length);
+        assertEquals(1, processor.extractProcessObjects().length);
+    }
+
+    public void testSubscriptionsAreCheckedPerProcessor() {
+        ProcessOnlyProcessor processOnly = new ProcessOnlyProcessor();
+        _engine.setProcessorFactory(new MockMonitorProcessorFactory(
+                new MonitorProcessor[] {processOnly, _processor}));
+        _engine.startup();
+
+        assertEquals(EnumSet.allOf(LifecyclePhase.class), _engine.getSubscribedPhases());
+
+        TransactionMonitor monitor = new TransactionMonitor("test");
+        monitor.done();
+
+        assertEquals(0, processOnly.extractMonitorCreatedObjects().length);
+        assertEquals(0, processOnly.extractMonitorStartedObjects().length);
+        assertEquals(1, processOnly.extractProcessObjects().length);
+        assertEquals(1, _processor.extractMonitorCreatedObjects().length);
+        assertEquals(1, _processor.extractMonitorStartedObjects().length);
+        assertEquals(1, _processor.extractProcessObjects().length);
+    }
+
+    public void testProcessorInvocationsAreMetered() {
+        _engine.setProcessorTimingSampleInterval(1);
+        _engine.startup();
+
+        new EventMonitor("metered").fire();
+
+        ProcessorCircuitBreaker circuitBreaker = getCircuitBreaker();
+        assertEquals(2, circuitBreaker.getInvocationCount());
+        assertEquals(0, circuitBreaker.getFailureCount());
+        assertTrue(circuitBreaker.getMaxLatencyMicros() >= circuitBreaker.getAverageLatencyMicros());
+        assertEquals(ProcessorCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    public void testCircuitBreakerOpensOverErrorBudgetAndRecovers() throws Exception {
+        _engine.setProcessorBreakerWindowSize(10);
+        _engine.setProcessorErrorBudget(0.5);
+        _engine.setProcessorBreakerOpenMillis(50);
+        _engine.startup();
+
+        // each event is created and processed, so 5 events fill the window
+        _processor.setThrowThrowableDuringProcessing(true);
+        for (int i = 0; i < 5; i++) {
+            new EventMonitor("failing").fire();
+        }
+        ProcessorCircuitBreaker circuitBreaker = getCircuitBreaker();
+        assertEquals(ProcessorCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+
+        _processor.setThrowThrowableDuringProcessing(false);
+        EventMonitor bypassed = new EventMonitor("bypassed");
+        bypassed.fire();
+        assertEquals(2, circuitBreaker.getBypassedCount());
+        assertEquals(0, _processor.extractProcessObjects().length);
+
+        Thread.sleep(60);
+        EventMonitor probe = new EventMonitor("probe");
+        assertEquals(ProcessorCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        probe.fire();
+        _processor.assertExpectedProcessObject(probe);
+    }
+
+    public void testFailedProbeReopensCircuitBreaker() throws Exception {
+        _engine.setProcessorBreakerWindowSize(2);
+        _engine.setProcessorErrorBudget(0.1);
+        _engine.setProcessorBreakerOpenMillis(50);
+        _engine.startup();
+
+        _processor.setThrowThrowableDuringProcessing(true);
+        new EventMonitor("failing").fire();
+        ProcessorCircuitBreaker circuitBreaker = getCircuitBreaker();
+        assertEquals(ProcessorCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        Thread.sleep(60);
+        new EventMonitor("failing").fire();
+        assertEquals(ProcessorCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+
+        _engine.resetProcessorCircuitBreakers();
+        assertEquals(ProcessorCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    public void testLoweredWindowSizeIsEvaluated() {
+        _engine.setProcessorErrorBudget(0.5);
+        _engine.startup();
+
+        // each event is created and processed, so 10 invocations are counted
+        _processor.setThrowThrowableDuringProcessing(true);
+        for (int i = 0; i < 5; i++) {
+            new EventMonitor("failing").fire();
+        }
+        ProcessorCircuitBreaker circuitBreaker = getCircuitBreaker();
+        assertEquals(ProcessorCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        _engine.setProcessorBreakerWindowSize(4);
+        new EventMonitor("failing").fire();
+        assertEquals(ProcessorCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+    }
+
+    public void testCircuitBreakerOpensOverLatencyBudget() {
+        _engine.setProcessorTimingSampleInterval(1);
+        _engine.setProcessorBreakerWindowSize(4);
+        _engine.setProcessorLatencyBudgetMicros(1000);
+        _engine.startup();
+
+        _processor.setProcessDelay(5);
+        new EventMonitor("slow").fire();
+        new EventMonitor("slow").fire();
+
+        assertEquals(ProcessorCircuitBreaker.State.OPEN, getCircuitBreaker().getState());
+    }
+
     public void testMonitoringLevels() {
         _engine = new MonitoringEngine();
         _engine.setProcessorFactory(_factory);
@@ -507,4 +640,17 @@ public class MonitoringEngineTest extends TestCase {
             _monitor.done();
         }
     }
+
+    private ProcessorCircuitBreaker getCircuitBreaker() {
+        Collection circuitBreakers = _engine.getProcessorCircuitBreakers();
+        assertEquals(1, circuitBreakers.size());
+        return (ProcessorCircuitBreaker) circuitBreakers.iterator().next();
+    }
+
+    private static class ProcessOnlyProcessor extends MockMonitorProcessor
+            implements SubscribingMonitorProcessor {
+        public Set<LifecyclePhase> getSubscribedPhases() {
+            return EnumSet.of(LifecyclePhase.PROCESS);
+        }
+    }
 }
@@ -0,0 +1,324 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link MomentoEncoder} and {@link MomentoDecoder}.
+ */
+public class MomentoEncoderTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private MomentoEncoder _encoder;
+    private MomentoDecoder _decoder;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _encoder = new MomentoEncoder();
+        _decoder = new MomentoDecoder();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testPrimitives()
+            throws Exception {
+        Map attributes = new HashMap();
+        attributes.put("null", null);
+        attributes.put("true", Boolean.TRUE);
+        attributes.put("false", Boolean.FALSE);
+        attributes.put("byte", Byte.valueOf((byte) -3));
+        attributes.put("short", Short.valueOf(Short.MIN_VALUE));
+        attributes.put("int", Integer.valueOf(-1));
+        attributes.put("bigInt", Integer.valueOf(Integer.MAX_VALUE));
+        attributes.put("long", Long.valueOf(Long.MIN_VALUE));
+        attributes.put("float", Float.valueOf(1.5f));
+        attributes.put("double", Double.valueOf(-Math.PI));
+        attributes.put("char", Character.valueOf('\u00e9'));
+        attributes.put("string", "caf\u00e9");
+        attributes.put("date", new Date(1234567890123L));
+        attributes.put("timestamp", new Timestamp(1234567890123L));
+        SerializableMonitor momento = createMomento(attributes, MonitoringLevel.ESSENTIAL);
+
+        SerializableMonitor decoded = roundTrip(momento);
+        assertEquals(MonitoringLevel.ESSENTIAL, decoded.getMomentoLevel());
+        assertEquals(momento.getAll(), decoded.getAll());
+        assertEquals(Timestamp.class, decoded.get("timestamp").getClass());
+        assertFalse(decoded.get("bigInt") instanceof Long);
+    }
+
+    public void testHolderFlags()
+            throws Exception {
+        SerializableMonitor momento = new SerializableMonitor(null);
+        Map holders = new HashMap();
+        holders.put("locked", new AttributeHolder("a").serializable().lock());
+        holders.put("plain", new AttributeHolder("b"));
+        holders.put("inheritable", new CompositeAttributeHolder("c", true).serializable());
+        momento.setAllAttributeHolders(holders);
+
+        Map decoded = roundTrip(momento).getAttributeHolders();
+        AttributeHolder locked = (AttributeHolder) decoded.get("locked");
+        assertTrue(locked.isSerializable());
+        assertTrue(locked.isLocked());
+        AttributeHolder plain = (AttributeHolder) decoded.get("plain");
+        assertFalse(plain.isSerializable());
+        assertFalse(plain.isLocked());
+        CompositeAttributeHolder inheritable = (CompositeAttributeHolder) decoded.get("inheritable");
+        assertTrue(inheritable.isInheritable());
+        assertEquals("c", inheritable.getValue());
+    }
+
+    public void testContainers()
+            throws Exception {
+        Map map = new HashMap();
+        map.put("list", new ArrayList(Arrays.asList(new Object[] {"a", Integer.valueOf(1), null})));
+        Set set = new HashSet();
+        set.add("x");
+        set.add(Long.valueOf(7));
+        map.put(Integer.valueOf(3), set);
+        Map attributes = new HashMap();
+        attributes.put("map", map);
+        attributes.put("array", new Object[] {"b", new Object[] {"c"}});
+        attributes.put("holder", new AttributeHolder("nested").serializable());
+
+        SerializableMonitor decoded = roundTrip(createMomento(attributes, MonitoringLevel.INFO));
+        assertEquals(map, decoded.get("map"));
+        Object[] array = (Object[]) decoded.get("array");
+        assertEquals("b", array[0]);
+        assertEquals("c", ((Object[]) array[1])[0]);
+        assertEquals("nested", ((AttributeHolder) decoded.get("holder")).getValue());
+    }
+
+    public void testSharedAndCircularValues()
+            throws Exception {
+        List shared = new ArrayList();
+        shared.add("s");
+        Map circular = new HashMap();
+        circular.put("self", circular);
+        circular.put("shared", shared);
+        Map attributes = new HashMap();
+        attributes.put("circular", circular);
+        attributes.put("shared", shared);
+
+        SerializableMonitor decoded = roundTrip(createMomento(attributes, MonitoringLevel.INFO));
+        Map decodedCircular = (Map) decoded.get("circular");
+        assertSame(decodedCircular, decodedCircular.get("self"));
+        assertSame(decoded.get("shared"), decodedCircular.get("shared"));
+    }
+
+    public void testCompositeChildren()
+            throws Exception {
+        List children = new ArrayList();
+        children.add(createMomento(singleton("name", "child1"), MonitoringLevel.DEBUG));
+        List grandChildren = new ArrayList();
+        grandChildren.add(createMomento(singleton("name", "grandChild"), MonitoringLevel.INFO));
+        children.add(new SerializableCompositeMonitor(singleton("name", "child2"), grandChildren));
+        SerializableCompositeMonitor parent = new SerializableCompositeMonitor(singleton("name", "parent"), children,
+                MonitoringLevel.ESSENTIAL);
+
+        SerializableCompositeMonitor decoded = (SerializableCompositeMonitor) roundTrip(parent);
+        assertEquals(MonitoringLevel.ESSENTIAL, decoded.getMomentoLevel());
+        assertEquals("parent", decoded.get("name"));
+        List decodedChildren = (List) decoded.getChildMonitors();
+        assertEquals(2, decodedChildren.size());
+        SerializableMonitor child1 = (SerializableMonitor) decodedChildren.get(0);
+        assertEquals("child1", child1.get("name"));
+        assertEquals(MonitoringLevel.DEBUG, child1.getMomentoLevel());
+        SerializableCompositeMonitor child2 = (SerializableCompositeMonitor) decodedChildren.get(1);
+        SerializableMonitor grandChild = (SerializableMonitor) child2.getChildMonitors().iterator().next();
+        assertEquals("grandChild", grandChild.get("name"));
+    }
+
+    public void testStringsAreWrittenOncePerStream()
+            throws Exception {
+        Map attributes = new HashMap();
+        attributes.put("name", "com.example.SomeService.someMethod");
+        attributes.put("vmid", "host-1234");
+        attributes.put("latency", Long.valueOf(42));
+        SerializableMonitor momento = createMomento(attributes, MonitoringLevel.INFO);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        _encoder.encode(momento, out);
+        int first = out.size();
+        _encoder.encode(momento, out);
+        int second = out.size() - first;
+        assertTrue("second momento is " + second + " bytes", second < 20);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+        objectOut.writeObject(momento);
+        objectOut.close();
+        assertTrue(first * 4 < serialized.size());
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(attributes, _decoder.decode(in).getAll());
+        assertEquals(attributes, _decoder.decode(in).getAll());
+        assertNull(_decoder.decode(in));
+    }
+
+    public void testByteBufferOverflowLeavesEncoderUnchanged()
+            throws Exception {
+        SerializableMonitor momento = createMomento(singleton("key", "value"), MonitoringLevel.INFO);
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            _encoder.encode(momento, small);
+            fail("expected overflow");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        _encoder.encode(momento, buffer);
+        _encoder.encode(momento, buffer);
+        buffer.flip();
+        assertEquals("value", _decoder.decode(buffer).get("key"));
+        assertEquals("value", _decoder.decode(buffer).get("key"));
+        assertNull(_decoder.decode(buffer));
+    }
+
+    public void testFailedMomentoLeavesStreamUsable()
+            throws Exception {
+        Map attributes = new HashMap();
+        attributes.put("fresh", "string");
+        attributes.put("notSerializable", new Object());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            _encoder.encode(createMomento(attributes, MonitoringLevel.INFO), out);
+            fail("expected NotSerializableException");
+        } catch (NotSerializableException e) {
+            assertEquals(0, out.size());
+        }
+
+        _encoder.encode(createMomento(singleton("fresh", "string"), MonitoringLevel.INFO), out);
+        assertEquals("string", _decoder.decode(new ByteArrayInputStream(out.toByteArray())).get("fresh"));
+    }
+
+    public void testRejectsOtherStreams()
+            throws Exception {
+        try {
+            _decoder.decode(new ByteArrayInputStream(new byte[] {'E', 'R', 'X', 'A', 1}));
+            fail("expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+        try {
+            _decoder.decode(ByteBuffer.wrap(new byte[] {'E', 'R', 'M', 'A', 99}));
+            fail("expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+            assertTrue(e.getMessage().indexOf("99") > 0);
+        }
+    }
+
+    public void testSerializedClassesMustBeAllowed()
+            throws Exception {
+        Map attributes = new HashMap();
+        attributes.put("decimal", new BigDecimal("1.25"));
+        attributes.put("unit", TimeUnit.SECONDS);
+        attributes.put("trace", new Throwable().getStackTrace());
+        assertEquals(attributes.get("unit"), roundTrip(createMomento(attributes, MonitoringLevel.INFO)).get("unit"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MomentoEncoder().encode(createMomento(singleton("locale", Locale.US), MonitoringLevel.INFO), out);
+        try {
+            new MomentoDecoder().decode(new ByteArrayInputStream(out.toByteArray()));
+            fail("expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+            assertTrue(e.getMessage().indexOf("java.util.Locale") > 0);
+        }
+        MomentoDecoder decoder = new MomentoDecoder();
+        decoder.allowSerializedClass("java.util.Locale");
+        assertEquals(Locale.US, decoder.decode(new ByteArrayInputStream(out.toByteArray())).get("locale"));
+    }
+
+    public void testRejectsCorruptLengths()
+            throws Exception {
+        // a monitor whose first attribute key has the length -1
+        byte[] negative = {'E', 'R', 'M', 'A', 1, 17, 0, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x0F};
+        assertCorrupt(ByteBuffer.wrap(negative));
+        // a monitor claiming 2^28 attributes
+        byte[] tooMany = {'E', 'R', 'M', 'A', 1, 17, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertCorrupt(ByteBuffer.wrap(tooMany));
+        // a list claiming 2^21 elements, and 2^28 within a stream
+        byte[] longList = {'E', 'R', 'M', 'A', 1, 17, 0, 1, 1, 1, 'k', 0, 13, (byte) 0x80, (byte) 0x80, 0x01};
+        assertCorrupt(ByteBuffer.wrap(longList));
+        byte[] hugeList = {'E', 'R', 'M', 'A', 1, 17, 0, 1, 1, 1, 'k', 0, 13, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, (byte) 0x80, 0x01};
+        try {
+            new MomentoDecoder().decode(new ByteArrayInputStream(hugeList));
+            fail("expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+        // a string claiming 2^21 bytes that the stream does not have
+        byte[] longString = {'E', 'R', 'M', 'A', 1, 17, 0, 1, 1, (byte) 0x80, (byte) 0x80, 0x01, 'k'};
+        try {
+            new MomentoDecoder().decode(new ByteArrayInputStream(longString));
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private static void assertCorrupt(ByteBuffer in)
+            throws Exception {
+        try {
+            new MomentoDecoder().decode(in);
+            fail("expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("invalid length"));
+        }
+    }
+
+    private SerializableMonitor roundTrip(SerializableMonitor momento)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        _encoder.encode(momento, out);
+        return _decoder.decode(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private static SerializableMonitor createMomento(Map attributes, MonitoringLevel level) {
+        SerializableMonitor momento = new SerializableMonitor(null, level);
+        momento.setAllAttributeHolders(serializableHolders(attributes));
+        return momento;
+    }
+
+    private static Map serializableHolders(Map attributes) {
+        Map holders = new HashMap();
+        for (Object o : attributes.entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            holders.put(entry.getKey(), new AttributeHolder(entry.getValue()).serializable());
+        }
+        return holders;
+    }
+
+    private static Map singleton(String key, Object value) {
+        Map map = new HashMap();
+        map.put(key, value);
+        return map;
+    }
+}
@@ -0,0 +1,92 @@
+package com.orbitz.monitoring.api.monitor.serializable;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MonitorSnapshot}.
+ */
+public class MonitorSnapshotTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private MockDecomposer _decomposer;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _decomposer = new MockDecomposer();
+
+        MonitoringEngine engine = MonitoringEngine.getInstance();
+        engine.setProcessorFactory(new MockMonitorProcessorFactory(
+                new MonitorProcessor[] {new MockMonitorProcessor()}));
+        engine.setDecomposer(_decomposer);
+        engine.setInheritableStrategy(new StackBasedInheritableStrategy());
+        engine.restart();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        MonitoringEngine.getInstance().shutdown();
+
+        super.tearDown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testCaptureDefersDecomposition() {
+        EventMonitor event = new EventMonitor("snapshot");
+        event.set("serializable", "yes");
+        event.set("notSerializable", new Object());
+
+        MonitorSnapshot snapshot = MonitorSnapshot.capture(event);
+        assertTrue("decomposer called during capture",
+                   _decomposer.getDecomposedObjects().isEmpty());
+
+        Monitor momento = snapshot.toSerializableMomento();
+        assertFalse(_decomposer.getDecomposedObjects().isEmpty());
+        assertEquals("snapshot", momento.get(Attribute.NAME));
+        assertEquals("yes", momento.get("serializable"));
+        assertFalse(momento.hasAttribute("notSerializable"));
+    }
+
+    public void testCaptureIsShallowCopy() {
+        EventMonitor event = new EventMonitor("snapshot");
+        event.set("foo", "before");
+
+        MonitorSnapshot snapshot = MonitorSnapshot.capture(event);
+        event.set("foo", "after");
+
+        assertEquals("before", snapshot.toSerializableMomento().get("foo"));
+    }
+
+    public void testCaptureComposite() {
+        TransactionMonitor parent = new TransactionMonitor("parent");
+        TransactionMonitor child = new TransactionMonitor("child");
+        child.done();
+        parent.done();
+
+        Monitor momento = MonitorSnapshot.capture(parent).toSerializableMomento();
+        assertTrue(momento instanceof SerializableCompositeMonitor);
+
+        CompositeMonitor composite = (CompositeMonitor) momento;
+        assertEquals(1, composite.getChildMonitors().size());
+        Monitor childMomento = (Monitor) composite.getChildMonitors().iterator().next();
+        assertEquals("child", childMomento.get(Attribute.NAME));
+    }
+
+    public void testCaptureMomento() {
+        SerializableMonitor momento = new EventMonitor("snapshot").getSerializableMomento();
+
+        assertSame(momento, MonitorSnapshot.capture(momento).toSerializableMomento());
+    }
+}
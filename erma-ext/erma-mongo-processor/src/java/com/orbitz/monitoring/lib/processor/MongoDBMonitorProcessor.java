@@ -7,13 +7,17 @@ import com.mongodb.DBObject;
 import com.mongodb.Mongo;
 import com.mongodb.MongoException;
 import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.BatchMonitorProcessor;
 import com.orbitz.monitoring.api.Monitor;
 import org.apache.log4j.Logger;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -28,7 +32,8 @@ import java.util.concurrent.TimeUnit;
  *
  * @author Greg Opaczewski
  */
-public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
+public class MongoDBMonitorProcessor extends MonitorProcessorAdapter
+        implements BatchMonitorProcessor {
     private static final Logger logger = Logger.getLogger(MongoDBMonitorProcessor.class.getName());
 
     private String host;
@@ -91,6 +96,51 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
         });
     }
 
+    /**
+     * Inserts a batch of monitors using one insert per collection rather than
+     * one insert per monitor.
+     *
+     * @param monitors the monitors to insert
+     */
+    public void processBatch(final List<Monitor> monitors) {
+        if (! initialized) return;
+        if (monitors == null || monitors.isEmpty()) return;
+
+        // the caller may reuse the supplied list once this method returns
+        final List<Monitor> batch = new ArrayList<Monitor>(monitors);
+
+        executor.execute(new Runnable() {
+            public void run() {
+                Map<String, List<DBObject>> byNamespace = new LinkedHashMap<String, List<DBObject>>();
+                for (Monitor monitor : batch) {
+                    try {
+                        String ns = namespaceProvider.getNamespaceFor(monitor);
+                        List<DBObject> dbObjects = byNamespace.get(ns);
+                        if (dbObjects == null) {
+                            dbObjects = new ArrayList<DBObject>();
+                            byNamespace.put(ns, dbObjects);
+                        }
+                        dbObjects.add(toDBObject(monitor));
+                    } catch (Throwable t) {
+                        logger.debug("Caught throwable processing : + " + monitor, t);
+                    }
+                }
+
+                for (Map.Entry<String, List<DBObject>> entry : byNamespace.entrySet()) {
+                    try {
+                        DBCollection collection = db.getCollection(entry.getKey());
+                        collection.insert(entry.getValue());
+                    } catch (MongoException e) {
+                        logger.debug("Mongo client threw exception while attempting to insert " +
+                                entry.getValue().size() + " monitors into " + entry.getKey(), e);
+                    } catch (Throwable t) {
+                        logger.debug("Caught throwable inserting batch into : " + entry.getKey(), t);
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public void startup() {
         if (namespaceProvider == null) {
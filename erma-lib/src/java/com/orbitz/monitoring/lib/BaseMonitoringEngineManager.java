@@ -256,4 +256,74 @@ public class BaseMonitoringEngineManager {
         String returnString = MonitoringEngine.getInstance().getOverrideProcessorLevelsListing();
         return returnString;
     }
+
+    /**
+     * Get the invocation statistics and circuit breaker state of each processor.
+     *
+     * @return description of the processor circuit breakers
+     *
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Gets the invocation statistics and circuit breaker state of each processor")
+     */
+    public String getProcessorCircuitBreakerListing() {
+        return MonitoringEngine.getInstance().getProcessorCircuitBreakerListing();
+    }
+
+    /**
+     * Close the circuit breakers of all processors.
+     *
+     * @@org.springframework.jmx.export.metadata.ManagedOperation
+     * (description="Closes the circuit breakers of all processors")
+     */
+    public void resetProcessorCircuitBreakers() {
+        MonitoringEngine.getInstance().resetProcessorCircuitBreakers();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Average processor latency in microseconds above which a processor is bypassed, 0 to disable")
+     */
+    public long getProcessorLatencyBudgetMicros() {
+        return MonitoringEngine.getInstance().getProcessorLatencyBudgetMicros();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Average processor latency in microseconds above which a processor is bypassed, 0 to disable")
+     */
+    public void setProcessorLatencyBudgetMicros(long processorLatencyBudgetMicros) {
+        MonitoringEngine.getInstance().setProcessorLatencyBudgetMicros(processorLatencyBudgetMicros);
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Fraction of failed invocations above which a processor is bypassed, 0 to disable")
+     */
+    public double getProcessorErrorBudget() {
+        return MonitoringEngine.getInstance().getProcessorErrorBudget();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Fraction of failed invocations above which a processor is bypassed, 0 to disable")
+     */
+    public void setProcessorErrorBudget(double processorErrorBudget) {
+        MonitoringEngine.getInstance().setProcessorErrorBudget(processorErrorBudget);
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Milliseconds a processor over budget is bypassed before it is probed")
+     */
+    public long getProcessorBreakerOpenMillis() {
+        return MonitoringEngine.getInstance().getProcessorBreakerOpenMillis();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="Milliseconds a processor over budget is bypassed before it is probed")
+     */
+    public void setProcessorBreakerOpenMillis(long processorBreakerOpenMillis) {
+        MonitoringEngine.getInstance().setProcessorBreakerOpenMillis(processorBreakerOpenMillis);
+    }
 }
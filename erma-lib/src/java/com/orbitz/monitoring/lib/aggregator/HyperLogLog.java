@@ -0,0 +1,171 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A HyperLogLog sketch that estimates the number of distinct values offered
+ * to it in fixed memory: 2^precision one-byte registers, 4KB at the default
+ * precision of 12, for a standard error of about 1.04 / sqrt(2^precision),
+ * or 1.6%.<p>
+ *
+ * Offering a value is a hash and at most a few compare-and-sets, and never
+ * allocates for Strings and integral numbers. Values are hashed from their
+ * contents (the characters of their string form, or the value of integral
+ * numbers), so sketches built in different VMs agree and can be merged with
+ * {@link #add(HyperLogLog)} as long as they have the same precision.
+ *
+ * @since 4.1
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The precision used by the default constructor.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    // four registers to an int
+    private final AtomicIntegerArray registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a sketch with 2^precision registers.
+     *
+     * @param precision the precision, from 4 to 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registers = new AtomicIntegerArray((1 << precision) / 4);
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Offers a value to the sketch.
+     *
+     * @param value the value, ignored if null
+     */
+    public void offer(Object value) {
+        if (value != null) {
+            offerHash(hash(value));
+        }
+    }
+
+    /**
+     * Adds the values offered to another sketch to this one.
+     *
+     * @param other a sketch of the same precision
+     */
+    public void add(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of precision " + other.precision +
+                    " into one of precision " + precision);
+        }
+        int registerCount = 1 << precision;
+        for (int i = 0; i < registerCount; i++) {
+            int rank = other.getRegister(i);
+            if (rank > 0) {
+                updateRegister(i, rank);
+            }
+        }
+    }
+
+    /**
+     * Clears the sketch. Values offered concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < registers.length(); i++) {
+            registers.set(i, 0);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values offered.
+     *
+     * @return the estimated distinct count
+     */
+    public long estimate() {
+        int registerCount = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < registerCount; i++) {
+            int rank = getRegister(i);
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / registerCount);
+        double estimate = alpha * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public String toString() {
+        return "HyperLogLog precision=" + precision + " estimate=" + estimate();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void offerHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the sentinel bit caps the rank at 65 - precision
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        updateRegister(index, rank);
+    }
+
+    private int getRegister(int index) {
+        return (registers.get(index >>> 2) >>> ((index & 3) * 8)) & 0xFF;
+    }
+
+    private void updateRegister(int index, int rank) {
+        int slot = index >>> 2;
+        int shift = (index & 3) * 8;
+        while (true) {
+            int word = registers.get(slot);
+            if (((word >>> shift) & 0xFF) >= rank) {
+                return;
+            }
+            int updated = (word & ~(0xFF << shift)) | (rank << shift);
+            if (registers.compareAndSet(slot, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    // FNV-1a over the characters or the value, then the MurmurHash3
+    // finalizer to spread the bits
+    private static long hash(Object value) {
+        long h;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            h = ((Number) value).longValue();
+        } else {
+            String string = value.toString();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < string.length(); i++) {
+                h ^= string.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,203 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds with log-linear buckets.
+ * Values below 32 are counted exactly; above that every power of two is split
+ * into 32 equal buckets, so a percentile is reported within 1/64 (about 1.6%)
+ * of the recorded value. Values from 0 to about 4.8 hours are covered in
+ * 1280 buckets, about 10KB; larger values are counted in the last bucket.<p>
+ *
+ * Recording is a single atomic increment of a bucket and of the total, plus
+ * a compare-and-set when the value is the slowest seen, in which case the
+ * supplied exemplar (such as the sequenceId of the monitor) is kept with it.
+ * Histograms share their layout, so merging them with {@link #add(LatencyHistogram)}
+ * loses nothing; being serializable, they can be merged across VMs too.
+ *
+ * @since 4.1
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 43;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    /**
+     * The largest value that is counted in a bucket of its own.
+     */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final Slowest NONE = new Slowest(-1, null);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicReference<Slowest> slowest = new AtomicReference<Slowest>(NONE);
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     * @param exemplar identifies the sample if it is the slowest, may be null
+     */
+    public void record(long nanos, String exemplar) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_VALUE)));
+        total.addAndGet(value);
+        offerSlowest(value, exemplar);
+    }
+
+    /**
+     * Adds the samples of another histogram to this one.
+     *
+     * @param other the histogram to merge
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.addAndGet(other.total.get());
+        Slowest otherSlowest = other.slowest.get();
+        offerSlowest(otherSlowest.nanos, otherSlowest.exemplar);
+    }
+
+    /**
+     * Clears the histogram. Samples recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        slowest.set(NONE);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the sum of the recorded latencies.
+     *
+     * @return the total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    /**
+     * Gets the slowest recorded latency.
+     *
+     * @return the maximum in nanoseconds, or -1 if the histogram is empty
+     */
+    public long getMaxNanos() {
+        return slowest.get().nanos;
+    }
+
+    /**
+     * Gets the exemplar recorded with the slowest latency.
+     *
+     * @return the exemplar, or null
+     */
+    public String getExemplar() {
+        return slowest.get().exemplar;
+    }
+
+    /**
+     * Gets the latency below or at which the given percentage of the
+     * samples fall.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, or -1 if the histogram is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long count = getCount();
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        int index = 0;
+        for (; index < BUCKETS - 1; index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                break;
+            }
+        }
+        long max = getMaxNanos();
+        long value = lowestValueAt(index) + widthAt(index) / 2;
+        return max >= 0 ? Math.min(value, max) : value;
+    }
+
+    public String toString() {
+        return "LatencyHistogram count=" + getCount() + " p50=" + getValueAtPercentile(50) +
+                " p99=" + getValueAtPercentile(99) + " max=" + getMaxNanos();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void offerSlowest(long nanos, String exemplar) {
+        Slowest current = slowest.get();
+        while (nanos > current.nanos) {
+            if (slowest.compareAndSet(current, new Slowest(nanos, exemplar))) {
+                return;
+            }
+            current = slowest.get();
+        }
+    }
+
+    /*
+     * Values below SUB_BUCKETS are their own index. Above that the
+     * SUB_BUCKET_BITS bits below the highest set bit select one of the
+     * SUB_BUCKETS buckets of that power of two.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+    }
+
+    private static long widthAt(int index) {
+        return index < SUB_BUCKETS ? 1 : 1L << ((index >>> SUB_BUCKET_BITS) - 1);
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Slowest implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long nanos;
+        private final String exemplar;
+
+        private Slowest(long nanos, String exemplar) {
+            this.nanos = nanos;
+            this.exemplar = exemplar;
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import com.orbitz.monitoring.api.Aggregator;
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link Aggregator} that rolls monitors up per name into time buckets.
+ * For every name seen in a bucket it keeps the number of monitors, the number
+ * that failed, and the count, sum, minimum and maximum of their latency.<p>
+ *
+ * When a bucket closes it is published as one EventMonitor per name, named
+ * rollupMonitorName (default "MonitorRollup"), that goes through the normal
+ * processors like any other monitor. Rollups carry the {@link Attribute#AGGREGATED}
+ * attribute so they are not aggregated again.<p>
+ *
+ * Recording never blocks. The counters of a name are striped by thread so
+ * that concurrent threads update different cache lines, and there are two
+ * buckets: closing swaps the bucket that new monitors are added to, then
+ * waits for the threads still adding to the closed bucket before reading
+ * and clearing it. Buckets are closed every bucketMillis by a daemon thread
+ * started with {@link #startup()}, or by calling {@link #flush()}.<p>
+ *
+ * With latencyHistogramEnabled, latencies are also recorded per name in a
+ * {@link LatencyHistogram}, using the nanosecond latency of TransactionMonitors
+ * where available. Rollups then carry the 50th, 90th, 99th and 99.9th
+ * percentile latencies, the sequenceId of the slowest monitor as
+ * latencyExemplar, and the histogram itself as latencyHistogram so that
+ * rollups can be merged later.<p>
+ *
+ * Rollups can also be broken down by dimensions, each a list of attribute
+ * keys such as "resultCode" or "hostname,failed". Every monitor is then also
+ * added to one rollup per dimension for its name and the values of those
+ * attributes, published with a dimensions attribute naming the keys and the
+ * values under their own keys. To bound memory, a name has at most
+ * maxCardinalityPerName dimension rollups in a bucket; further combinations
+ * are added to one overflow rollup per dimension, flagged dimensionOverflow.
+ * Keys are interned in each bucket and looked up through a reused per-thread
+ * probe, so recording a combination seen before allocates nothing.
+ * Percentiles are only kept per name.<p>
+ *
+ * When distinctCountAttribute is set, the values of that attribute are fed
+ * into a {@link HyperLogLog} sketch per name, and rollups carry the
+ * estimated number of distinct values as distinctCount and the mergeable
+ * sketch as distinctCountSketch.
+ *
+ * @since 4.1
+ */
+public class RollupAggregator implements Aggregator {
+
+    private static final Logger log = Logger.getLogger(RollupAggregator.class);
+
+    private static final int STRIPES = stripeCount();
+
+    // longs per stripe of a rollup, so that each stripe has its own cache line
+    private static final int ROLLUP_PADDING = 8;
+    private static final int COUNT = 0;
+    private static final int FAILURE_COUNT = 1;
+    private static final int LATENCY_COUNT = 2;
+    private static final int LATENCY_SUM = 3;
+
+    // ints per stripe of the in-flight counters, for the same reason
+    private static final int IN_FLIGHT_PADDING = 16;
+
+    private long bucketMillis = 60000;
+    private String rollupMonitorName = "MonitorRollup";
+    private boolean latencyHistogramEnabled = false;
+    private volatile Dimension[] dimensions = new Dimension[0];
+    private volatile String distinctCountAttribute;
+    private int maxCardinalityPerName = 100;
+
+    private final Bucket[] buckets = new Bucket[] {new Bucket(), new Bucket()};
+    private volatile Bucket currentBucket = buckets[0];
+    private volatile long bucketStart = System.currentTimeMillis();
+    private final Object flushLock = new Object();
+
+    private final ThreadLocal<RollupKey> probes = new ThreadLocal<RollupKey>() {
+        protected RollupKey initialValue() {
+            return new RollupKey();
+        }
+    };
+
+    // guarded by this
+    private ScheduledExecutorService scheduler;
+
+    // ** PUBLIC METHODS ******************************************************
+    public void aggregate(Monitor monitor) {
+        if (monitor.hasAttribute(Attribute.AGGREGATED)) {
+            return;
+        }
+        String name = monitor.getAsString(Attribute.NAME);
+        if (name == null) {
+            return;
+        }
+        boolean failed = monitor.getAsBoolean(Attribute.FAILED, false);
+        long latency = monitor.hasAttribute(Attribute.LATENCY) ? monitor.getAsLong(Attribute.LATENCY) : -1;
+
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        Bucket bucket;
+        while (true) {
+            bucket = currentBucket;
+            bucket.enter(stripe);
+            if (bucket == currentBucket) {
+                break;
+            }
+            // the bucket was closed in between; move on to the new one
+            bucket.exit(stripe);
+        }
+        try {
+            RollupKey probe = probes.get();
+            probe.reset(name, null, null);
+            String distinctKey = distinctCountAttribute;
+            Rollup rollup = bucket.getRollup(probe, latencyHistogramEnabled, distinctKey != null,
+                    maxCardinalityPerName);
+            rollup.add(stripe, failed, latency);
+            if (rollup.histogram != null) {
+                recordHistogram(rollup.histogram, monitor, latency);
+            }
+            if (rollup.distinct != null && distinctKey != null && monitor.hasAttribute(distinctKey)) {
+                rollup.distinct.offer(monitor.get(distinctKey));
+            }
+
+            Dimension[] current = dimensions;
+            for (int i = 0; i < current.length; i++) {
+                probe.reset(name, current[i], monitor);
+                bucket.getRollup(probe, false, false, maxCardinalityPerName).add(stripe, failed, latency);
+            }
+        } finally {
+            bucket.exit(stripe);
+        }
+    }
+
+    /**
+     * Starts closing a bucket every bucketMillis.
+     */
+    public synchronized void startup() {
+        if (scheduler != null || bucketMillis <= 0) {
+            return;
+        }
+        bucketStart = System.currentTimeMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ERMA-RollupAggregator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    log.warn("Throwable caught while publishing rollups; application is unaffected: ", t);
+                }
+            }
+        }, bucketMillis, bucketMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops closing buckets and publishes the partial bucket.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * Closes the current bucket and publishes a rollup for each name that
+     * was aggregated into it.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Bucket closed = currentBucket;
+            long start = bucketStart;
+            long end = System.currentTimeMillis();
+            currentBucket = (closed == buckets[0]) ? buckets[1] : buckets[0];
+            bucketStart = end;
+
+            closed.awaitWriters();
+            publish(closed, new Date(start), new Date(end));
+        }
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Sets how long each bucket is open. Takes effect at the next startup.
+     * 0 leaves closing buckets to the caller of {@link #flush()}.
+     *
+     * @param bucketMillis the bucket length in milliseconds
+     */
+    public void setBucketMillis(long bucketMillis) {
+        if (bucketMillis < 0) {
+            throw new IllegalArgumentException("bucketMillis cannot be negative");
+        }
+        this.bucketMillis = bucketMillis;
+    }
+
+    public String getRollupMonitorName() {
+        return rollupMonitorName;
+    }
+
+    public void setRollupMonitorName(String rollupMonitorName) {
+        this.rollupMonitorName = rollupMonitorName;
+    }
+
+    public boolean isLatencyHistogramEnabled() {
+        return latencyHistogramEnabled;
+    }
+
+    /**
+     * Sets whether latency percentiles are computed. Each name active in
+     * either bucket takes a histogram of about 10KB.
+     *
+     * @param latencyHistogramEnabled true to record latency histograms
+     */
+    public void setLatencyHistogramEnabled(boolean latencyHistogramEnabled) {
+        this.latencyHistogramEnabled = latencyHistogramEnabled;
+    }
+
+    public List<String> getDimensions() {
+        List<String> list = new ArrayList<String>();
+        Dimension[] current = dimensions;
+        for (int i = 0; i < current.length; i++) {
+            list.add(current[i].label);
+        }
+        return list;
+    }
+
+    /**
+     * Sets the dimensions that rollups are broken down by. Each entry is a
+     * comma separated list of attribute keys.
+     *
+     * @param dimensions the dimensions, such as "resultCode" and "hostname,failed"
+     */
+    public void setDimensions(List<String> dimensions) {
+        Dimension[] parsed = new Dimension[dimensions.size()];
+        for (int i = 0; i < parsed.length; i++) {
+            String[] keys = dimensions.get(i).split(",");
+            for (int j = 0; j < keys.length; j++) {
+                keys[j] = keys[j].trim();
+                if (keys[j].length() == 0 || Attribute.NAME.equals(keys[j])) {
+                    throw new IllegalArgumentException("Invalid dimension: " + dimensions.get(i));
+                }
+            }
+            parsed[i] = new Dimension(keys);
+        }
+        this.dimensions = parsed;
+    }
+
+    public int getMaxCardinalityPerName() {
+        return maxCardinalityPerName;
+    }
+
+    /**
+     * Sets how many dimension rollups one name may have in a bucket before
+     * new combinations go to the overflow rollups.
+     *
+     * @param maxCardinalityPerName the limit, at least 1
+     */
+    public void setMaxCardinalityPerName(int maxCardinalityPerName) {
+        if (maxCardinalityPerName < 1) {
+            throw new IllegalArgumentException("maxCardinalityPerName must be at least 1");
+        }
+        this.maxCardinalityPerName = maxCardinalityPerName;
+    }
+
+    public String getDistinctCountAttribute() {
+        return distinctCountAttribute;
+    }
+
+    /**
+     * Sets the attribute whose distinct values are counted per name, such as
+     * a customer or session id. Each name active in either bucket takes a
+     * sketch of 4KB. null disables distinct counting.
+     *
+     * @param distinctCountAttribute the attribute key, or null
+     */
+    public void setDistinctCountAttribute(String distinctCountAttribute) {
+        this.distinctCountAttribute = distinctCountAttribute;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void recordHistogram(LatencyHistogram histogram, Monitor monitor, long latency) {
+        long nanos = latencyNanosOf(monitor, latency);
+        if (nanos >= 0) {
+            String sequenceId = monitor.hasAttribute(Attribute.SEQUENCE_ID)
+                    ? monitor.getAsString(Attribute.SEQUENCE_ID) : null;
+            histogram.record(nanos, sequenceId);
+        }
+    }
+
+    // no thread is adding to the closed bucket, so it is read and cleared
+    // with plain sets; names idle for the whole bucket are dropped
+    private void publish(Bucket closed, Date start, Date end) {
+        for (Iterator i = closed.rollups.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            RollupKey key = (RollupKey) entry.getKey();
+            Rollup rollup = (Rollup) entry.getValue();
+            long count = rollup.sumAndClear(COUNT);
+            if (count == 0) {
+                i.remove();
+                closed.released(key);
+                continue;
+            }
+            long failureCount = rollup.sumAndClear(FAILURE_COUNT);
+            long latencyCount = rollup.sumAndClear(LATENCY_COUNT);
+            long latencySum = rollup.sumAndClear(LATENCY_SUM);
+            long latencyMin = rollup.latencyMin.getAndSet(Long.MAX_VALUE);
+            long latencyMax = rollup.latencyMax.getAndSet(Long.MIN_VALUE);
+
+            EventMonitor monitor = new EventMonitor(rollupMonitorName, MonitoringLevel.ESSENTIAL);
+            monitor.set(Attribute.AGGREGATED, true);
+            monitor.set("monitorName", key.name);
+            if (key.dimension != null) {
+                monitor.set("dimensions", key.dimension.label);
+                if (key.values == null) {
+                    monitor.set("dimensionOverflow", true);
+                } else {
+                    for (int j = 0; j < key.values.length; j++) {
+                        if (key.values[j] != null) {
+                            monitor.set(key.dimension.keys[j], key.values[j]);
+                        }
+                    }
+                }
+            }
+            monitor.set("bucketStart", start);
+            monitor.set("bucketEnd", end);
+            monitor.set("count", count);
+            monitor.set("failureCount", failureCount);
+            if (latencyCount > 0) {
+                monitor.set("latencyCount", latencyCount);
+                monitor.set("latencySum", latencySum);
+                monitor.set("latencyMin", latencyMin);
+                monitor.set("latencyMax", latencyMax);
+                monitor.set("latencyAverage", (double) latencySum / latencyCount);
+            }
+            if (rollup.histogram != null && rollup.histogram.getCount() > 0) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.add(rollup.histogram);
+                rollup.histogram.reset();
+                monitor.set("latencyP50", toMillis(histogram.getValueAtPercentile(50)));
+                monitor.set("latencyP90", toMillis(histogram.getValueAtPercentile(90)));
+                monitor.set("latencyP99", toMillis(histogram.getValueAtPercentile(99)));
+                monitor.set("latencyP999", toMillis(histogram.getValueAtPercentile(99.9)));
+                if (histogram.getExemplar() != null) {
+                    monitor.set("latencyExemplar", histogram.getExemplar());
+                }
+                monitor.set("latencyHistogram", histogram).serializable();
+            }
+            if (rollup.distinct != null) {
+                HyperLogLog sketch = new HyperLogLog();
+                sketch.add(rollup.distinct);
+                rollup.distinct.reset();
+                String distinctKey = distinctCountAttribute;
+                if (distinctKey != null) {
+                    monitor.set("distinctCountAttribute", distinctKey);
+                }
+                monitor.set("distinctCount", sketch.estimate());
+                monitor.set("distinctCountSketch", sketch).serializable();
+            }
+            monitor.fire();
+        }
+    }
+
+    // the high resolution latency of transactions, else the latency attribute
+    static long latencyNanosOf(Monitor monitor, long latencyMillis) {
+        long nanos = -1;
+        if (monitor instanceof TransactionMonitor) {
+            nanos = ((TransactionMonitor) monitor).getLatencyNanos();
+        }
+        if (nanos < 0 && latencyMillis >= 0) {
+            nanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        }
+        return nanos;
+    }
+
+    static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Bucket {
+        private final ConcurrentMap<RollupKey, Rollup> rollups = new ConcurrentHashMap<RollupKey, Rollup>();
+        // the number of dimension rollups of each name
+        private final ConcurrentMap<String, AtomicInteger> cardinalities =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicIntegerArray inFlight = new AtomicIntegerArray(STRIPES * IN_FLIGHT_PADDING);
+
+        private void enter(int stripe) {
+            inFlight.incrementAndGet(stripe * IN_FLIGHT_PADDING);
+        }
+
+        private void exit(int stripe) {
+            inFlight.decrementAndGet(stripe * IN_FLIGHT_PADDING);
+        }
+
+        // only the closing thread waits, and only for adds already under way
+        private void awaitWriters() {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                while (inFlight.get(stripe * IN_FLIGHT_PADDING) != 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        private Rollup getRollup(RollupKey probe, boolean histogram, boolean distinct, int maxCardinality) {
+            Rollup rollup = rollups.get(probe);
+            if (rollup != null) {
+                return rollup;
+            }
+
+            RollupKey key = probe.copy();
+            AtomicInteger cardinality = null;
+            if (key.dimension != null) {
+                cardinality = getCardinality(key.name);
+                if (cardinality.incrementAndGet() > maxCardinality) {
+                    cardinality.decrementAndGet();
+                    cardinality = null;
+                    key = RollupKey.overflow(key.name, key.dimension);
+                    rollup = rollups.get(key);
+                    if (rollup != null) {
+                        return rollup;
+                    }
+                }
+            }
+
+            Rollup newRollup = new Rollup(histogram, distinct);
+            rollup = rollups.putIfAbsent(key, newRollup);
+            if (rollup == null) {
+                return newRollup;
+            }
+            if (cardinality != null) {
+                cardinality.decrementAndGet();
+            }
+            return rollup;
+        }
+
+        // called when a rollup is dropped from a bucket that is not in use
+        private void released(RollupKey key) {
+            if (key.dimension != null && key.values != null) {
+                AtomicInteger cardinality = cardinalities.get(key.name);
+                if (cardinality != null && cardinality.decrementAndGet() <= 0) {
+                    cardinalities.remove(key.name);
+                }
+            }
+        }
+
+        private AtomicInteger getCardinality(String name) {
+            AtomicInteger cardinality = cardinalities.get(name);
+            if (cardinality == null) {
+                AtomicInteger newCardinality = new AtomicInteger();
+                cardinality = cardinalities.putIfAbsent(name, newCardinality);
+                if (cardinality == null) {
+                    cardinality = newCardinality;
+                }
+            }
+            return cardinality;
+        }
+    }
+
+    private static final class Rollup {
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROLLUP_PADDING);
+        private final AtomicLong latencyMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong latencyMax = new AtomicLong(Long.MIN_VALUE);
+        private final LatencyHistogram histogram;
+        private final HyperLogLog distinct;
+
+        private Rollup(boolean histogram, boolean distinct) {
+            this.histogram = histogram ? new LatencyHistogram() : null;
+            this.distinct = distinct ? new HyperLogLog() : null;
+        }
+
+        private void add(int stripe, boolean failed, long latency) {
+            int base = stripe * ROLLUP_PADDING;
+            cells.incrementAndGet(base + COUNT);
+            if (failed) {
+                cells.incrementAndGet(base + FAILURE_COUNT);
+            }
+            if (latency >= 0) {
+                cells.incrementAndGet(base + LATENCY_COUNT);
+                cells.addAndGet(base + LATENCY_SUM, latency);
+                // the extremes settle quickly, so these rarely write
+                long min = latencyMin.get();
+                while (latency < min && !latencyMin.compareAndSet(min, latency)) {
+                    min = latencyMin.get();
+                }
+                long max = latencyMax.get();
+                while (latency > max && !latencyMax.compareAndSet(max, latency)) {
+                    max = latencyMax.get();
+                }
+            }
+        }
+
+        private long sumAndClear(int cell) {
+            long sum = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                sum += cells.getAndSet(stripe * ROLLUP_PADDING + cell, 0);
+            }
+            return sum;
+        }
+    }
+
+    private static final class Dimension {
+        private final String[] keys;
+        private final String label;
+
+        private Dimension(String[] keys) {
+            this.keys = keys;
+            StringBuffer buffer = new StringBuffer();
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                buffer.append(keys[i]);
+            }
+            this.label = buffer.toString();
+        }
+    }
+
+    /*
+     * Identifies a rollup by name, dimension and attribute values; a null
+     * dimension is the rollup of the name, and null values the overflow
+     * rollup of the dimension. The keys in the buckets are never changed.
+     * Each thread reuses one probe, resetting it for every lookup; its
+     * values array may be longer than the keys of the dimension.
+     */
+    private static final class RollupKey {
+        private String name;
+        private Dimension dimension;
+        private Object[] values;
+        private int hash;
+        private Object[] scratch;
+
+        private void reset(String name, Dimension dimension, Monitor monitor) {
+            this.name = name;
+            this.dimension = dimension;
+            int h = name.hashCode();
+            if (dimension == null) {
+                values = null;
+            } else {
+                h = h * 31 + System.identityHashCode(dimension);
+                String[] keys = dimension.keys;
+                if (scratch == null || scratch.length < keys.length) {
+                    scratch = new Object[keys.length];
+                }
+                values = scratch;
+                for (int i = 0; i < keys.length; i++) {
+                    Object value = monitor.hasAttribute(keys[i]) ? monitor.get(keys[i]) : null;
+                    values[i] = value;
+                    h = h * 31 + (value == null ? 0 : value.hashCode());
+                }
+            }
+            this.hash = h;
+        }
+
+        private RollupKey copy() {
+            RollupKey key = new RollupKey();
+            key.name = name;
+            key.dimension = dimension;
+            if (values != null) {
+                key.values = new Object[dimension.keys.length];
+                System.arraycopy(values, 0, key.values, 0, key.values.length);
+            }
+            key.hash = hash;
+            return key;
+        }
+
+        private static RollupKey overflow(String name, Dimension dimension) {
+            RollupKey key = new RollupKey();
+            key.name = name;
+            key.dimension = dimension;
+            key.hash = (name.hashCode() * 31 + System.identityHashCode(dimension)) * 31 + 1;
+            return key;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RollupKey)) {
+                return false;
+            }
+            RollupKey other = (RollupKey) o;
+            if (hash != other.hash || dimension != other.dimension || !name.equals(other.name)) {
+                return false;
+            }
+            if (values == null || other.values == null) {
+                return values == other.values;
+            }
+            for (int i = 0; i < dimension.keys.length; i++) {
+                Object value = values[i];
+                if (value == null ? other.values[i] != null : !value.equals(other.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
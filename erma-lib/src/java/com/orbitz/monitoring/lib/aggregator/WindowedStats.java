@@ -0,0 +1,216 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live statistics of one monitor name kept by a {@link WindowedStatsRegistry}:
+ * running counts, exponentially weighted 1, 5 and 15 minute throughput and
+ * failure rates, and latency percentiles over a sliding window.<p>
+ *
+ * The rates are updated every 5 seconds the way Unix load averages are, by
+ * whichever thread records or reads first after the tick is due. The window
+ * is split into slices, each a {@link LatencyHistogram}; the oldest slice is
+ * cleared by the first sample of the next, and queries merge the current
+ * slices. Samples that race with a slice being cleared may be lost.
+ *
+ * @since 4.1
+ */
+public class WindowedStats implements WindowedStatsMBean {
+
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int SLICES = 6;
+
+    private final String name;
+    private final long sliceMillis;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+
+    private final Ewma[] rates = new Ewma[] {new Ewma(1), new Ewma(5), new Ewma(15)};
+    private final Ewma[] failureRates = new Ewma[] {new Ewma(1), new Ewma(5), new Ewma(15)};
+
+    private final LatencyHistogram[] slices = new LatencyHistogram[SLICES];
+    private final AtomicLong[] sliceEpochs = new AtomicLong[SLICES];
+
+    WindowedStats(String name, long windowMillis) {
+        this.name = name;
+        this.sliceMillis = Math.max(1, windowMillis / SLICES);
+        for (int i = 0; i < SLICES; i++) {
+            slices[i] = new LatencyHistogram();
+            sliceEpochs[i] = new AtomicLong(-1);
+        }
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public double getOneMinuteRate() {
+        tickIfDue();
+        return rates[0].getRate();
+    }
+
+    public double getFiveMinuteRate() {
+        tickIfDue();
+        return rates[1].getRate();
+    }
+
+    public double getFifteenMinuteRate() {
+        tickIfDue();
+        return rates[2].getRate();
+    }
+
+    public double getOneMinuteFailureRate() {
+        tickIfDue();
+        return failureRates[0].getRate();
+    }
+
+    public double getFiveMinuteFailureRate() {
+        tickIfDue();
+        return failureRates[1].getRate();
+    }
+
+    public double getFifteenMinuteFailureRate() {
+        tickIfDue();
+        return failureRates[2].getRate();
+    }
+
+    public double getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+    public double getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+    public double getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+    public double getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
+    /**
+     * Gets a latency percentile over the sliding window.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in milliseconds, or -1 if there were no samples
+     */
+    public double getLatencyPercentile(double percentile) {
+        long nanos = getWindowHistogram().getValueAtPercentile(percentile);
+        return nanos < 0 ? -1 : RollupAggregator.toMillis(nanos);
+    }
+
+    /**
+     * Gets the latencies recorded in the sliding window.
+     *
+     * @return a copy of the window's histogram
+     */
+    public LatencyHistogram getWindowHistogram() {
+        long current = System.currentTimeMillis() / sliceMillis;
+        LatencyHistogram window = new LatencyHistogram();
+        for (int i = 0; i < SLICES; i++) {
+            if (current - sliceEpochs[i].get() < SLICES) {
+                window.add(slices[i]);
+            }
+        }
+        return window;
+    }
+
+    public String toString() {
+        return name + " count=" + getCount() + " failures=" + getFailureCount() +
+                " rate1m=" + getOneMinuteRate() + " rate5m=" + getFiveMinuteRate() +
+                " rate15m=" + getFifteenMinuteRate() + " failureRate1m=" + getOneMinuteFailureRate() +
+                " p50=" + getLatencyP50() + " p99=" + getLatencyP99();
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    void record(boolean failed, long latencyNanos) {
+        tickIfDue();
+        count.incrementAndGet();
+        for (int i = 0; i < rates.length; i++) {
+            rates[i].mark();
+        }
+        if (failed) {
+            failureCount.incrementAndGet();
+            for (int i = 0; i < failureRates.length; i++) {
+                failureRates[i].mark();
+            }
+        }
+        if (latencyNanos >= 0) {
+            currentSlice().record(latencyNanos, null);
+        }
+    }
+
+    // advances the rates by one tick
+    void tick() {
+        for (int i = 0; i < rates.length; i++) {
+            rates[i].tick();
+            failureRates[i].tick();
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private LatencyHistogram currentSlice() {
+        long epoch = System.currentTimeMillis() / sliceMillis;
+        int index = (int) (epoch % SLICES);
+        long sliceEpoch = sliceEpochs[index].get();
+        if (sliceEpoch != epoch && sliceEpochs[index].compareAndSet(sliceEpoch, epoch)) {
+            slices[index].reset();
+        }
+        return slices[index];
+    }
+
+    private void tickIfDue() {
+        long last = lastTick.get();
+        long age = System.nanoTime() - last;
+        if (age >= TICK_NANOS && lastTick.compareAndSet(last, last + age - age % TICK_NANOS)) {
+            for (long ticks = age / TICK_NANOS; ticks > 0; ticks--) {
+                tick();
+            }
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Ewma {
+        private final double alpha;
+        private final AtomicLong uncounted = new AtomicLong();
+        // only written by the thread that won the tick
+        private volatile double rate;
+        private volatile boolean initialized;
+
+        private Ewma(int minutes) {
+            alpha = 1 - Math.exp(-5.0 / 60 / minutes);
+        }
+
+        private void mark() {
+            uncounted.incrementAndGet();
+        }
+
+        private void tick() {
+            double instantRate = uncounted.getAndSet(0) / 5.0;
+            if (initialized) {
+                rate += alpha * (instantRate - rate);
+            } else {
+                rate = instantRate;
+                initialized = true;
+            }
+        }
+
+        private double getRate() {
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+/**
+ * The management interface of the {@link WindowedStats} of one monitor name.
+ * Rates are per second and latencies in milliseconds.
+ *
+ * @since 4.1
+ */
+public interface WindowedStatsMBean {
+
+    String getName();
+
+    long getCount();
+
+    long getFailureCount();
+
+    double getOneMinuteRate();
+
+    double getFiveMinuteRate();
+
+    double getFifteenMinuteRate();
+
+    double getOneMinuteFailureRate();
+
+    double getFiveMinuteFailureRate();
+
+    double getFifteenMinuteFailureRate();
+
+    double getLatencyP50();
+
+    double getLatencyP90();
+
+    double getLatencyP99();
+
+    double getLatencyP999();
+}
@@ -0,0 +1,227 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import com.orbitz.monitoring.api.Aggregator;
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import org.apache.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link Aggregator} that keeps {@link WindowedStats} per monitor name:
+ * 1, 5 and 15 minute throughput and failure rates and sliding window latency
+ * percentiles that can be read at any time. It is fed by wrapping it in an
+ * {@link com.orbitz.monitoring.lib.processor.AggregationMonitorProcessor}.
+ * Recording takes no locks.<p>
+ *
+ * When mbeanDomain is set (the default is "com.orbitz.monitoring"), startup
+ * registers the registry with the platform MBeanServer as
+ * type=WindowedStatsRegistry, and the statistics of each name as
+ * type=WindowedStats,name=the monitor name as it is seen. Shutdown
+ * unregisters them.<p>
+ *
+ * To bound memory, statistics are kept for at most maxNames names. The
+ * monitors of further names are recorded under the single overflow name
+ * "(overflow)" and counted as overflowCount.
+ *
+ * @since 4.1
+ */
+public class WindowedStatsRegistry implements Aggregator, WindowedStatsRegistryMBean {
+
+    private static final Logger log = Logger.getLogger(WindowedStatsRegistry.class);
+
+    /**
+     * The name that the monitors of names over maxNames are recorded under.
+     */
+    public static final String OVERFLOW_NAME = "(overflow)";
+
+    private long windowMillis = 60000;
+    private int maxNames = 1000;
+    private String mbeanDomain = "com.orbitz.monitoring";
+
+    private final ConcurrentMap<String, WindowedStats> stats = new ConcurrentHashMap<String, WindowedStats>();
+    // the names other than the overflow name that statistics are kept for
+    private final AtomicInteger nameCount = new AtomicInteger();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile boolean registering;
+
+    // ** PUBLIC METHODS ******************************************************
+    public void aggregate(Monitor monitor) {
+        if (monitor.hasAttribute(Attribute.AGGREGATED) || !monitor.hasAttribute(Attribute.NAME)) {
+            return;
+        }
+        String name = monitor.getAsString(Attribute.NAME);
+        long latency = monitor.hasAttribute(Attribute.LATENCY) ? monitor.getAsLong(Attribute.LATENCY) : -1;
+        getOrCreateStats(name).record(monitor.getAsBoolean(Attribute.FAILED, false),
+                RollupAggregator.latencyNanosOf(monitor, latency));
+    }
+
+    public synchronized void startup() {
+        if (mbeanDomain == null || registering) {
+            return;
+        }
+        registering = true;
+        register(this, "type=WindowedStatsRegistry");
+        for (Iterator i = stats.values().iterator(); i.hasNext();) {
+            WindowedStats windowedStats = (WindowedStats) i.next();
+            register(windowedStats, "type=WindowedStats,name=" + ObjectName.quote(windowedStats.getName()));
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (!registering) {
+            return;
+        }
+        registering = false;
+        unregister("type=WindowedStatsRegistry");
+        for (Iterator i = stats.keySet().iterator(); i.hasNext();) {
+            unregister("type=WindowedStats,name=" + ObjectName.quote((String) i.next()));
+        }
+    }
+
+    /**
+     * Gets the statistics of a monitor name.
+     *
+     * @param name the monitor name
+     * @return the statistics, or null if the name has not been seen
+     */
+    public WindowedStats getStats(String name) {
+        return stats.get(name);
+    }
+
+    public String[] getNames() {
+        return (String[]) stats.keySet().toArray(new String[0]);
+    }
+
+    public String getListing() {
+        StringBuffer buffer = new StringBuffer();
+        for (Iterator i = new TreeMap(stats).values().iterator(); i.hasNext();) {
+            buffer.append(i.next()).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public int getMaxNames() {
+        return maxNames;
+    }
+
+    /**
+     * Sets how many names statistics are kept for before the monitors of
+     * new names are recorded under the overflow name.
+     *
+     * @param maxNames the limit, at least 1
+     */
+    public void setMaxNames(int maxNames) {
+        if (maxNames < 1) {
+            throw new IllegalArgumentException("maxNames must be at least 1");
+        }
+        this.maxNames = maxNames;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Sets the length of the window that latency percentiles are computed
+     * over. Applies to names seen after the change.
+     *
+     * @param windowMillis the window in milliseconds
+     */
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be positive");
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    public String getMBeanDomain() {
+        return mbeanDomain;
+    }
+
+    /**
+     * Sets the domain of the platform MBeans, or null to register none.
+     * Takes effect at the next startup.
+     *
+     * @param mbeanDomain the JMX domain
+     */
+    public void setMBeanDomain(String mbeanDomain) {
+        this.mbeanDomain = mbeanDomain;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private WindowedStats getOrCreateStats(String name) {
+        WindowedStats windowedStats = stats.get(name);
+        if (windowedStats != null) {
+            return windowedStats;
+        }
+
+        // reserve a place for the name, or record it under the overflow name
+        boolean reserved = nameCount.incrementAndGet() <= maxNames;
+        if (!reserved) {
+            nameCount.decrementAndGet();
+            overflowCount.incrementAndGet();
+            name = OVERFLOW_NAME;
+            windowedStats = stats.get(name);
+            if (windowedStats != null) {
+                return windowedStats;
+            }
+        }
+
+        WindowedStats newStats = new WindowedStats(name, windowMillis);
+        windowedStats = stats.putIfAbsent(name, newStats);
+        if (windowedStats == null) {
+            if (registering) {
+                registerStats(newStats);
+            }
+            return newStats;
+        }
+        if (reserved) {
+            nameCount.decrementAndGet();
+        }
+        return windowedStats;
+    }
+
+    // only the thread that added the name gets here
+    private synchronized void registerStats(WindowedStats windowedStats) {
+        if (registering) {
+            register(windowedStats, "type=WindowedStats,name=" + ObjectName.quote(windowedStats.getName()));
+        }
+    }
+
+    private void register(Object mbean, String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(mbeanDomain + ":" + properties);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Exception caught while registering MBean " + properties + "; application is unaffected: ", e);
+        }
+    }
+
+    private void unregister(String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(mbeanDomain + ":" + properties);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Exception caught while unregistering MBean " + properties + ": ", e);
+        }
+    }
+}
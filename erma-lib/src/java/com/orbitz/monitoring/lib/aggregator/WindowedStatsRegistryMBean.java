@@ -0,0 +1,45 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+/**
+ * The management interface of a {@link WindowedStatsRegistry}.
+ *
+ * @since 4.1
+ */
+public interface WindowedStatsRegistryMBean {
+
+    /**
+     * Gets the monitor names that statistics are kept for.
+     *
+     * @return the names
+     */
+    String[] getNames();
+
+    /**
+     * Gets the current statistics of every name, one line per name.
+     *
+     * @return the listing
+     */
+    String getListing();
+
+    /**
+     * Gets the number of monitors recorded under the overflow name because
+     * maxNames names were already kept.
+     *
+     * @return the number of overflowed monitors
+     */
+    long getOverflowCount();
+
+    /**
+     * Gets how many names statistics are kept for.
+     *
+     * @return the limit
+     */
+    int getMaxNames();
+
+    /**
+     * Sets how many names statistics are kept for.
+     *
+     * @param maxNames the limit, at least 1
+     */
+    void setMaxNames(int maxNames);
+}
@@ -1,103 +1,266 @@
 package com.orbitz.monitoring.lib.decomposer;
 
 import com.orbitz.monitoring.api.Decomposer;
-import com.orbitz.monitoring.api.monitor.AttributeHolder;
-import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+import org.apache.log4j.Logger;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.Date;
 import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.io.Serializable;
 
 /**
  * A class that takes any Object and turns it into a Serializable implementation 
- * that can be a drop-in replacement for the original Object.
+ * that can be a drop-in replacement for the original Object.<p>
+ *
+ * All instances share one stateless registry of decomposer steps. Immutable
+ * values such as Strings, boxed primitives and Dates are returned as they
+ * are, without tracking the objects already decomposed.<p>
+ *
+ * Each call can be held to budgets: how deeply containers nest, how many
+ * elements a collection, map or array has, how many values are decomposed
+ * in all, and how long strings are. A value that would exceed one is
+ * replaced by a {@link TruncatedValue}, and the replacements are counted by
+ * reason. A budget of 0, the default, is unlimited.<p>
+ *
+ * An identity cache may be enabled by giving it a size. Objects of immutable
+ * classes, which are enums, classes annotated
+ * {@link com.orbitz.monitoring.api.annotation.ImmutableValue} and the
+ * immutableClasses configured, are then decomposed once and their
+ * decomposed form is shared by every monitor that carries them. The cache
+ * holds its objects weakly, so they are not kept alive by it. Shared forms
+ * must not be modified.
+ *
+ * @@org.springframework.jmx.export.metadata.ManagedResource
+ * (description="AttributeDecomposer decomposition budgets, truncation counts and identity cache")
  *
  * @author Doug Barth
  */
 public class AttributeDecomposer implements Decomposer {
+    private static final Logger log = Logger.getLogger(AttributeDecomposer.class);
+
+    private int _maxDepth;
+    private int _maxCollectionSize;
+    private int _maxNodes;
+    private int _maxStringLength;
+    private final AtomicLongArray _truncations = new AtomicLongArray(TruncatedValue.Reason.values().length);
+    private final IdentityCache _identityCache = new IdentityCache();
+    private List<String> _immutableClasses = new ArrayList<String>();
+
     public Serializable decompose(Object object) {
-        return new BaseAttributeDecomposer().decompose(object, new IdentityHashMap());
+        if (object == null) {
+            return null;
+        }
+        BaseAttributeDecomposer registry = BaseAttributeDecomposer.getInstance();
+        Step step = registry.getStep(object.getClass());
+        boolean budgeted = _maxDepth > 0 || _maxCollectionSize > 0 || _maxNodes > 0 || _maxStringLength > 0;
+        IdentityCache cache = _identityCache.isEnabled() ? _identityCache : null;
+        if (!budgeted && cache == null) {
+            if (step instanceof IdentityDecomposer) {
+                return (Serializable) object;
+            }
+            return step.decompose(object, new IdentityHashMap());
+        }
+        if (step instanceof IdentityDecomposer
+                && !(_maxStringLength > 0 && object instanceof String && ((String) object).length() > _maxStringLength)) {
+            return (Serializable) object;
+        }
+        return new DecompositionContext(_maxDepth, _maxCollectionSize, _maxNodes, _maxStringLength, _truncations,
+                cache).decompose(object, step);
     }
 
-    interface Step {
-        Serializable decompose(Object object, IdentityHashMap alreadyDecomposed);
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the levels of nested containers decomposed, 0 if unlimited")
+     */
+    public int getMaxDepth() {
+        return _maxDepth;
     }
-}
 
-class BaseAttributeDecomposer implements AttributeDecomposer.Step {
-    private Map _classToDecomposer;
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the levels of nested containers decomposed, 0 for unlimited")
+     */
+    public void setMaxDepth(int maxDepth) {
+        _maxDepth = requireNonNegative(maxDepth, "maxDepth");
+    }
 
-    public BaseAttributeDecomposer() {
-        _classToDecomposer = new HashMap();
-        IdentityDecomposer identityDecomposer = new IdentityDecomposer();
-        _classToDecomposer.put(Character.class, identityDecomposer);
-        _classToDecomposer.put(String.class, identityDecomposer);
-        _classToDecomposer.put(Byte.class, identityDecomposer);
-        _classToDecomposer.put(Short.class, identityDecomposer);
-        _classToDecomposer.put(Integer.class, identityDecomposer);
-        _classToDecomposer.put(Long.class, identityDecomposer);
-        _classToDecomposer.put(Float.class, identityDecomposer);
-        _classToDecomposer.put(Double.class, identityDecomposer);
-        _classToDecomposer.put(Boolean.class, identityDecomposer);
-        _classToDecomposer.put(Date.class, identityDecomposer);
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the most elements of a collection, map or array decomposed, 0 if unlimited")
+     */
+    public int getMaxCollectionSize() {
+        return _maxCollectionSize;
+    }
 
-        _classToDecomposer.put(StringBuffer.class, new ToStringDecomposer());
-        _classToDecomposer.put(Class.class, new ClassDecomposer());
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the most elements of a collection, map or array decomposed, 0 for unlimited")
+     */
+    public void setMaxCollectionSize(int maxCollectionSize) {
+        _maxCollectionSize = requireNonNegative(maxCollectionSize, "maxCollectionSize");
+    }
 
-        _classToDecomposer.put(Map.class, new MapDecomposer(this));
-        _classToDecomposer.put(List.class, new ListDecomposer(this));
-        _classToDecomposer.put(Set.class, new SetDecomposer(this));
-        _classToDecomposer.put(CompositeAttributeHolder.class, new AttributeHolderDecomposer(this));
-        _classToDecomposer.put(AttributeHolder.class, new AttributeHolderDecomposer(this));
-        _classToDecomposer.put(Object[].class, new ArrayDecomposer(this));
-        _classToDecomposer.put(Object.class, new ReflectiveDecomposer(this));
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the most values decomposed per attribute, 0 if unlimited")
+     */
+    public int getMaxNodes() {
+        return _maxNodes;
     }
 
-    public Map getClassDecomposerMap() {
-        return new HashMap(_classToDecomposer);
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the most values decomposed per attribute, 0 for unlimited")
+     */
+    public void setMaxNodes(int maxNodes) {
+        _maxNodes = requireNonNegative(maxNodes, "maxNodes");
     }
 
-    public Serializable decompose(Object object, IdentityHashMap alreadyDecomposed) {
-        if (object == null) {
-            return null;
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the longest string decomposed, 0 if unlimited")
+     */
+    public int getMaxStringLength() {
+        return _maxStringLength;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the longest string decomposed, 0 for unlimited")
+     */
+    public void setMaxStringLength(int maxStringLength) {
+        _maxStringLength = requireNonNegative(maxStringLength, "maxStringLength");
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the values truncated for nesting deeper than maxDepth")
+     */
+    public long getDepthTruncations() {
+        return getTruncations(TruncatedValue.Reason.DEPTH);
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the values truncated for having more than maxCollectionSize elements")
+     */
+    public long getSizeTruncations() {
+        return getTruncations(TruncatedValue.Reason.SIZE);
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the values truncated for exceeding maxNodes")
+     */
+    public long getNodeTruncations() {
+        return getTruncations(TruncatedValue.Reason.NODES);
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the strings truncated for being longer than maxStringLength")
+     */
+    public long getLengthTruncations() {
+        return getTruncations(TruncatedValue.Reason.LENGTH);
+    }
+
+    /**
+     * Gets the number of values replaced for exceeding a budget.
+     *
+     * @param reason the budget
+     * @return the number of values replaced since this decomposer was created
+     */
+    public long getTruncations(TruncatedValue.Reason reason) {
+        return _truncations.get(reason.ordinal());
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the most immutable objects whose decomposed form is cached, 0 if the cache is disabled")
+     */
+    public int getIdentityCacheSize() {
+        return _identityCache.getMaxSize();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the most immutable objects whose decomposed form is cached, 0 to disable the cache")
+     */
+    public void setIdentityCacheSize(int identityCacheSize) {
+        _identityCache.setMaxSize(requireNonNegative(identityCacheSize, "identityCacheSize"));
+    }
+
+    public List<String> getImmutableClasses() {
+        return _immutableClasses;
+    }
+
+    /**
+     * Sets the classes, in addition to enums and classes annotated
+     * ImmutableValue, whose instances and subclass instances never change once
+     * they are attributes. Names of classes that cannot be loaded are ignored.
+     *
+     * @param immutableClasses fully qualified class names
+     */
+    public void setImmutableClasses(List<String> immutableClasses) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = AttributeDecomposer.class.getClassLoader();
         }
-        
-        Class klass = object.getClass();
-        AttributeDecomposer.Step decomposer = null;
-        CLASS_LOOP:
-        while (klass != null) {
-            decomposer = (AttributeDecomposer.Step)
-                    _classToDecomposer.get(klass);
-
-            if (decomposer != null) {
-                break;
+        List<Class> classes = new ArrayList<Class>();
+        for (String className : immutableClasses) {
+            try {
+                classes.add(Class.forName(className, false, loader));
+            } catch (ClassNotFoundException e) {
+                log.warn("Immutable class " + className + " not found; application is unaffected: ", e);
             }
+        }
+        _immutableClasses = new ArrayList<String>(immutableClasses);
+        _identityCache.setImmutableClasses(classes);
+    }
 
-            if (Object[].class.isAssignableFrom(klass)) {
-                decomposer = (AttributeDecomposer.Step) _classToDecomposer.get(
-                        Object[].class);
-                if (decomposer != null) {
-                    break;
-                }
-            }
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the immutable objects whose decomposed form is cached")
+     */
+    public int getIdentityCacheEntries() {
+        return _identityCache.size();
+    }
 
-            Class[] interfaces = klass.getInterfaces();
-            for (int i = 0; i < interfaces.length; i++) {
-                Class anInterface = interfaces[i];
-                decomposer = (AttributeDecomposer.Step)
-                        _classToDecomposer.get(anInterface);
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the immutable objects found in the identity cache")
+     */
+    public long getIdentityCacheHits() {
+        return _identityCache.getHits();
+    }
 
-                if (decomposer != null) {
-                    break CLASS_LOOP;
-                }
-            }
-            klass = klass.getSuperclass();
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the immutable objects not found in the identity cache")
+     */
+    public long getIdentityCacheMisses() {
+        return _identityCache.getMisses();
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the fraction of immutable objects found in the identity cache")
+     */
+    public double getIdentityCacheHitRate() {
+        long hits = _identityCache.getHits();
+        long lookups = hits + _identityCache.getMisses();
+        return (lookups == 0) ? 0.0 : (double) hits / lookups;
+    }
+
+    private static int requireNonNegative(int value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " cannot be negative");
         }
+        return value;
+    }
 
-        return decomposer.decompose(object, alreadyDecomposed);
+    interface Step {
+        Serializable decompose(Object object, IdentityHashMap alreadyDecomposed);
     }
 }
@@ -12,21 +12,18 @@ import java.util.IdentityHashMap;
 public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
     private AttributeDecomposer.Step _delegate;
 
-    private Object updatedValue;
-
     public AttributeHolderDecomposer(AttributeDecomposer.Step delegate) {
         _delegate = delegate;
     }
 
     Serializable createMutableContainer(Object object) {
         AttributeHolder holder = (AttributeHolder) object;
-        return new AttributeHolder(holder.getValue());
+        return copy(holder, holder.getValue());
     }
 
     void decomposeInto(Object o, Serializable container, IdentityHashMap alreadyDecomposed) {
-        AttributeHolder holder = (AttributeHolder) o;
-
-        updatedValue = _delegate.decompose(holder.getValue(), alreadyDecomposed);
+        // No-op; the step is shared, so decompose() builds the new holder
+        // from the decomposed value rather than keeping it in a field
     }
 
     public Serializable decompose(final Object object, final IdentityHashMap alreadyDecomposed) {
@@ -39,10 +36,28 @@ public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
             } else {
                 Serializable mutableContainer = createMutableContainer(object);
                 alreadyDecomposed.put(object, mutableContainer);
-                decomposeInto(object, mutableContainer, alreadyDecomposed);
-                Serializable holder = new AttributeHolder(updatedValue);
-                return holder;
+                Object updatedValue = _delegate.decompose(
+                        ((AttributeHolder) object).getValue(), alreadyDecomposed);
+                return copy((AttributeHolder) object, updatedValue);
             }
         }
 
+    // a holder of the same kind and flags as the original, holding the value
+    private static AttributeHolder copy(AttributeHolder original, Object value) {
+        AttributeHolder copy;
+        if (original instanceof CompositeAttributeHolder) {
+            copy = new CompositeAttributeHolder(value,
+                    ((CompositeAttributeHolder) original).isInheritable());
+        } else {
+            copy = new AttributeHolder(value);
+        }
+        if (original.isSerializable()) {
+            copy.serializable();
+        }
+        if (original.isLocked()) {
+            copy.lock();
+        }
+        return copy;
+    }
+
 }
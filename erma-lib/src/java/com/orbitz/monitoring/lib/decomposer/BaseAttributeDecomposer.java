@@ -0,0 +1,131 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The registry of decomposition steps shared by all AttributeDecomposers,
+ * which resolves and caches the step for each class decomposed.
+ */
+class BaseAttributeDecomposer implements AttributeDecomposer.Step {
+    private static final BaseAttributeDecomposer INSTANCE = new BaseAttributeDecomposer();
+
+    private final Map _classToDecomposer;
+    // the step resolved for each class seen; steps do not refer to the classes
+    private final ClassCache<AttributeDecomposer.Step> _resolved =
+            new ClassCache<AttributeDecomposer.Step>();
+
+    public BaseAttributeDecomposer() {
+        Map classToDecomposer = new HashMap();
+        IdentityDecomposer identityDecomposer = new IdentityDecomposer();
+        classToDecomposer.put(Character.class, identityDecomposer);
+        classToDecomposer.put(String.class, identityDecomposer);
+        classToDecomposer.put(Byte.class, identityDecomposer);
+        classToDecomposer.put(Short.class, identityDecomposer);
+        classToDecomposer.put(Integer.class, identityDecomposer);
+        classToDecomposer.put(Long.class, identityDecomposer);
+        classToDecomposer.put(Float.class, identityDecomposer);
+        classToDecomposer.put(Double.class, identityDecomposer);
+        classToDecomposer.put(Boolean.class, identityDecomposer);
+        classToDecomposer.put(Date.class, identityDecomposer);
+        classToDecomposer.put(DecomposedThrowable.class, identityDecomposer);
+        classToDecomposer.put(TruncatedValue.class, identityDecomposer);
+
+        classToDecomposer.put(StringBuffer.class, new ToStringDecomposer());
+        classToDecomposer.put(Class.class, new ClassDecomposer());
+
+        classToDecomposer.put(Map.class, new MapDecomposer(this));
+        classToDecomposer.put(List.class, new ListDecomposer(this));
+        classToDecomposer.put(Set.class, new SetDecomposer(this));
+        classToDecomposer.put(CompositeAttributeHolder.class, new AttributeHolderDecomposer(this));
+        classToDecomposer.put(AttributeHolder.class, new AttributeHolderDecomposer(this));
+        classToDecomposer.put(Object[].class, new ArrayDecomposer(this));
+        classToDecomposer.put(Throwable.class, new ThrowableDecomposer(this));
+        classToDecomposer.put(Object.class, new ReflectiveDecomposer(this));
+        _classToDecomposer = Collections.unmodifiableMap(classToDecomposer);
+    }
+
+    /**
+     * Gets the registry shared by all AttributeDecomposers.
+     *
+     * @return the shared registry
+     */
+    static BaseAttributeDecomposer getInstance() {
+        return INSTANCE;
+    }
+
+    public Map getClassDecomposerMap() {
+        return new HashMap(_classToDecomposer);
+    }
+
+    public Serializable decompose(Object object, IdentityHashMap alreadyDecomposed) {
+        if (object == null) {
+            return null;
+        }
+
+        AttributeDecomposer.Step step = getStep(object.getClass());
+        if (alreadyDecomposed instanceof DecompositionContext) {
+            return ((DecompositionContext) alreadyDecomposed).decompose(object, step);
+        }
+        return step.decompose(object, alreadyDecomposed);
+    }
+
+    /**
+     * Gets the step that decomposes instances of a class, resolving it from
+     * the class's superclasses and interfaces the first time it is seen.
+     *
+     * @param klass the class of an object to decompose
+     * @return the step
+     */
+    AttributeDecomposer.Step getStep(Class klass) {
+        AttributeDecomposer.Step step = _resolved.get(klass);
+        if (step == null) {
+            step = _resolved.putIfAbsent(klass, resolve(klass));
+        }
+        return step;
+    }
+
+    private AttributeDecomposer.Step resolve(Class klass) {
+        AttributeDecomposer.Step decomposer = null;
+        CLASS_LOOP:
+        while (klass != null) {
+            decomposer = (AttributeDecomposer.Step)
+                    _classToDecomposer.get(klass);
+
+            if (decomposer != null) {
+                break;
+            }
+
+            if (Object[].class.isAssignableFrom(klass)) {
+                decomposer = (AttributeDecomposer.Step) _classToDecomposer.get(
+                        Object[].class);
+                if (decomposer != null) {
+                    break;
+                }
+            }
+
+            Class[] interfaces = klass.getInterfaces();
+            for (int i = 0; i < interfaces.length; i++) {
+                Class anInterface = interfaces[i];
+                decomposer = (AttributeDecomposer.Step)
+                        _classToDecomposer.get(anInterface);
+
+                if (decomposer != null) {
+                    break CLASS_LOOP;
+                }
+            }
+            klass = klass.getSuperclass();
+        }
+
+        return decomposer;
+    }
+}
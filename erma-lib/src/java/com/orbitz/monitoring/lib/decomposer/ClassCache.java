@@ -0,0 +1,137 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of values computed for classes that does not keep their class
+ * loaders alive.<p>
+ *
+ * Classes loaded by the decomposer's own class loader or its parents cannot
+ * be unloaded before the decomposer, so they are cached in a concurrent map.
+ * Other classes, such as those of webapps, are cached in a concurrent map
+ * keyed weakly by class, with their values held softly, since a value such
+ * as a read method may refer back to its class. Such a value survives young
+ * collections and is only computed again after the garbage collector has
+ * cleared it under memory pressure, which is when an undeployed webapp's
+ * class loader can be unloaded. Neither lookup takes a lock.
+ *
+ * @since 4.1
+ */
+class ClassCache<V> {
+    private final ConcurrentMap<Class, V> _pinned = new ConcurrentHashMap<Class, V>();
+    private final ConcurrentMap<ClassKey, SoftReference<V>> _unloadable =
+            new ConcurrentHashMap<ClassKey, SoftReference<V>>();
+    private final ReferenceQueue _collected = new ReferenceQueue();
+
+    /**
+     * Gets the value cached for a class.
+     *
+     * @param klass the class
+     * @return the value, or null if none is cached
+     */
+    V get(Class klass) {
+        V value = _pinned.get(klass);
+        if (value == null && !isPinned(klass)) {
+            SoftReference<V> reference = _unloadable.get(new ClassKey(klass, null));
+            value = (reference != null) ? reference.get() : null;
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value for a class, unless one is already cached.
+     *
+     * @param klass the class
+     * @param value the value
+     * @return the value cached
+     */
+    V putIfAbsent(Class klass, V value) {
+        if (isPinned(klass)) {
+            V cached = _pinned.putIfAbsent(klass, value);
+            return (cached != null) ? cached : value;
+        }
+        expungeCollected();
+        ClassKey key = new ClassKey(klass, _collected);
+        SoftReference<V> reference = new SoftReference<V>(value);
+        while (true) {
+            SoftReference<V> cachedReference = _unloadable.putIfAbsent(key, reference);
+            if (cachedReference == null) {
+                return value;
+            }
+            V cached = cachedReference.get();
+            if (cached != null) {
+                return cached;
+            }
+            // the cached value was cleared
+            if (_unloadable.replace(key, cachedReference, reference)) {
+                return value;
+            }
+        }
+    }
+
+    void clear() {
+        _pinned.clear();
+        _unloadable.clear();
+    }
+
+    int size() {
+        expungeCollected();
+        return _pinned.size() + _unloadable.size();
+    }
+
+    // true if the class cannot be unloaded while the decomposer is loaded
+    static boolean isPinned(Class klass) {
+        ClassLoader loader = klass.getClassLoader();
+        if (loader == null) {
+            return true;
+        }
+        for (ClassLoader l = ClassCache.class.getClassLoader(); l != null; l = l.getParent()) {
+            if (l == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void expungeCollected() {
+        Reference reference;
+        while ((reference = _collected.poll()) != null) {
+            _unloadable.remove(reference);
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    /*
+     * Equal to another key for the same class. A key whose class has been
+     * unloaded is only equal to itself, which is how it is removed.
+     */
+    private static final class ClassKey extends WeakReference<Class> {
+        private final int _hash;
+
+        private ClassKey(Class referent, ReferenceQueue queue) {
+            super(referent, queue);
+            _hash = System.identityHashCode(referent);
+        }
+
+        public int hashCode() {
+            return _hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof ClassKey)) {
+                return false;
+            }
+            Class referent = get();
+            return referent != null && referent == ((ClassKey) o).get();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.DynaClass;
+import org.apache.commons.beanutils.DynaProperty;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The serializable form of a JavaBean produced by the
+ * {@link ReflectiveDecomposer}: the decomposed values of its properties in
+ * an array, described by a {@link Schema} that is shared by every bean
+ * decomposed from the same class and written once per serialization stream.<p>
+ *
+ * It is a {@link DynaBean}, so renderers and nested property expressions
+ * keep working on it as they did on the LazyDynaBeans it replaces. Its
+ * properties are fixed by its schema; getting an unknown property returns
+ * null, and setting one fails.
+ *
+ * @since 4.1
+ */
+public class DecomposedBean implements DynaBean, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Schema _schema;
+    private final Object[] _values;
+
+    DecomposedBean(Schema schema) {
+        _schema = schema;
+        _values = new Object[schema._names.length];
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public boolean contains(String name, String key) {
+        return toMap(name).containsKey(key);
+    }
+
+    public Object get(String name) {
+        int index = _schema.indexOf(name);
+        return (index < 0) ? null : _values[index];
+    }
+
+    public Object get(String name, int index) {
+        Object value = get(name);
+        if (value instanceof List) {
+            return ((List) value).get(index);
+        } else if (value != null && value.getClass().isArray()) {
+            return Array.get(value, index);
+        }
+        throw new IllegalArgumentException("Non-indexed property for '" + name + "[" + index + "]'");
+    }
+
+    public Object get(String name, String key) {
+        return toMap(name).get(key);
+    }
+
+    public DynaClass getDynaClass() {
+        return _schema;
+    }
+
+    public void remove(String name, String key) {
+        toMap(name).remove(key);
+    }
+
+    public void set(String name, Object value) {
+        _values[requireIndex(name)] = value;
+    }
+
+    public void set(String name, int index, Object value) {
+        Object indexed = get(name);
+        if (indexed instanceof List) {
+            ((List) indexed).set(index, value);
+        } else if (indexed != null && indexed.getClass().isArray()) {
+            Array.set(indexed, index, value);
+        } else {
+            throw new IllegalArgumentException("Non-indexed property for '" + name + "[" + index + "]'");
+        }
+    }
+
+    public void set(String name, String key, Object value) {
+        toMap(name).put(key, value);
+    }
+
+    // the values are not rendered, as they may refer back to this bean
+    public String toString() {
+        return getClass().getName() + "[" + _schema.getName() + "]";
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    void setValue(int index, Object value) {
+        _values[index] = value;
+    }
+
+    Object getValue(int index) {
+        return _values[index];
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private int requireIndex(String name) {
+        int index = _schema.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException(_schema.getName() + " has no property " + name);
+        }
+        return index;
+    }
+
+    private Map toMap(String name) {
+        Object value = _values[requireIndex(name)];
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Non-mapped property for '" + name + "'");
+        }
+        return (Map) value;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    /**
+     * The class name and property names of the beans decomposed from one
+     * class.
+     */
+    public static final class Schema implements DynaClass, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final byte PLAIN = 0;
+        static final byte ARRAY = 1;
+        static final byte LIST = 2;
+        static final byte MAP = 3;
+
+        private final String _className;
+        private final String[] _names;
+        // one of the kinds above per property, so that indexed and mapped
+        // properties can be described without serializing their classes
+        private final byte[] _kinds;
+        private transient DynaProperty[] _properties;
+
+        Schema(String className, String[] names, byte[] kinds) {
+            _className = className;
+            _names = names;
+            _kinds = kinds;
+        }
+
+        public String getName() {
+            return _className;
+        }
+
+        public DynaProperty getDynaProperty(String name) {
+            int index = indexOf(name);
+            return (index < 0) ? null : getDynaProperties()[index];
+        }
+
+        public DynaProperty[] getDynaProperties() {
+            DynaProperty[] properties = _properties;
+            if (properties == null) {
+                properties = new DynaProperty[_names.length];
+                for (int i = 0; i < properties.length; i++) {
+                    properties[i] = new DynaProperty(_names[i], typeOf(_kinds[i]));
+                }
+                _properties = properties;
+            }
+            return properties;
+        }
+
+        public DynaBean newInstance() {
+            return new DecomposedBean(this);
+        }
+
+        public String toString() {
+            return "Schema " + _className + " " + Arrays.asList(_names);
+        }
+
+        String[] getNames() {
+            return _names;
+        }
+
+        byte[] getKinds() {
+            return _kinds;
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < _names.length; i++) {
+                if (_names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        static byte kindOf(Class type) {
+            if (type.isArray()) {
+                return ARRAY;
+            } else if (List.class.isAssignableFrom(type)) {
+                return LIST;
+            } else if (Map.class.isAssignableFrom(type)) {
+                return MAP;
+            }
+            return PLAIN;
+        }
+
+        private static Class typeOf(byte kind) {
+            switch (kind) {
+                case ARRAY:
+                    return Object[].class;
+                case LIST:
+                    return List.class;
+                case MAP:
+                    return Map.class;
+                default:
+                    return Object.class;
+            }
+        }
+    }
+}
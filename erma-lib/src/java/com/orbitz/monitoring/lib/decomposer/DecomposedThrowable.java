@@ -0,0 +1,128 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The serializable form of a Throwable produced by the
+ * {@link ThrowableDecomposer}: its class name, message and cause chain, and
+ * its stack trace with a fingerprint. Throwables with identical stack traces
+ * share one trace array, so repeated failures cost a small record each.<p>
+ *
+ * It is a JavaBean, so its properties can be navigated with nested property
+ * expressions such as cause.className.
+ *
+ * @since 4.1
+ */
+public class DecomposedThrowable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    private final String message;
+    private final long fingerprint;
+    private final StackTraceElement[] stackTrace;
+    private DecomposedThrowable cause;
+
+    DecomposedThrowable(String className, String message, long fingerprint, StackTraceElement[] stackTrace) {
+        this.className = className;
+        this.message = message;
+        this.fingerprint = fingerprint;
+        this.stackTrace = stackTrace;
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public DecomposedThrowable getCause() {
+        return cause;
+    }
+
+    /**
+     * Gets the throwable at the end of the cause chain.
+     *
+     * @return the root cause, or this throwable if it has no cause
+     */
+    public DecomposedThrowable getRootCause() {
+        DecomposedThrowable root = this;
+        Map seen = new IdentityHashMap();
+        seen.put(this, this);
+        // a chain that loops is cut where it repeats
+        for (DecomposedThrowable next = cause; next != null && !seen.containsKey(next); next = next.cause) {
+            seen.put(next, next);
+            root = next;
+        }
+        return root;
+    }
+
+    /**
+     * Gets a hash of the stack trace, equal for throwables thrown from the
+     * same place.
+     *
+     * @return the fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Gets the stack trace, which may be shared with other throwables and
+     * must not be modified.
+     *
+     * @return the stack trace
+     */
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace;
+    }
+
+    /**
+     * Formats the throwable the way Throwable.printStackTrace() does,
+     * without repeating frames shared with the enclosing trace.
+     *
+     * @return the class, message, stack trace and causes
+     */
+    public String formatStackTrace() {
+        StringBuffer buffer = new StringBuffer();
+        StackTraceElement[] enclosing = null;
+        Map seen = new IdentityHashMap();
+        for (DecomposedThrowable t = this; t != null && !seen.containsKey(t); t = t.cause) {
+            if (!seen.isEmpty()) {
+                buffer.append("\nCaused by: ");
+            }
+            seen.put(t, t);
+            buffer.append(t);
+            int unique = t.stackTrace.length;
+            if (enclosing != null) {
+                int j = enclosing.length - 1;
+                while (unique > 0 && j >= 0 && t.stackTrace[unique - 1].equals(enclosing[j])) {
+                    unique--;
+                    j--;
+                }
+            }
+            for (int i = 0; i < unique; i++) {
+                buffer.append("\n\tat ").append(t.stackTrace[i]);
+            }
+            if (unique < t.stackTrace.length) {
+                buffer.append("\n\t... ").append(t.stackTrace.length - unique).append(" more");
+            }
+            enclosing = t.stackTrace;
+        }
+        return buffer.toString();
+    }
+
+    public String toString() {
+        return (message != null) ? className + ": " + message : className;
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    void setCause(DecomposedThrowable cause) {
+        this.cause = cause;
+    }
+}
@@ -0,0 +1,218 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import com.orbitz.monitoring.api.monitor.serializable.MomentoDecoder;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoEncoder;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoValueCodec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * The {@link MomentoValueCodec}s of the values the {@link AttributeDecomposer}
+ * creates: {@link DecomposedBean}s and their schemas,
+ * {@link DecomposedThrowable}s and {@link TruncatedValue}s. With them, the
+ * class and property names and stack frames of these values are written
+ * through the stream's string table rather than as Java serialization
+ * class descriptors.
+ *
+ * @since 4.1
+ */
+public final class DecomposedValueCodecs {
+    // ** STATIC/FINAL DATA ***************************************************
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private static final MomentoValueCodec[] CODECS = {
+            new SchemaCodec(), new BeanCodec(), new ThrowableCodec(), new TruncatedValueCodec()};
+
+    private DecomposedValueCodecs() {
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Registers the codecs with an encoder.
+     *
+     * @param encoder the encoder
+     */
+    public static void registerWith(MomentoEncoder encoder) {
+        for (int i = 0; i < CODECS.length; i++) {
+            encoder.registerCodec(CODECS[i]);
+        }
+    }
+
+    /**
+     * Registers the codecs with a decoder.
+     *
+     * @param decoder the decoder
+     */
+    public static void registerWith(MomentoDecoder decoder) {
+        for (int i = 0; i < CODECS.length; i++) {
+            decoder.registerCodec(CODECS[i]);
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private static void requireLength(Object[] fields, int length)
+            throws StreamCorruptedException {
+        if (fields.length != length) {
+            throw new StreamCorruptedException("expected " + length + " fields but found " + fields.length);
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    // the class name, property names and property kinds
+    private static final class SchemaCodec implements MomentoValueCodec {
+        public Class getValueClass() {
+            return DecomposedBean.Schema.class;
+        }
+
+        public Object[] getCreationFields(Object value) {
+            DecomposedBean.Schema schema = (DecomposedBean.Schema) value;
+            byte[] kinds = schema.getKinds();
+            Object[] kindFields = new Object[kinds.length];
+            for (int i = 0; i < kinds.length; i++) {
+                kindFields[i] = Byte.valueOf(kinds[i]);
+            }
+            return new Object[] {schema.getName(), schema.getNames(), kindFields};
+        }
+
+        public Object[] getFields(Object value) {
+            return NO_FIELDS;
+        }
+
+        public Object create(Object[] fields)
+                throws IOException {
+            requireLength(fields, 3);
+            Object[] nameFields = (Object[]) fields[1];
+            Object[] kindFields = (Object[]) fields[2];
+            if (nameFields.length != kindFields.length) {
+                throw new StreamCorruptedException("schema has " + nameFields.length + " names but " +
+                        kindFields.length + " kinds");
+            }
+            String[] names = new String[nameFields.length];
+            byte[] kinds = new byte[kindFields.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = (String) nameFields[i];
+                kinds[i] = ((Byte) kindFields[i]).byteValue();
+            }
+            return new DecomposedBean.Schema((String) fields[0], names, kinds);
+        }
+
+        public void setFields(Object value, Object[] fields) {
+            // a schema has no other fields
+        }
+    }
+
+    // the schema, then the property values, which may refer back to the bean
+    private static final class BeanCodec implements MomentoValueCodec {
+        public Class getValueClass() {
+            return DecomposedBean.class;
+        }
+
+        public Object[] getCreationFields(Object value) {
+            return new Object[] {((DecomposedBean) value).getDynaClass()};
+        }
+
+        public Object[] getFields(Object value) {
+            DecomposedBean bean = (DecomposedBean) value;
+            Object[] fields = new Object[((DecomposedBean.Schema) bean.getDynaClass()).getNames().length];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = bean.getValue(i);
+            }
+            return fields;
+        }
+
+        public Object create(Object[] fields)
+                throws IOException {
+            requireLength(fields, 1);
+            return new DecomposedBean((DecomposedBean.Schema) fields[0]);
+        }
+
+        public void setFields(Object value, Object[] fields)
+                throws IOException {
+            DecomposedBean bean = (DecomposedBean) value;
+            requireLength(fields, ((DecomposedBean.Schema) bean.getDynaClass()).getNames().length);
+            for (int i = 0; i < fields.length; i++) {
+                bean.setValue(i, fields[i]);
+            }
+        }
+    }
+
+    // the class name, message, fingerprint and frames, then the cause, which
+    // may loop back; each frame is its class, method, file and line
+    private static final class ThrowableCodec implements MomentoValueCodec {
+        private static final int FRAME_FIELDS = 4;
+
+        public Class getValueClass() {
+            return DecomposedThrowable.class;
+        }
+
+        public Object[] getCreationFields(Object value) {
+            DecomposedThrowable t = (DecomposedThrowable) value;
+            StackTraceElement[] stackTrace = t.getStackTrace();
+            Object[] frames = new Object[stackTrace.length * FRAME_FIELDS];
+            for (int i = 0; i < stackTrace.length; i++) {
+                StackTraceElement frame = stackTrace[i];
+                frames[i * FRAME_FIELDS] = frame.getClassName();
+                frames[i * FRAME_FIELDS + 1] = frame.getMethodName();
+                frames[i * FRAME_FIELDS + 2] = frame.getFileName();
+                frames[i * FRAME_FIELDS + 3] = Integer.valueOf(frame.getLineNumber());
+            }
+            return new Object[] {t.getClassName(), t.getMessage(), Long.valueOf(t.getFingerprint()), frames};
+        }
+
+        public Object[] getFields(Object value) {
+            return new Object[] {((DecomposedThrowable) value).getCause()};
+        }
+
+        public Object create(Object[] fields)
+                throws IOException {
+            requireLength(fields, 4);
+            Object[] frames = (Object[]) fields[3];
+            if (frames.length % FRAME_FIELDS != 0) {
+                throw new StreamCorruptedException("stack trace has " + frames.length + " fields");
+            }
+            StackTraceElement[] stackTrace = new StackTraceElement[frames.length / FRAME_FIELDS];
+            for (int i = 0; i < stackTrace.length; i++) {
+                stackTrace[i] = new StackTraceElement((String) frames[i * FRAME_FIELDS],
+                        (String) frames[i * FRAME_FIELDS + 1], (String) frames[i * FRAME_FIELDS + 2],
+                        ((Integer) frames[i * FRAME_FIELDS + 3]).intValue());
+            }
+            return new DecomposedThrowable((String) fields[0], (String) fields[1],
+                    ((Long) fields[2]).longValue(), stackTrace);
+        }
+
+        public void setFields(Object value, Object[] fields)
+                throws IOException {
+            requireLength(fields, 1);
+            ((DecomposedThrowable) value).setCause((DecomposedThrowable) fields[0]);
+        }
+    }
+
+    // the reason, class name, original size and prefix
+    private static final class TruncatedValueCodec implements MomentoValueCodec {
+        public Class getValueClass() {
+            return TruncatedValue.class;
+        }
+
+        public Object[] getCreationFields(Object value) {
+            TruncatedValue truncated = (TruncatedValue) value;
+            return new Object[] {truncated.getReason().name(), truncated.getClassName(),
+                    Integer.valueOf(truncated.getOriginalSize()), truncated.getPrefix()};
+        }
+
+        public Object[] getFields(Object value) {
+            return NO_FIELDS;
+        }
+
+        public Object create(Object[] fields)
+                throws IOException {
+            requireLength(fields, 4);
+            return new TruncatedValue(TruncatedValue.Reason.valueOf((String) fields[0]), (String) fields[1],
+                    ((Integer) fields[2]).intValue(), (String) fields[3]);
+        }
+
+        public void setFields(Object value, Object[] fields) {
+            // a truncated value has no other fields
+        }
+    }
+}
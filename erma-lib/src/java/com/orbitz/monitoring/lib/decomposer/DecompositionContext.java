@@ -0,0 +1,137 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The objects already decomposed in one call to
+ * {@link AttributeDecomposer#decompose(Object)}, along with how much of the
+ * decomposer's budgets that call has used. It travels through the steps as
+ * their alreadyDecomposed map, so steps need not know about budgets.<p>
+ *
+ * With an identity cache, immutable objects are looked up before they are
+ * decomposed. A cached form was held to the budgets where the object was
+ * first decomposed, and a form with truncated values in it is not cached.
+ *
+ * @since 4.1
+ */
+class DecompositionContext extends IdentityHashMap {
+
+    private final int _maxDepth;
+    private final int _maxCollectionSize;
+    private final int _maxNodes;
+    private final int _maxStringLength;
+    // indexed by TruncatedValue.Reason ordinal
+    private final AtomicLongArray _truncations;
+    private final IdentityCache _cache;
+
+    private int _depth;
+    private int _nodes;
+    private int _truncated;
+
+    DecompositionContext(int maxDepth, int maxCollectionSize, int maxNodes, int maxStringLength,
+                         AtomicLongArray truncations, IdentityCache cache) {
+        _maxDepth = maxDepth;
+        _maxCollectionSize = maxCollectionSize;
+        _maxNodes = maxNodes;
+        _maxStringLength = maxStringLength;
+        _truncations = truncations;
+        _cache = cache;
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    /**
+     * Decomposes an object with a step unless that would exceed a budget.
+     *
+     * @param object the object, not null
+     * @param step the step for the object's class
+     * @return the decomposed object, or a TruncatedValue
+     */
+    Serializable decompose(Object object, AttributeDecomposer.Step step) {
+        if (containsKey(object)) {
+            return step.decompose(object, this);
+        }
+
+        // holders are wrappers of the attribute value, not part of it
+        boolean holder = step instanceof AttributeHolderDecomposer;
+        if (!holder) {
+            TruncatedValue truncated = truncate(object, step);
+            if (truncated != null) {
+                _truncations.incrementAndGet(truncated.getReason().ordinal());
+                _truncated++;
+                return truncated;
+            }
+            _nodes++;
+        }
+
+        if (holder || step instanceof IdentityDecomposer) {
+            return step.decompose(object, this);
+        }
+        if (_cache != null && _cache.isImmutable(object.getClass())) {
+            Serializable cached = _cache.get(object);
+            if (cached != null) {
+                return cached;
+            }
+            int truncatedBefore = _truncated;
+            Serializable decomposed = decomposeNested(object, step);
+            if (_truncated == truncatedBefore) {
+                _cache.put(object, decomposed);
+            }
+            return decomposed;
+        }
+        return decomposeNested(object, step);
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Serializable decomposeNested(Object object, AttributeDecomposer.Step step) {
+        _depth++;
+        try {
+            return step.decompose(object, this);
+        } finally {
+            _depth--;
+        }
+    }
+
+    private TruncatedValue truncate(Object object, AttributeDecomposer.Step step) {
+        if (_maxStringLength > 0 && object instanceof CharSequence) {
+            CharSequence chars = (CharSequence) object;
+            if (chars.length() > _maxStringLength) {
+                return new TruncatedValue(TruncatedValue.Reason.LENGTH, object.getClass().getName(),
+                        chars.length(), chars.subSequence(0, _maxStringLength).toString());
+            }
+        }
+        if (_maxNodes > 0 && _nodes >= _maxNodes) {
+            return new TruncatedValue(TruncatedValue.Reason.NODES, object.getClass().getName(), sizeOf(object), null);
+        }
+        if (step instanceof IdentityDecomposer || step instanceof ToStringDecomposer || step instanceof ClassDecomposer) {
+            return null;
+        }
+        if (_maxDepth > 0 && _depth >= _maxDepth) {
+            return new TruncatedValue(TruncatedValue.Reason.DEPTH, object.getClass().getName(), sizeOf(object), null);
+        }
+        if (_maxCollectionSize > 0) {
+            int size = sizeOf(object);
+            if (size > _maxCollectionSize) {
+                return new TruncatedValue(TruncatedValue.Reason.SIZE, object.getClass().getName(), size, null);
+            }
+        }
+        return null;
+    }
+
+    private static int sizeOf(Object object) {
+        if (object instanceof Collection) {
+            return ((Collection) object).size();
+        } else if (object instanceof Map) {
+            return ((Map) object).size();
+        } else if (object.getClass().isArray()) {
+            return Array.getLength(object);
+        } else if (object instanceof CharSequence) {
+            return ((CharSequence) object).length();
+        }
+        return -1;
+    }
+}
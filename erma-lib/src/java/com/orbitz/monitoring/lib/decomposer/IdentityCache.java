@@ -0,0 +1,150 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import com.orbitz.monitoring.api.annotation.ImmutableValue;
+
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The decomposed forms of immutable objects, keyed weakly by the identity
+ * of the original objects so that the cache does not keep them alive.<p>
+ *
+ * A class is immutable if it is annotated {@link ImmutableValue}, is an enum,
+ * or is assignable to one of the immutable classes configured, which is
+ * cached per class in a {@link ClassCache}. The cache holds at most maxSize
+ * entries; once it is full, further objects are decomposed without being
+ * cached until collected keys make room.
+ *
+ * @since 4.1
+ */
+class IdentityCache {
+
+    private final ConcurrentMap<IdentityKey, Serializable> _decomposed =
+            new ConcurrentHashMap<IdentityKey, Serializable>();
+    private final ReferenceQueue _collected = new ReferenceQueue();
+    private final ClassCache<Boolean> _immutable = new ClassCache<Boolean>();
+
+    private volatile int _maxSize;
+    private volatile List<Class> _immutableClasses = new ArrayList<Class>();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    // ** PACKAGE METHODS *****************************************************
+    boolean isEnabled() {
+        return _maxSize > 0;
+    }
+
+    boolean isImmutable(Class klass) {
+        Boolean immutable = _immutable.get(klass);
+        if (immutable == null) {
+            immutable = _immutable.putIfAbsent(klass, Boolean.valueOf(resolveImmutable(klass)));
+        }
+        return immutable.booleanValue();
+    }
+
+    /**
+     * Gets the decomposed form of an object.
+     *
+     * @param object an instance of an immutable class
+     * @return the decomposed form, or null if it is not cached
+     */
+    Serializable get(Object object) {
+        Serializable decomposed = _decomposed.get(new IdentityKey(object, null));
+        (decomposed != null ? _hits : _misses).incrementAndGet();
+        return decomposed;
+    }
+
+    void put(Object object, Serializable decomposed) {
+        expungeCollected();
+        if (_decomposed.size() < _maxSize) {
+            _decomposed.putIfAbsent(new IdentityKey(object, _collected), decomposed);
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        _maxSize = maxSize;
+        if (maxSize == 0) {
+            _decomposed.clear();
+        }
+    }
+
+    int getMaxSize() {
+        return _maxSize;
+    }
+
+    void setImmutableClasses(List<Class> immutableClasses) {
+        _immutableClasses = new ArrayList<Class>(immutableClasses);
+        _immutable.clear();
+        _decomposed.clear();
+    }
+
+    int size() {
+        expungeCollected();
+        return _decomposed.size();
+    }
+
+    long getHits() {
+        return _hits.get();
+    }
+
+    long getMisses() {
+        return _misses.get();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private boolean resolveImmutable(Class klass) {
+        if (klass.isAnnotationPresent(ImmutableValue.class) || Enum.class.isAssignableFrom(klass)) {
+            return true;
+        }
+        for (Class immutableClass : _immutableClasses) {
+            if (immutableClass.isAssignableFrom(klass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expungeCollected() {
+        Reference reference;
+        while ((reference = _collected.poll()) != null) {
+            _decomposed.remove(reference);
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    /*
+     * Equal to another key for the same object. A key whose object has been
+     * collected is only equal to itself, which is how it is removed.
+     */
+    private static final class IdentityKey extends WeakReference {
+        private final int _hash;
+
+        private IdentityKey(Object referent, ReferenceQueue queue) {
+            super(referent, queue);
+            _hash = System.identityHashCode(referent);
+        }
+
+        public int hashCode() {
+            return _hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof IdentityKey)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey) o).get();
+        }
+    }
+}
@@ -10,6 +10,14 @@ import java.util.IdentityHashMap;
  * @author Doug Barth
  */
 class IdentityDecomposer extends AbstractAttributeDecomposerStep {
+    /**
+     * Returns the object itself. Its identity needs no tracking, since
+     * every reference to it decomposes to the same object.
+     */
+    public Serializable decompose(Object object, IdentityHashMap alreadyDecomposed) {
+        return (Serializable) object;
+    }
+
     Serializable createMutableContainer(Object o) {
         return (Serializable) o;
     }
@@ -1,34 +1,46 @@
 package com.orbitz.monitoring.lib.decomposer;
 
-import org.apache.commons.beanutils.DynaProperty;
-import org.apache.commons.beanutils.LazyDynaBean;
 import org.apache.commons.beanutils.MethodUtils;
-import org.apache.commons.beanutils.WrapDynaBean;
-import org.apache.commons.beanutils.WrapDynaClass;
 import org.apache.log4j.Logger;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.List;
 
 /**
  * Given an object, this class reflects over its JavaBean attributes and creates
- * a Serializable representation containing serializable versions of the 
- * JavaBean attributes.
+ * a Serializable representation containing serializable versions of the
+ * JavaBean attributes.<p>
+ *
+ * The readable properties of each class are introspected once into a plan of
+ * accessible read methods, and objects are decomposed into
+ * {@link DecomposedBean}s that share the schema of their class. Plans are
+ * kept in a {@link ClassCache}, and classes are introspected without
+ * PropertyUtils and flushed from the Introspector's cache, since both of
+ * those caches would keep the class loaders of webapps alive.
  *
  * @author Doug Barth
  */
 class ReflectiveDecomposer extends AbstractAttributeDecomposerStep {
     private static final Logger log = Logger.getLogger(ReflectiveDecomposer.class);
-    
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     private AttributeDecomposer.Step _delegate;
+    private final ClassCache<Plan> _plans = new ClassCache<Plan>();
 
     public ReflectiveDecomposer(AttributeDecomposer.Step delegate) {
         _delegate = delegate;
     }
 
     Serializable createMutableContainer(Object o) {
-        return new LazyDynaBean();
+        return new DecomposedBean(getPlan(o.getClass()).schema);
     }
 
     /**
@@ -40,30 +52,87 @@ class ReflectiveDecomposer extends AbstractAttributeDecomposerStep {
     void decomposeInto(
             Object o, Serializable container, IdentityHashMap alreadyDecomposed) {
 
-        if (!Serializable.class.isAssignableFrom(o.getClass())) return;
+        DecomposedBean decomposed = (DecomposedBean) container;
+        Plan plan = getPlan(o.getClass());
+        for (int i = 0; i < plan.readMethods.length; i++) {
+            Object beanProperty;
+            try {
+                beanProperty = plan.readMethods[i].invoke(o, NO_ARGUMENTS);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "." +
+                        plan.schema.getDynaProperties()[i].getName(), e.getTargetException());
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "." +
+                        plan.schema.getDynaProperties()[i].getName(), e);
+            }
 
-        LazyDynaBean decomposed = (LazyDynaBean) container;
+            Serializable decomposedProperty =
+                _delegate.decompose(beanProperty, alreadyDecomposed);
+            decomposed.setValue(i, decomposedProperty);
+        }
+    }
 
-        WrapDynaBean bean = new WrapDynaBean(o);
-        WrapDynaClass dynaClass = (WrapDynaClass) bean.getDynaClass();
-		DynaProperty[] properties = dynaClass.getDynaProperties();
-        for (int i = 0; i < properties.length; i++) {
-            DynaProperty property = properties[i];
+    // ** PRIVATE METHODS *****************************************************
+    private Plan getPlan(Class klass) {
+        Plan plan = _plans.get(klass);
+        if (plan == null) {
+            plan = _plans.putIfAbsent(klass, createPlan(klass));
+        }
+        return plan;
+    }
 
-            String name = property.getName();
-            Method readMethod = dynaClass.getPropertyDescriptor(name).getReadMethod();
-            if (MethodUtils.getAccessibleMethod(readMethod) != null) {
-                Object beanProperty;
-                try {
-                    beanProperty = bean.get(name);
-                } catch (RuntimeException e) {
-                    throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "." + name, e);
+    // objects that are not Serializable decompose to a bean without properties
+    private Plan createPlan(Class klass) {
+        List<String> names = new ArrayList<String>();
+        List<Byte> kinds = new ArrayList<Byte>();
+        List<Method> readMethods = new ArrayList<Method>();
+        if (Serializable.class.isAssignableFrom(klass)) {
+            PropertyDescriptor[] descriptors = getPropertyDescriptors(klass);
+            for (int i = 0; i < descriptors.length; i++) {
+                Method readMethod = descriptors[i].getReadMethod();
+                Method accessible = (readMethod != null) ? MethodUtils.getAccessibleMethod(readMethod) : null;
+                if (accessible != null) {
+                    names.add(descriptors[i].getName());
+                    kinds.add(Byte.valueOf(DecomposedBean.Schema.kindOf(readMethod.getReturnType())));
+                    readMethods.add(accessible);
                 }
-                
-                Serializable decomposedProperty = 
-                    _delegate.decompose(beanProperty, alreadyDecomposed);
-                decomposed.set(name, decomposedProperty);
             }
         }
+
+        byte[] kindArray = new byte[kinds.size()];
+        for (int i = 0; i < kindArray.length; i++) {
+            kindArray[i] = kinds.get(i).byteValue();
+        }
+        DecomposedBean.Schema schema = new DecomposedBean.Schema(
+                klass.getName(), names.toArray(new String[names.size()]), kindArray);
+        if (log.isDebugEnabled()) {
+            log.debug("Created decomposition plan " + schema);
+        }
+        return new Plan(schema, readMethods.toArray(new Method[readMethods.size()]));
+    }
+
+    private static PropertyDescriptor[] getPropertyDescriptors(Class klass) {
+        try {
+            return Introspector.getBeanInfo(klass).getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            log.warn("Unable to introspect " + klass.getName() + "; decomposing it without properties: ", e);
+            return new PropertyDescriptor[0];
+        } finally {
+            // the Introspector's own cache would keep the class loader alive
+            if (!ClassCache.isPinned(klass)) {
+                Introspector.flushFromCaches(klass);
+            }
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Plan {
+        private final DecomposedBean.Schema schema;
+        private final Method[] readMethods;
+
+        private Plan(DecomposedBean.Schema schema, Method[] readMethods) {
+            this.schema = schema;
+            this.readMethods = readMethods;
+        }
     }
 }
@@ -0,0 +1,101 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Given a <code>Throwable</code>, this class creates a compact
+ * {@link DecomposedThrowable} holding its class name, message, cause chain
+ * and stack trace.<p>
+ *
+ * Stack traces are fingerprinted and interned, so the many identical
+ * throwables of an outage share one trace array. The cache of interned
+ * traces is bounded by two generations: new traces are interned in the
+ * current one, and when it fills up it becomes the previous generation and
+ * the older traces are dropped. A trace found in the previous generation is
+ * interned in the current one again, so traces that keep recurring stay
+ * interned.
+ *
+ * @since 4.1
+ */
+class ThrowableDecomposer extends AbstractAttributeDecomposerStep {
+    static final int MAX_INTERNED_TRACES = 1024;
+    private static final int GENERATION_SIZE = MAX_INTERNED_TRACES / 2;
+
+    private AttributeDecomposer.Step _delegate;
+    private volatile ConcurrentMap<Long, StackTraceElement[]> _traces =
+            new ConcurrentHashMap<Long, StackTraceElement[]>();
+    private volatile ConcurrentMap<Long, StackTraceElement[]> _previousTraces =
+            new ConcurrentHashMap<Long, StackTraceElement[]>();
+
+    public ThrowableDecomposer(AttributeDecomposer.Step delegate) {
+        _delegate = delegate;
+    }
+
+    Serializable createMutableContainer(Object o) {
+        Throwable t = (Throwable) o;
+        StackTraceElement[] stackTrace = t.getStackTrace();
+        long fingerprint = fingerprint(stackTrace);
+        return new DecomposedThrowable(t.getClass().getName(), t.getMessage(), fingerprint,
+                intern(fingerprint, stackTrace));
+    }
+
+    void decomposeInto(Object o, Serializable container, IdentityHashMap alreadyDecomposed) {
+        Throwable cause = ((Throwable) o).getCause();
+        if (cause != null) {
+            Object decomposedCause = _delegate.decompose(cause, alreadyDecomposed);
+            // a cause over the decomposer's budgets is left out
+            if (decomposedCause instanceof DecomposedThrowable) {
+                ((DecomposedThrowable) container).setCause((DecomposedThrowable) decomposedCause);
+            }
+        }
+    }
+
+    int getInternedTraceCount() {
+        return _traces.size() + _previousTraces.size();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private StackTraceElement[] intern(long fingerprint, StackTraceElement[] stackTrace) {
+        Long key = Long.valueOf(fingerprint);
+        ConcurrentMap<Long, StackTraceElement[]> traces = _traces;
+        StackTraceElement[] interned = traces.get(key);
+        if (interned == null) {
+            interned = _previousTraces.get(key);
+            if (interned == null) {
+                interned = stackTrace;
+            }
+            if (traces.size() >= GENERATION_SIZE) {
+                traces = nextGeneration(traces);
+            }
+            StackTraceElement[] raced = traces.putIfAbsent(key, interned);
+            if (raced != null) {
+                interned = raced;
+            }
+        }
+        // fingerprints of different traces can collide
+        return Arrays.equals(interned, stackTrace) ? interned : stackTrace;
+    }
+
+    private synchronized ConcurrentMap<Long, StackTraceElement[]> nextGeneration(
+            ConcurrentMap<Long, StackTraceElement[]> full) {
+        if (_traces == full) {
+            _previousTraces = full;
+            _traces = new ConcurrentHashMap<Long, StackTraceElement[]>();
+        }
+        return _traces;
+    }
+
+    // FNV-1a over the frames
+    private static long fingerprint(StackTraceElement[] stackTrace) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < stackTrace.length; i++) {
+            h = (h ^ stackTrace[i].hashCode()) * 0x100000001b3L;
+            h = (h ^ stackTrace[i].getLineNumber()) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,81 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import java.io.Serializable;
+
+/**
+ * Stands in for a value that the {@link AttributeDecomposer} did not
+ * decompose because it exceeded one of the decomposer's budgets. It records
+ * why, the class of the original value and its size: the number of elements
+ * of a collection, map or array, or the length of a string. Strings keep
+ * their first maxStringLength characters.
+ *
+ * @since 4.1
+ */
+public class TruncatedValue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The budget that a value exceeded.
+     */
+    public enum Reason {
+        /** The value was nested deeper than maxDepth. */
+        DEPTH,
+        /** The collection, map or array had more than maxCollectionSize elements. */
+        SIZE,
+        /** The attribute already had maxNodes values decomposed. */
+        NODES,
+        /** The string was longer than maxStringLength. */
+        LENGTH
+    }
+
+    private final Reason reason;
+    private final String className;
+    private final int originalSize;
+    private final String prefix;
+
+    TruncatedValue(Reason reason, String className, int originalSize, String prefix) {
+        this.reason = reason;
+        this.className = className;
+        this.originalSize = originalSize;
+        this.prefix = prefix;
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the size of the original value.
+     *
+     * @return the element count or string length, or -1 if the value had no size
+     */
+    public int getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * Gets the start of a truncated string.
+     *
+     * @return the first characters of the string, or null for other values
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String toString() {
+        if (prefix != null) {
+            return prefix + "...(truncated from " + originalSize + " characters)";
+        }
+        StringBuffer buffer = new StringBuffer("(truncated ").append(className).append(' ').append(reason);
+        if (originalSize >= 0) {
+            buffer.append(" size=").append(originalSize);
+        }
+        return buffer.append(')').toString();
+    }
+}
@@ -1,10 +1,13 @@
 package com.orbitz.monitoring.lib.factory;
 
 import com.orbitz.monitoring.api.Aggregator;
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.lib.processor.AggregationMonitorProcessor;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.Collections;
@@ -41,38 +44,47 @@ public class AggregationMonitorProcessorFactory extends SimpleMonitorProcessorFa
     }
 
     /**
-     * The monitor processors that apply to the monitor.
+     * The monitor processors that apply to the monitor. Monitors fired by the
+     * aggregator itself go to the non-aggregation process groups.
      *
      * @param monitor the monitor
+     * @param phase the lifecycle phase the monitor is in
      * @return the array of monitor processors
      */
-    public MonitorProcessor[] getProcessorsForMonitor(Monitor monitor) {
-        if(clazzes.contains(monitor.getClass())) {
-            final List<MonitorProcessor> processors = aggregationGroup.getProcessorsFor(monitor);
+    public MonitorProcessor[] getProcessorsForMonitor(Monitor monitor, LifecyclePhase phase) {
+        if(clazzes.contains(monitor.getClass()) && !monitor.hasAttribute(Attribute.AGGREGATED)) {
+            final List<MonitorProcessor> processors = aggregationGroup.getProcessorsFor(monitor, phase);
             return processors.toArray(new MonitorProcessor[processors.size()]);
         } else {
-            return super.getProcessorsForMonitor(monitor);
+            return super.getProcessorsForMonitor(monitor, phase);
         }
     }
 
     /**
-     * Start up lifecycle method.
+     * Gets all of the monitor processors, including those of the aggregation
+     * process group, so that the engine subscribes to their lifecycle phases
+     * and starts them with the others.
+     *
+     * @return the set of monitor processors
      */
-    public void startup() {
-        super.startup();
-        for(MonitorProcessor processor : aggregationGroup.getProcessors()) {
-            processor.startup();
-        }
+    public Set getAllMonitorProcessors() {
+        Set allMps = super.getAllMonitorProcessors();
+        allMps.addAll(Arrays.asList(aggregationGroup.getProcessors()));
+        return allMps;
     }
 
     /**
-     * Shut down lifecycle method.
+     * Shut down lifecycle method. The aggregation process group is shut down
+     * first, so that the monitors it fires on shutdown can still be processed
+     * by the other groups.
      */
     public void shutdown() {
         for(MonitorProcessor processor : aggregationGroup.getProcessors()) {
             processor.shutdown();
         }
-        super.shutdown();
+        for(Object processor : super.getAllMonitorProcessors()) {
+            ((MonitorProcessor) processor).shutdown();
+        }
     }
 
     /**
@@ -0,0 +1,227 @@
+package com.orbitz.monitoring.lib.factory;
+
+import com.orbitz.monitoring.api.Monitor;
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.ExpressionFactory;
+import org.apache.commons.jexl.JexlContext;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link ProcessGroup} expression compiled once and tested against many
+ * monitors. The monitor is visible to the expression as m and its attributes
+ * by their keys, and both are looked up only when the expression references
+ * them rather than copied into a context up front.<p>
+ *
+ * The common shapes below are recognized when the expression is compiled and
+ * are tested without the JEXL interpreter, where attr is either an attribute
+ * key or m.get('attr'):
+ * <ul>
+ * <li>attr == 'literal', attr.equals('literal') and attr.startsWith('literal')</li>
+ * <li>attr, !attr, attr == true and attr == false for boolean attributes</li>
+ * <li>m.level == 'LEVEL'</li>
+ * </ul>
+ * Attribute values of other types fall back to the interpreter, so the
+ * outcome is always the one JEXL would produce.
+ *
+ * @since 4.1
+ */
+final class MonitorPredicate {
+
+    private static final String MONITOR_VAR = "m";
+
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(new String[] {
+            MONITOR_VAR, "and", "or", "not", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod",
+            "empty", "size", "null", "true", "false", "if", "while", "foreach", "new"}));
+
+    private static final String REFERENCE = "(?:m\\.get\\(\\s*'([\\w.]+)'\\s*\\)|([A-Za-z_]\\w*))";
+    private static final String LITERAL = "(?:'([^'\\\\]*)'|\"([^\"\\\\]*)\")";
+
+    private static final Pattern EQUALS = Pattern.compile(REFERENCE + "\\s*(?:==|\\s+eq\\s+)\\s*" + LITERAL);
+    private static final Pattern EQUALS_METHOD = Pattern.compile(REFERENCE + "\\.equals\\(\\s*" + LITERAL + "\\s*\\)");
+    private static final Pattern STARTS_WITH = Pattern.compile(REFERENCE + "\\.startsWith\\(\\s*" + LITERAL + "\\s*\\)");
+    private static final Pattern BOOLEAN = Pattern.compile(REFERENCE + "(?:\\s*(?:==|\\s+eq\\s+)\\s*(true|false))?");
+    private static final Pattern NOT_BOOLEAN = Pattern.compile("(?:!|not\\s)\\s*" + REFERENCE);
+    private static final Pattern LEVEL = Pattern.compile(
+            "m\\.(?:level|getLevel\\(\\s*\\))\\s*(?:==|\\s+eq\\s+)\\s*" + LITERAL);
+
+    private static final int INTERPRETED = 0;
+    private static final int STRING_EQUALS = 1;
+    private static final int STRING_STARTS_WITH = 2;
+    private static final int BOOLEAN_EQUALS = 3;
+    private static final int LEVEL_EQUALS = 4;
+
+    private final Expression _expression;
+    private final int _shape;
+    private final String _attribute;
+    // true if the attribute is read with m.get(), which throws when it is missing
+    private final boolean _viaMonitor;
+    private final String _literal;
+    private final boolean _expected;
+    private final boolean _negated;
+
+    private MonitorPredicate(Expression expression, int shape, String attribute, boolean viaMonitor,
+                             String literal, boolean expected, boolean negated) {
+        _expression = expression;
+        _shape = shape;
+        _attribute = attribute;
+        _viaMonitor = viaMonitor;
+        _literal = literal;
+        _expected = expected;
+        _negated = negated;
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    /**
+     * Compiles an expression.
+     *
+     * @param expression the JEXL expression
+     * @return the predicate
+     * @throws Exception if the expression cannot be parsed
+     */
+    static MonitorPredicate compile(String expression)
+            throws Exception {
+        Expression compiled = ExpressionFactory.createExpression(expression);
+        String trimmed = expression.trim();
+
+        Matcher matcher = LEVEL.matcher(trimmed);
+        if (matcher.matches()) {
+            return new MonitorPredicate(compiled, LEVEL_EQUALS, null, true, literal(matcher, 1), true, false);
+        }
+        matcher = EQUALS.matcher(trimmed);
+        if (matcher.matches() && isAttribute(matcher)) {
+            return shape(compiled, STRING_EQUALS, matcher, literal(matcher, 3), true, false);
+        }
+        matcher = EQUALS_METHOD.matcher(trimmed);
+        if (matcher.matches() && isAttribute(matcher)) {
+            return shape(compiled, STRING_EQUALS, matcher, literal(matcher, 3), true, false);
+        }
+        matcher = STARTS_WITH.matcher(trimmed);
+        if (matcher.matches() && isAttribute(matcher)) {
+            return shape(compiled, STRING_STARTS_WITH, matcher, literal(matcher, 3), true, false);
+        }
+        matcher = BOOLEAN.matcher(trimmed);
+        if (matcher.matches() && isAttribute(matcher)) {
+            boolean expected = matcher.group(3) == null || Boolean.valueOf(matcher.group(3)).booleanValue();
+            return shape(compiled, BOOLEAN_EQUALS, matcher, null, expected, false);
+        }
+        matcher = NOT_BOOLEAN.matcher(trimmed);
+        if (matcher.matches() && isAttribute(matcher)) {
+            return shape(compiled, BOOLEAN_EQUALS, matcher, null, false, true);
+        }
+        return new MonitorPredicate(compiled, INTERPRETED, null, false, null, false, false);
+    }
+
+    /**
+     * Tests a monitor.
+     *
+     * @param monitor the monitor
+     * @return true if the expression evaluates to true for the monitor
+     * @throws Exception if the interpreter fails
+     */
+    boolean matches(Monitor monitor)
+            throws Exception {
+        Boolean result = (_shape == INTERPRETED) ? null : matchesShape(monitor);
+        if (result == null) {
+            result = interpret(monitor);
+        }
+        return result.booleanValue();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    // returns null when only the interpreter can tell
+    private Boolean matchesShape(Monitor monitor) {
+        if (_viaMonitor && monitor.hasAttribute(MONITOR_VAR)) {
+            // an attribute named m hides the monitor
+            return null;
+        }
+        if (_shape == LEVEL_EQUALS) {
+            return Boolean.valueOf(_literal.equals(monitor.getLevel().toString()));
+        }
+
+        Object value = monitor.hasAttribute(_attribute) ? monitor.get(_attribute) : null;
+        if (value == null) {
+            // m.get() of a missing attribute throws, which fails the match;
+            // a missing variable is null, and only !null is true
+            return (_negated && !_viaMonitor) ? null : Boolean.FALSE;
+        }
+        switch (_shape) {
+            case STRING_EQUALS:
+                return (value instanceof String) ? Boolean.valueOf(_literal.equals(value)) : null;
+            case STRING_STARTS_WITH:
+                return (value instanceof String) ? Boolean.valueOf(((String) value).startsWith(_literal)) : null;
+            case BOOLEAN_EQUALS:
+                return (value instanceof Boolean) ? Boolean.valueOf(value.equals(Boolean.valueOf(_expected))) : null;
+            default:
+                return null;
+        }
+    }
+
+    private Boolean interpret(Monitor monitor)
+            throws Exception {
+        Object result = _expression.evaluate(new MonitorContext(monitor));
+        return (result instanceof Boolean) ? (Boolean) result : Boolean.FALSE;
+    }
+
+    private static MonitorPredicate shape(Expression compiled, int shape, Matcher matcher, String literal,
+                                          boolean expected, boolean negated) {
+        boolean viaMonitor = matcher.group(1) != null;
+        String attribute = viaMonitor ? matcher.group(1) : matcher.group(2);
+        return new MonitorPredicate(compiled, shape, attribute, viaMonitor, literal, expected, negated);
+    }
+
+    // bare identifiers must not be JEXL keywords or the monitor itself
+    private static boolean isAttribute(Matcher matcher) {
+        return matcher.group(1) != null || !KEYWORDS.contains(matcher.group(2));
+    }
+
+    private static String literal(Matcher matcher, int group) {
+        return (matcher.group(group) != null) ? matcher.group(group) : matcher.group(group + 1);
+    }
+
+    // ** INNER CLASSES *******************************************************
+    /*
+     * The variables of an evaluation: the monitor's attributes, then the
+     * monitor itself as m, resolved on each lookup.
+     */
+    private static final class MonitorContext extends AbstractMap implements JexlContext {
+        private final Monitor _monitor;
+
+        private MonitorContext(Monitor monitor) {
+            _monitor = monitor;
+        }
+
+        public Map getVars() {
+            return this;
+        }
+
+        public void setVars(Map vars) {
+            throw new UnsupportedOperationException("The variables of a monitor cannot be replaced");
+        }
+
+        public Object get(Object key) {
+            if (key instanceof String && _monitor.hasAttribute((String) key)) {
+                return _monitor.get((String) key);
+            }
+            return MONITOR_VAR.equals(key) ? _monitor : null;
+        }
+
+        public boolean containsKey(Object key) {
+            return MONITOR_VAR.equals(key) || (key instanceof String && _monitor.hasAttribute((String) key));
+        }
+
+        public Set entrySet() {
+            Map vars = new HashMap();
+            vars.put(MONITOR_VAR, _monitor);
+            vars.putAll(_monitor.getAll());
+            return vars.entrySet();
+        }
+    }
+}
@@ -1,21 +1,44 @@
 package com.orbitz.monitoring.lib.factory;
 
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.MonitoringEngine;
-import org.apache.commons.jexl.Expression;
-import org.apache.commons.jexl.ExpressionFactory;
-import org.apache.commons.jexl.JexlContext;
-import org.apache.commons.jexl.JexlHelper;
 import org.apache.log4j.Logger;
 
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object that contains the configuration for what processors should be
- * called for which monitors.
+ * called for which monitors.<p>
+ *
+ * A group can also sample the monitors that pass its level and expression,
+ * aiming for targetSamplesPerSecond monitors of each name. Completed monitors
+ * that failed or whose latency exceeds the slow threshold of their name are
+ * always admitted. The others are admitted with a probability that is
+ * recomputed every second from the rate at which that name arrived in the
+ * previous second.<p>
+ *
+ * Each monitor is sampled once, in the first lifecycle phase that one of
+ * the group's processors subscribes to, and the decision holds for every
+ * later phase, so processors that pair phases, such as monitorStarted and
+ * process, see both or neither. Whether a monitor failed or was slow is only
+ * known when it is processed, so those monitors are only always admitted by
+ * groups whose processors subscribe to PROCESS alone. Admitted monitors are
+ * stamped with the inverse of their probability, so that counts can be
+ * scaled back up, and monitors sampled out with a weight of 0. The weight is
+ * set under the group's sampleWeightKey, so groups that sample the same
+ * monitors must be given different keys, and their processors read the
+ * weight of their own group.
  *
  * @@org.springframework.jmx.export.metadata.ManagedResource
  * (description="ProcessGroup can be enabled/disabled and MonitoringLevel adjusted")
@@ -23,12 +46,20 @@ import java.util.ArrayList;
 public class ProcessGroup {
     private static final Logger log = Logger.getLogger(ProcessGroup.class);
 
+    private static final String DEFAULT_SAMPLE_WEIGHT_KEY = "sampleWeight";
+
     private MonitoringLevel _monitoringLevel = MonitoringLevel.INFO;
 
     private boolean _active = true;
-    private Expression _appliesExpression;
+    private MonitorPredicate _appliesExpression;
     private MonitorProcessor[] _processors;
 
+    private double _targetSamplesPerSecond = 0;
+    private String _sampleWeightKey = DEFAULT_SAMPLE_WEIGHT_KEY;
+    private long _slowThresholdMillis = 0;
+    private Map<String, Long> _slowThresholds = new HashMap<String, Long>();
+    private final ConcurrentMap<String, Sampler> _samplers = new ConcurrentHashMap<String, Sampler>();
+
     public ProcessGroup(MonitorProcessor processor) {
         this(new MonitorProcessor[] { processor });
     }
@@ -45,6 +76,20 @@ public class ProcessGroup {
      * @return list of MonitorProcessors
      */
     public List getProcessorsFor(Monitor monitor) {
+        return getProcessorsFor(monitor, LifecyclePhase.PROCESS);
+    }
+
+    /**
+     * Returns the list of processors within this ProcessGroup that apply for the
+     * MonitoringLevel of the given monitor in a lifecycle phase. A sampling
+     * group decides whether to admit a monitor in the first phase that one
+     * of its processors subscribes to, and keeps that decision afterwards.
+     *
+     * @param monitor Monitor instance
+     * @param phase the lifecycle phase the monitor is in
+     * @return list of MonitorProcessors
+     */
+    public List getProcessorsFor(Monitor monitor, LifecyclePhase phase) {
         List processorsForMonitor = new ArrayList();
 
         if (! isActive()) {
@@ -78,6 +123,8 @@ public class ProcessGroup {
         if (processorsForMonitor.size() > 0) {
             if (! matchesExpressionFor(monitor)) {
                 processorsForMonitor.clear();
+            } else if (_targetSamplesPerSecond > 0 && ! isSampled(monitor, phase, processorsForMonitor)) {
+                processorsForMonitor.clear();
             }
         }
 
@@ -92,18 +139,10 @@ public class ProcessGroup {
     private boolean matchesExpressionFor(Monitor monitor) {
         boolean applies = true;
 
-        if (_appliesExpression != null) {
-            JexlContext context = JexlHelper.createContext();
-            context.getVars().put("m", monitor);
-            context.getVars().putAll(monitor.getAll());
+        MonitorPredicate expression = _appliesExpression;
+        if (expression != null) {
             try {
-                Object result = _appliesExpression.evaluate(context);
-                if (result != null && result instanceof Boolean) {
-                    Boolean expressionResult = (Boolean) result;
-                    applies = expressionResult.booleanValue();
-                } else {
-                    applies = false;
-                }
+                applies = expression.matches(monitor);
             } catch (Exception e) {
                 log.debug("Exception while applying expression: ", e);
                 applies = false;
@@ -113,12 +152,76 @@ public class ProcessGroup {
         return applies;
     }
 
+    // reuses the decision stamped on the monitor in an earlier phase
+    private boolean isSampled(Monitor monitor, LifecyclePhase phase, List processors) {
+        if (monitor.hasAttribute(_sampleWeightKey)) {
+            return monitor.getAsDouble(_sampleWeightKey) > 0;
+        }
+        for (int i = 0; i < processors.size(); i++) {
+            if (phase.isSubscribedBy((MonitorProcessor) processors.get(i))) {
+                return sample(monitor, phase);
+            }
+        }
+        // none of the processors is called in this phase, so decide later
+        return true;
+    }
+
+    // admits the monitor or not, stamping its weight; transactions are
+    // marked failed until they succeed, so only processed ones are judged
+    private boolean sample(Monitor monitor, LifecyclePhase phase) {
+        String name = monitor.getAsString(Attribute.NAME);
+        Sampler sampler = getSampler(name);
+        boolean processed = phase == LifecyclePhase.PROCESS;
+        boolean forced = processed && monitor.getAsBoolean(Attribute.FAILED, false);
+        if (processed && !forced && monitor.hasAttribute(Attribute.LATENCY)) {
+            Long threshold = _slowThresholds.get(name);
+            long thresholdMillis = (threshold != null) ? threshold.longValue() : _slowThresholdMillis;
+            forced = thresholdMillis > 0 && monitor.getAsLong(Attribute.LATENCY) > thresholdMillis;
+        }
+
+        double probability = sampler.observe(forced, _targetSamplesPerSecond);
+        if (forced) {
+            monitor.set(_sampleWeightKey, 1.0);
+            return true;
+        }
+        // spread the identity hash over 32 bits
+        int hash = System.identityHashCode(monitor);
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        if ((hash & 0xFFFFFFFFL) < probability * 4294967296.0) {
+            monitor.set(_sampleWeightKey, 1 / probability);
+            return true;
+        }
+        monitor.set(_sampleWeightKey, 0.0);
+        return false;
+    }
+
+    private Sampler getSampler(String name) {
+        Sampler sampler = _samplers.get(name);
+        if (sampler == null) {
+            Sampler newSampler = new Sampler();
+            sampler = _samplers.putIfAbsent(name, newSampler);
+            if (sampler == null) {
+                sampler = newSampler;
+            }
+        }
+        return sampler;
+    }
+
+    /**
+     * Sets the JEXL expression that monitors must match, which is compiled
+     * once here. The monitor is available to it as m and its attributes by
+     * their keys.
+     *
+     * @param expressionString the expression, or null to match all monitors
+     */
     public void setExpression(String expressionString) {
-        Expression expression = null;
+        MonitorPredicate expression = null;
 
         if (expressionString != null) {
             try {
-                expression = ExpressionFactory.createExpression(expressionString);
+                expression = MonitorPredicate.compile(expressionString);
             } catch (Exception e) {
                 log.error("Error setting expression: ", e);
             }
@@ -175,6 +278,76 @@ public class ProcessGroup {
         log.info(this.toString() + " -> " + levelString);
     }
 
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the monitors per second per name to sample, 0 if sampling is disabled")
+     */
+    public double getTargetSamplesPerSecond() {
+        return _targetSamplesPerSecond;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the monitors per second per name to sample, 0 to disable sampling")
+     */
+    public void setTargetSamplesPerSecond(double targetSamplesPerSecond) {
+        if (targetSamplesPerSecond < 0) {
+            throw new IllegalArgumentException("targetSamplesPerSecond cannot be negative");
+        }
+        _targetSamplesPerSecond = targetSamplesPerSecond;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="the latency above which monitors are always sampled, 0 if none")
+     */
+    public long getSlowThresholdMillis() {
+        return _slowThresholdMillis;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute
+     * (description="set the latency above which monitors are always sampled, 0 for none")
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        _slowThresholdMillis = slowThresholdMillis;
+    }
+
+    public String getSampleWeightKey() {
+        return _sampleWeightKey;
+    }
+
+    /**
+     * Sets the attribute under which the weight of sampled monitors is set.
+     * Defaults to sampleWeight.
+     *
+     * @param sampleWeightKey the attribute key
+     */
+    public void setSampleWeightKey(String sampleWeightKey) {
+        _sampleWeightKey = sampleWeightKey;
+    }
+
+    public Map getSlowThresholds() {
+        return _slowThresholds;
+    }
+
+    /**
+     * Sets the latencies above which the monitors of particular names are
+     * always sampled, overriding slowThresholdMillis.
+     *
+     * @param slowThresholds a map of monitor name to milliseconds, given as
+     * Numbers or as Strings such as Spring injects
+     * @throws IllegalArgumentException if a threshold is not a number
+     */
+    public void setSlowThresholds(Map slowThresholds) {
+        Map<String, Long> thresholds = new HashMap<String, Long>();
+        for (Iterator i = slowThresholds.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            thresholds.put(String.valueOf(entry.getKey()), toMillis(entry.getKey(), entry.getValue()));
+        }
+        _slowThresholds = thresholds;
+    }
+
     /**
      * Used for spring wiring, just wraps the above runtime method
      * @param levelString new MonitoringLevel to apply
@@ -182,4 +355,47 @@ public class ProcessGroup {
     public void setMonitoringLevel(final String levelString) {
         updateMonitoringLevel(levelString);
     }
+
+    private static Long toMillis(Object name, Object threshold) {
+        if (threshold instanceof Number) {
+            return Long.valueOf(((Number) threshold).longValue());
+        }
+        if (threshold instanceof String) {
+            try {
+                return Long.valueOf(((String) threshold).trim());
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("slow threshold of " + name + " is not a number: " + threshold);
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Sampler {
+        private static final long WINDOW_MILLIS = 1000;
+
+        private final AtomicLong _windowStart = new AtomicLong(System.currentTimeMillis());
+        private final AtomicLong _forcedCount = new AtomicLong();
+        private final AtomicLong _otherCount = new AtomicLong();
+        private volatile double _probability = 1.0;
+
+        /*
+         * Counts the monitor and returns the current sampling probability.
+         * The monitors that are always admitted use up part of the target,
+         * and the rest is shared by the others.
+         */
+        private double observe(boolean forced, double target) {
+            long now = System.currentTimeMillis();
+            long start = _windowStart.get();
+            if (now - start >= WINDOW_MILLIS && _windowStart.compareAndSet(start, now)) {
+                double seconds = (now - start) / 1000.0;
+                double forcedRate = _forcedCount.getAndSet(0) / seconds;
+                double otherRate = _otherCount.getAndSet(0) / seconds;
+                double remaining = Math.max(0, target - forcedRate);
+                _probability = (otherRate <= remaining) ? 1.0 : remaining / otherRate;
+            }
+            (forced ? _forcedCount : _otherCount).incrementAndGet();
+            return _probability;
+        }
+    }
 }
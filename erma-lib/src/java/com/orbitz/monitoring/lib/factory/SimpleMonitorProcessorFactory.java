@@ -1,8 +1,9 @@
 package com.orbitz.monitoring.lib.factory;
 
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
-import com.orbitz.monitoring.api.MonitorProcessorFactory;
+import com.orbitz.monitoring.api.PhasedMonitorProcessorFactory;
 
 import java.util.Arrays;
 import java.util.Iterator;
@@ -15,7 +16,7 @@ import java.util.Set;
  *
  * @author Doug Barth
  */
-public class SimpleMonitorProcessorFactory implements MonitorProcessorFactory {
+public class SimpleMonitorProcessorFactory implements PhasedMonitorProcessorFactory {
     // ** PRIVATE DATA ********************************************************
     private ProcessGroup[] _processGroups;
 
@@ -45,11 +46,15 @@ public class SimpleMonitorProcessorFactory implements MonitorProcessorFactory {
     }
 
     public MonitorProcessor[] getProcessorsForMonitor(Monitor monitor) {
+        return getProcessorsForMonitor(monitor, LifecyclePhase.PROCESS);
+    }
+
+    public MonitorProcessor[] getProcessorsForMonitor(Monitor monitor, LifecyclePhase phase) {
         Set applicableProcessors = new LinkedHashSet();
 
         for (int i = 0; i < _processGroups.length; i++) {
            ProcessGroup processGroup = _processGroups[i];
-           applicableProcessors.addAll(processGroup.getProcessorsFor(monitor));
+           applicableProcessors.addAll(processGroup.getProcessorsFor(monitor, phase));
         }
 
         return (MonitorProcessor[]) applicableProcessors.toArray(
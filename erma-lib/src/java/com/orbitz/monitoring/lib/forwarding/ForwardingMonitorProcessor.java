@@ -0,0 +1,476 @@
+package com.orbitz.monitoring.lib.forwarding;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoEncoder;
+import com.orbitz.monitoring.api.monitor.serializable.MonitorSnapshot;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+import com.orbitz.monitoring.lib.decomposer.DecomposedValueCodecs;
+import com.orbitz.monitoring.lib.processor.MonitorProcessorAdapter;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monitor processor that forwards completed monitors to a
+ * {@link MonitorCollector} in another process, so that the application does
+ * not do the heavy processing of its monitors itself.<p>
+ *
+ * The calling thread only takes a {@link MonitorSnapshot} of each monitor and
+ * queues it. A worker thread decomposes the queued monitors in batches of up
+ * to maxBatchSize, waiting up to maxBatchDelayMillis for a batch to fill,
+ * and writes them over one persistent connection in the compact momento
+ * format, framed as the collector expects. The queue holds at most
+ * maxQueueSize monitors; monitors arriving while it is full are dropped and
+ * counted.<p>
+ *
+ * When the collector cannot be reached, the worker reconnects every
+ * reconnectDelayMillis while the queue absorbs new monitors. A batch whose
+ * frames could not be written is resent once the connection is back;
+ * monitors already handed to a connection that then fails may be lost.<p>
+ *
+ * On shutdown the processor stops accepting monitors and keeps sending for
+ * up to shutdownTimeoutMillis; anything still queued after that is dropped.
+ *
+ * @since 4.1
+ */
+public class ForwardingMonitorProcessor extends MonitorProcessorAdapter {
+    // ** STATIC/FINAL DATA ***************************************************
+    private static final Logger log = Logger.getLogger(ForwardingMonitorProcessor.class);
+
+    private static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    private static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 50;
+    private static final long DEFAULT_RECONNECT_DELAY_MILLIS = 1000;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    // ** PRIVATE DATA ********************************************************
+    private String _name;
+    private String _host;
+    private int _port;
+    private int _maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long _maxBatchDelayMillis = DEFAULT_MAX_BATCH_DELAY_MILLIS;
+    private long _reconnectDelayMillis = DEFAULT_RECONNECT_DELAY_MILLIS;
+    private int _connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int _maxFrameBytes = Frames.DEFAULT_MAX_FRAME_BYTES;
+    private long _shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+
+    private volatile BlockingQueue<MonitorSnapshot> _queue;
+    private volatile Thread _workerThread;
+    private volatile boolean _running;
+    private volatile long _stopDeadline;
+    private volatile boolean _connected;
+
+    private final AtomicLong _enqueuedCount = new AtomicLong();
+    private final AtomicLong _sentCount = new AtomicLong();
+    private final AtomicLong _droppedCount = new AtomicLong();
+    private final AtomicLong _connectCount = new AtomicLong();
+
+    // ** PUBLIC METHODS ******************************************************
+    public void startup() {
+        if (_running) {
+            return;
+        }
+        if (_host == null || _port <= 0) {
+            throw new IllegalStateException("host and port must be set");
+        }
+        _queue = new ArrayBlockingQueue<MonitorSnapshot>(_maxQueueSize);
+        _running = true;
+        _workerThread = new Thread(new Worker(), "ForwardingMonitorProcessor-" + _name);
+        _workerThread.setDaemon(true);
+        _workerThread.start();
+    }
+
+    public void shutdown() {
+        Thread workerThread = _workerThread;
+        if (workerThread == null) {
+            return;
+        }
+        _stopDeadline = System.currentTimeMillis() + _shutdownTimeoutMillis;
+        _running = false;
+        try {
+            workerThread.join(_shutdownTimeoutMillis + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (workerThread.isAlive()) {
+            workerThread.interrupt();
+        }
+        _workerThread = null;
+    }
+
+    public void process(Monitor monitor) {
+        BlockingQueue<MonitorSnapshot> queue = _queue;
+        if (!_running || queue == null) {
+            return;
+        }
+        if (queue.offer(MonitorSnapshot.capture(monitor))) {
+            _enqueuedCount.incrementAndGet();
+        } else {
+            _droppedCount.incrementAndGet();
+        }
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public void setName(String name) {
+        _name = name;
+    }
+
+    public String getHost() {
+        return _host;
+    }
+
+    /**
+     * Sets the host of the collector.
+     *
+     * @param host a host name or address
+     */
+    public void setHost(String host) {
+        _host = host;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    /**
+     * Sets the port the collector listens on.
+     *
+     * @param port the port
+     */
+    public void setPort(int port) {
+        _port = port;
+    }
+
+    public int getMaxQueueSize() {
+        return _maxQueueSize;
+    }
+
+    /**
+     * Sets how many monitors may wait to be sent before further monitors are
+     * dropped. Takes effect at startup. Defaults to 10000.
+     *
+     * @param maxQueueSize the queue capacity, at least 1
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be at least 1");
+        }
+        _maxQueueSize = maxQueueSize;
+    }
+
+    public int getMaxBatchSize() {
+        return _maxBatchSize;
+    }
+
+    /**
+     * Sets the most monitors sent together. Defaults to 256.
+     *
+     * @param maxBatchSize the batch size, at least 1
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        _maxBatchSize = maxBatchSize;
+    }
+
+    public long getMaxBatchDelayMillis() {
+        return _maxBatchDelayMillis;
+    }
+
+    /**
+     * Sets how long the worker waits for a batch to fill after taking its
+     * first monitor. Defaults to 50 milliseconds; 0 sends whatever is queued.
+     *
+     * @param maxBatchDelayMillis the wait in milliseconds
+     */
+    public void setMaxBatchDelayMillis(long maxBatchDelayMillis) {
+        _maxBatchDelayMillis = maxBatchDelayMillis;
+    }
+
+    public long getReconnectDelayMillis() {
+        return _reconnectDelayMillis;
+    }
+
+    /**
+     * Sets how long the worker waits between attempts to connect. Defaults to
+     * 1 second.
+     *
+     * @param reconnectDelayMillis the wait in milliseconds
+     */
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        _reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return _connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        _connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getMaxFrameBytes() {
+        return _maxFrameBytes;
+    }
+
+    /**
+     * Sets the largest frame written, which must not exceed the collector's.
+     * A monitor that does not fit in a frame by itself is dropped. Takes
+     * effect at startup. Defaults to 1MB.
+     *
+     * @param maxFrameBytes the frame size in bytes
+     */
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        if (maxFrameBytes <= Frames.HEADER_BYTES) {
+            throw new IllegalArgumentException("maxFrameBytes must be more than " + Frames.HEADER_BYTES);
+        }
+        _maxFrameBytes = maxFrameBytes;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return _shutdownTimeoutMillis;
+    }
+
+    /**
+     * Sets how long shutdown keeps sending queued monitors before dropping
+     * them. Defaults to 5 seconds.
+     *
+     * @param shutdownTimeoutMillis the wait in milliseconds
+     */
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        _shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    /**
+     * Gets whether the processor is connected to the collector.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return _connected;
+    }
+
+    /**
+     * Gets the number of monitors queued since this processor was created.
+     *
+     * @return the number of monitors enqueued
+     */
+    public long getEnqueuedCount() {
+        return _enqueuedCount.get();
+    }
+
+    /**
+     * Gets the number of monitors written to the collector.
+     *
+     * @return the number of monitors sent
+     */
+    public long getSentCount() {
+        return _sentCount.get();
+    }
+
+    /**
+     * Gets the number of monitors dropped because the queue was full, they
+     * could not be encoded, or shutdown timed out.
+     *
+     * @return the number of monitors dropped
+     */
+    public long getDroppedCount() {
+        return _droppedCount.get();
+    }
+
+    /**
+     * Gets the number of connections made to the collector.
+     *
+     * @return the number of connections
+     */
+    public long getConnectCount() {
+        return _connectCount.get();
+    }
+
+    /**
+     * Gets the number of monitors waiting to be sent.
+     *
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        BlockingQueue<MonitorSnapshot> queue = _queue;
+        return (queue != null) ? queue.size() : 0;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private final class Worker implements Runnable {
+        private final List<SerializableMonitor> _batch = new ArrayList<SerializableMonitor>();
+        private final ByteBuffer _frame = ByteBuffer.allocate(_maxFrameBytes);
+        private SocketChannel _channel;
+        private MomentoEncoder _encoder;
+
+        public void run() {
+            try {
+                while (_batch.size() > 0 || fillBatch()) {
+                    if (stopExpired()) {
+                        break;
+                    }
+                    if (_channel == null && !connect()) {
+                        Thread.sleep(_reconnectDelayMillis);
+                        continue;
+                    }
+                    try {
+                        send();
+                    } catch (IOException e) {
+                        log.warn("Lost connection to collector at " + _host + ":" + _port +
+                                "; application is unaffected: ", e);
+                        disconnect();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutting down
+            } finally {
+                disconnect();
+                _droppedCount.addAndGet(_batch.size() + _queue.size());
+                _batch.clear();
+                _queue.clear();
+            }
+        }
+
+        // returns false once stopped with nothing left to send
+        private boolean fillBatch() throws InterruptedException {
+            MonitorSnapshot first = null;
+            while (first == null) {
+                if (!_running && _queue.isEmpty()) {
+                    return false;
+                }
+                first = _queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            List<MonitorSnapshot> snapshots = new ArrayList<MonitorSnapshot>();
+            snapshots.add(first);
+            _queue.drainTo(snapshots, _maxBatchSize - snapshots.size());
+
+            long deadline = System.currentTimeMillis() + _maxBatchDelayMillis;
+            while (_running && snapshots.size() < _maxBatchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                MonitorSnapshot snapshot = _queue.poll(remaining, TimeUnit.MILLISECONDS);
+                if (snapshot == null) {
+                    break;
+                }
+                snapshots.add(snapshot);
+                _queue.drainTo(snapshots, _maxBatchSize - snapshots.size());
+            }
+
+            for (int i = 0; i < snapshots.size(); i++) {
+                try {
+                    _batch.add(snapshots.get(i).toSerializableMomento());
+                } catch (Throwable t) {
+                    _droppedCount.incrementAndGet();
+                    log.warn("Throwable caught while decomposing monitor; application is unaffected: ", t);
+                }
+            }
+            return true;
+        }
+
+        private boolean stopExpired() {
+            return !_running && System.currentTimeMillis() > _stopDeadline;
+        }
+
+        private boolean connect() {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                channel.socket().connect(new InetSocketAddress(_host, _port), _connectTimeoutMillis);
+            } catch (IOException e) {
+                close(channel);
+                if (log.isDebugEnabled()) {
+                    log.debug("Cannot connect to collector at " + _host + ":" + _port, e);
+                }
+                return false;
+            }
+            _channel = channel;
+            // a new connection is a new momento stream
+            _encoder = new MomentoEncoder();
+            DecomposedValueCodecs.registerWith(_encoder);
+            _connected = true;
+            _connectCount.incrementAndGet();
+            return true;
+        }
+
+        private void disconnect() {
+            close(_channel);
+            _channel = null;
+            _encoder = null;
+            _connected = false;
+        }
+
+        // monitors leave the batch as the frames holding them are written
+        private void send() throws IOException {
+            _frame.clear();
+            _frame.position(Frames.HEADER_BYTES);
+            int framed = 0;
+            while (framed < _batch.size()) {
+                try {
+                    _encoder.encode(_batch.get(framed), _frame);
+                    framed++;
+                } catch (BufferOverflowException e) {
+                    if (framed == 0) {
+                        _batch.remove(0);
+                        _droppedCount.incrementAndGet();
+                        log.warn("Monitor larger than maxFrameBytes of " + _maxFrameBytes +
+                                " dropped; application is unaffected");
+                        continue;
+                    }
+                    writeFrame(framed);
+                    framed = 0;
+                } catch (IOException e) {
+                    _batch.remove(framed);
+                    _droppedCount.incrementAndGet();
+                    log.warn("Cannot encode monitor; application is unaffected: ", e);
+                }
+            }
+            if (framed > 0) {
+                writeFrame(framed);
+            }
+        }
+
+        private void writeFrame(int framed) throws IOException {
+            _frame.putInt(0, _frame.position() - Frames.HEADER_BYTES);
+            _frame.flip();
+            while (_frame.hasRemaining()) {
+                _channel.write(_frame);
+            }
+            _batch.subList(0, framed).clear();
+            _sentCount.addAndGet(framed);
+            _frame.clear();
+            _frame.position(Frames.HEADER_BYTES);
+        }
+
+        private void close(SocketChannel channel) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already unusable
+            }
+        }
+    }
+}
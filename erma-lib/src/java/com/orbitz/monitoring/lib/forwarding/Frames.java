@@ -0,0 +1,17 @@
+package com.orbitz.monitoring.lib.forwarding;
+
+/**
+ * The framing shared by {@link ForwardingMonitorProcessor} and
+ * {@link MonitorCollector}. A connection carries one momento stream, as
+ * written by a MomentoEncoder, cut into frames of whole momentos. Each frame
+ * is a 4 byte big-endian length followed by that many bytes of momentos.
+ *
+ * @since 4.1
+ */
+final class Frames {
+    static final int HEADER_BYTES = 4;
+    static final int DEFAULT_MAX_FRAME_BYTES = 1024 * 1024;
+
+    private Frames() {
+    }
+}
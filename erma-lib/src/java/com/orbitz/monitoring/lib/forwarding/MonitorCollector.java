@@ -0,0 +1,373 @@
+package com.orbitz.monitoring.lib.forwarding;
+
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoDecoder;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+import com.orbitz.monitoring.lib.decomposer.DecomposedValueCodecs;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server that receives the monitors sent by
+ * {@link ForwardingMonitorProcessor}s and processes them with this process's
+ * {@link MonitoringEngine}, so that they reach its processor chain as if they
+ * had completed here.<p>
+ *
+ * One thread accepts connections and reads their frames without blocking,
+ * and hands each monitor to the engine as it is decoded. Processors that are
+ * slow, such as those writing to a database, should be put behind an
+ * AsyncMonitorProcessor so they do not hold up the reads. A connection that
+ * sends a frame larger than maxFrameBytes or that cannot be decoded is
+ * closed; its sender reconnects and starts a new stream.<p>
+ *
+ * Connections are not authenticated, so by default the collector only
+ * listens on the loopback address. Attribute values written with Java
+ * serialization are only decoded if their classes are JDK value types,
+ * enums or serializedClasses.
+ *
+ * @since 4.1
+ */
+public class MonitorCollector {
+    // ** STATIC/FINAL DATA ***************************************************
+    private static final Logger log = Logger.getLogger(MonitorCollector.class);
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+    // ** PRIVATE DATA ********************************************************
+    private String _bindAddress = DEFAULT_BIND_ADDRESS;
+    private int _port;
+    private int _maxFrameBytes = Frames.DEFAULT_MAX_FRAME_BYTES;
+    private List<String> _serializedClasses = new ArrayList<String>();
+
+    private volatile Selector _selector;
+    private volatile ServerSocketChannel _serverChannel;
+    private volatile Thread _selectorThread;
+    private volatile boolean _running;
+
+    private final AtomicLong _receivedCount = new AtomicLong();
+    private final AtomicLong _acceptedCount = new AtomicLong();
+    private final AtomicLong _rejectedCount = new AtomicLong();
+
+    // ** PUBLIC METHODS ******************************************************
+    /**
+     * Starts listening for connections.
+     *
+     * @throws IllegalStateException if the port cannot be listened on
+     */
+    public void startup() {
+        if (_running) {
+            return;
+        }
+        try {
+            _selector = Selector.open();
+            _serverChannel = ServerSocketChannel.open();
+            _serverChannel.socket().setReuseAddress(true);
+            InetSocketAddress address = (_bindAddress != null)
+                    ? new InetSocketAddress(_bindAddress, _port) : new InetSocketAddress(_port);
+            _serverChannel.socket().bind(address);
+            _serverChannel.configureBlocking(false);
+            _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("Cannot listen on port " + _port, e);
+        }
+        _running = true;
+        _selectorThread = new Thread(new Reader(), "MonitorCollector-" + getLocalPort());
+        _selectorThread.setDaemon(true);
+        _selectorThread.start();
+    }
+
+    /**
+     * Stops listening and closes all connections.
+     */
+    public void shutdown() {
+        if (!_running) {
+            return;
+        }
+        _running = false;
+        Selector selector = _selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        try {
+            _selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _selectorThread = null;
+    }
+
+    public String getBindAddress() {
+        return _bindAddress;
+    }
+
+    /**
+     * Sets the address to listen on. Defaults to 127.0.0.1, so that only
+     * local senders can connect. Anyone who can reach another address can
+     * send monitors to the collector, so it should only be opened up on a
+     * trusted network.
+     *
+     * @param bindAddress a host name or address, or null for all addresses
+     */
+    public void setBindAddress(String bindAddress) {
+        _bindAddress = bindAddress;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    /**
+     * Sets the port to listen on, or 0 for any free port.
+     *
+     * @param port the port
+     */
+    public void setPort(int port) {
+        _port = port;
+    }
+
+    /**
+     * Gets the port being listened on.
+     *
+     * @return the port, or -1 if the collector is not started
+     */
+    public int getLocalPort() {
+        ServerSocketChannel serverChannel = _serverChannel;
+        return (serverChannel != null) ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    public int getMaxFrameBytes() {
+        return _maxFrameBytes;
+    }
+
+    /**
+     * Sets the largest frame accepted. Defaults to 1MB.
+     *
+     * @param maxFrameBytes the frame size in bytes
+     */
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        if (maxFrameBytes <= Frames.HEADER_BYTES) {
+            throw new IllegalArgumentException("maxFrameBytes must be more than " + Frames.HEADER_BYTES);
+        }
+        _maxFrameBytes = maxFrameBytes;
+    }
+
+    public List<String> getSerializedClasses() {
+        return _serializedClasses;
+    }
+
+    /**
+     * Sets the classes, beyond the JDK value types and enums, whose attribute
+     * values may be decoded with Java serialization. Takes effect for
+     * connections accepted afterwards.
+     *
+     * @param serializedClasses class names, as returned by Class.getName()
+     */
+    public void setSerializedClasses(List<String> serializedClasses) {
+        _serializedClasses = new ArrayList<String>(serializedClasses);
+    }
+
+    /**
+     * Gets the number of monitors received and handed to the engine.
+     *
+     * @return the number of monitors received
+     */
+    public long getReceivedCount() {
+        return _receivedCount.get();
+    }
+
+    /**
+     * Gets the number of connections accepted.
+     *
+     * @return the number of connections
+     */
+    public long getAcceptedCount() {
+        return _acceptedCount.get();
+    }
+
+    /**
+     * Gets the number of connections closed for sending frames that were too
+     * large or could not be decoded.
+     *
+     * @return the number of connections rejected
+     */
+    public long getRejectedCount() {
+        return _rejectedCount.get();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void closeQuietly() {
+        Selector selector = _selector;
+        if (selector != null) {
+            for (Iterator i = selector.keys().iterator(); i.hasNext();) {
+                close((SelectionKey) i.next());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        ServerSocketChannel serverChannel = _serverChannel;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        _selector = null;
+        _serverChannel = null;
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private final class Reader implements Runnable {
+        public void run() {
+            try {
+                while (_running) {
+                    _selector.select();
+                    for (Iterator i = _selector.selectedKeys().iterator(); i.hasNext();) {
+                        SelectionKey key = (SelectionKey) i.next();
+                        i.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                log.warn("MonitorCollector stopped; monitors are no longer collected: ", t);
+            } finally {
+                _running = false;
+                closeQuietly();
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel = _serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.register(_selector, SelectionKey.OP_READ, new Connection());
+            _acceptedCount.incrementAndGet();
+        }
+
+        private void read(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (!connection.read((SocketChannel) key.channel())) {
+                    close(key);
+                }
+            } catch (IOException e) {
+                reject(key, e);
+            } catch (RuntimeException e) {
+                reject(key, e);
+            } catch (OutOfMemoryError e) {
+                // a corrupt length asked for more than the heap has
+                reject(key, e);
+            } catch (StackOverflowError e) {
+                // values nested too deeply to decode
+                reject(key, e);
+            }
+        }
+
+        // only the connection that sent the bad frame is closed
+        private void reject(SelectionKey key, Throwable t) {
+            _rejectedCount.incrementAndGet();
+            log.warn("Closing collector connection from " + ((SocketChannel) key.channel()).socket()
+                    .getRemoteSocketAddress() + "; monitors from it may be lost: ", t);
+            close(key);
+        }
+    }
+
+    // the momento stream of one connection
+    private final class Connection {
+        private final MomentoDecoder _decoder = new MomentoDecoder();
+        private ByteBuffer _buffer = ByteBuffer.allocate(Math.min(INITIAL_BUFFER_BYTES,
+                _maxFrameBytes + Frames.HEADER_BYTES));
+
+        private Connection() {
+            DecomposedValueCodecs.registerWith(_decoder);
+            for (String className : _serializedClasses) {
+                _decoder.allowSerializedClass(className);
+            }
+        }
+
+        // returns false once the sender has closed the connection
+        private boolean read(SocketChannel channel) throws IOException {
+            int read = channel.read(_buffer);
+            if (read < 0) {
+                return false;
+            }
+            _buffer.flip();
+            while (_buffer.remaining() >= Frames.HEADER_BYTES) {
+                int length = _buffer.getInt(_buffer.position());
+                if (length < 0 || length > _maxFrameBytes) {
+                    throw new IOException("frame of " + length + " bytes is larger than maxFrameBytes");
+                }
+                int frameEnd = _buffer.position() + Frames.HEADER_BYTES + length;
+                if (frameEnd > _buffer.limit()) {
+                    break;
+                }
+                ByteBuffer frame = _buffer.duplicate();
+                frame.position(_buffer.position() + Frames.HEADER_BYTES);
+                frame.limit(frameEnd);
+                _buffer.position(frameEnd);
+                SerializableMonitor momento;
+                while ((momento = _decoder.decode(frame)) != null) {
+                    dispatch(momento);
+                }
+            }
+            _buffer.compact();
+            if (!_buffer.hasRemaining()) {
+                grow();
+            }
+            return true;
+        }
+
+        // a frame larger than the buffer is read into a bigger one
+        private void grow() {
+            int capacity = Math.min(_buffer.capacity() * 2, _maxFrameBytes + Frames.HEADER_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            _buffer.flip();
+            buffer.put(_buffer);
+            _buffer = buffer;
+        }
+
+        private void dispatch(SerializableMonitor momento) {
+            _receivedCount.incrementAndGet();
+            try {
+                MonitoringEngine.getInstance().process(momento);
+            } catch (Throwable t) {
+                log.warn("Throwable caught while processing collected monitor " + momento +
+                        "; application is unaffected: ", t);
+            }
+        }
+    }
+}
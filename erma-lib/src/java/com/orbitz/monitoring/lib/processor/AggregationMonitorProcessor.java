@@ -1,13 +1,21 @@
 package com.orbitz.monitoring.lib.processor;
 
-import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.Aggregator;
+import com.orbitz.monitoring.api.SubscribingMonitorProcessor;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * MonitorProcessor that delegates to an Aggregator.
  */
-public class AggregationMonitorProcessor implements MonitorProcessor {
+public class AggregationMonitorProcessor implements SubscribingMonitorProcessor {
+
+    private static final Set<LifecyclePhase> SUBSCRIBED_PHASES =
+            Collections.unmodifiableSet(EnumSet.of(LifecyclePhase.PROCESS));
 
     private final Aggregator aggregator;
 
@@ -80,4 +88,13 @@ public class AggregationMonitorProcessor implements MonitorProcessor {
     public String getName() {
         return getClass().getSimpleName();
     }
+
+    /**
+     * Aggregators only see completed monitors.
+     *
+     * @return the PROCESS phase
+     */
+    public Set<LifecyclePhase> getSubscribedPhases() {
+        return SUBSCRIBED_PHASES;
+    }
 }
@@ -1,39 +1,100 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.BatchMonitorProcessor;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitorProcessorAttachable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import com.orbitz.monitoring.api.SubscribingMonitorProcessor;
+import com.orbitz.monitoring.api.monitor.serializable.MonitorSnapshot;
+import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A monitor processor that processes monitors on a separate thread. This
  * is recommended for use when decoupling the processing of monitors from the
- * gathering of the data is allowed.
+ * gathering of the data is allowed.<p>
+ *
+ * Events are drained from the queue in batches of up to maxBatchSize events.
+ * If maxBatchDelayMicros is set, the worker thread will wait up to that long
+ * after taking the first event of a batch for the batch to fill. Completed
+ * monitors within a batch are handed to attached
+ * {@link BatchMonitorProcessor}s in a single call; all other processors are
+ * called once per monitor.<p>
+ *
+ * By default the calling thread only takes a shallow {@link MonitorSnapshot}
+ * of each monitor, and the decomposition of attribute values into their
+ * serializable form is deferred to the worker thread. Applications that
+ * mutate attribute values after a monitor is processed can set
+ * deferDecomposition to false to build the serializable momento on the
+ * calling thread instead.<p>
+ *
+ * This processor only subscribes to the lifecycle phases that at least one of
+ * its attached processors subscribes to, so no momento is captured or queued
+ * for a phase nobody will handle.<p>
+ *
+ * {@link #flush(long, TimeUnit)} waits for everything enqueued before the
+ * call to be delivered without stopping intake. On shutdown the processor
+ * stops accepting events and {@link #drain(long, TimeUnit) drains} the queue
+ * for up to shutdownTimeoutMillis; anything still queued after that is
+ * dropped and reported.
  *
  * @author Doug Barth
  */
 public final class AsyncMonitorProcessor
-        implements MonitorProcessor, MonitorProcessorAttachable {
+        implements SubscribingMonitorProcessor, MonitorProcessorAttachable {
+    // ** STATIC/FINAL DATA ***************************************************
+    private static final Logger log = Logger.getLogger(AsyncMonitorProcessor.class);
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 128;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+    private static final long DEFAULT_FLUSH_TIMEOUT_MILLIS = 5000;
+
     // ** PRIVATE DATA ********************************************************
     private String _name;
     private List _processors;
-    private ExecutorService _monitorProcessingExecutor;
+    private volatile BatchMonitorProcessor[] _batchProcessors;
+    private volatile Set<LifecyclePhase> _subscribedPhases;
+
+    private final BlockingQueue<QueuedEvent> _queue;
+    private volatile Thread _workerThread;
+    private volatile boolean _running;
+
+    private int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long _maxBatchDelayMicros = 0;
+    private boolean _deferDecomposition = true;
+    private long _shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+    private long _flushTimeoutMillis = DEFAULT_FLUSH_TIMEOUT_MILLIS;
+
+    // the calling threads between their _running check and their offer
+    private final AtomicInteger _enqueuing = new AtomicInteger();
+    private final AtomicLong _enqueuedCount = new AtomicLong();
+    private final AtomicLong _deliveredCount = new AtomicLong();
+    private final AtomicLong _droppedCount = new AtomicLong();
 
     // ** CONSTRUCTORS ********************************************************
     public AsyncMonitorProcessor() {
         _processors = new LinkedList();
+        _queue = new LinkedBlockingQueue<QueuedEvent>();
+        refreshBatchProcessors();
     }
 
     /**
      * Constructor that supports DI.
-     * 
+     *
      * @since 3.5
      *
      * @param processors
@@ -41,68 +102,140 @@ public final class AsyncMonitorProcessor
     public AsyncMonitorProcessor(MonitorProcessor[] processors) {
         this();
         if(processors != null && processors.length > 0) {
-            _processors = Arrays.asList(processors);
+            _processors = new LinkedList(Arrays.asList(processors));
+            refreshBatchProcessors();
         }
     }
 
     // ** PUBLIC METHODS ******************************************************
     public void startup() {
-        _monitorProcessingExecutor = Executors.newSingleThreadExecutor();
-        for(Iterator i = _processors.iterator(); i.hasNext();) {
-            ((MonitorProcessor) i.next()).startup();
+        for (int i = 0; i < _processors.size(); i++) {
+            ((MonitorProcessor) _processors.get(i)).startup();
+        }
+        refreshBatchProcessors();
+
+        if (_running) {
+            return;
         }
+        _running = true;
+        _workerThread = new Thread(new Worker(), "AsyncMonitorProcessor-" + _name);
+        _workerThread.setDaemon(true);
+        _workerThread.start();
     }
 
     public void shutdown() {
-        flushEvents();
-        _monitorProcessingExecutor.shutdownNow();
-        for(Iterator i = _processors.iterator(); i.hasNext();) {
-            ((MonitorProcessor) i.next()).shutdown();
+        DrainResult result = drain(_shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (result.getDroppedCount() > 0) {
+            log.warn("AsyncMonitorProcessor " + _name + " did not drain within " +
+                    _shutdownTimeoutMillis + "ms; " + result);
+        } else if (log.isDebugEnabled()) {
+            log.debug("AsyncMonitorProcessor " + _name + " drained; " + result);
+        }
+
+        for (int i = 0; i < _processors.size(); i++) {
+            ((MonitorProcessor) _processors.get(i)).shutdown();
         }
     }
 
     public void monitorCreated(Monitor monitor) {
-        _monitorProcessingExecutor.execute(new MonitorProcessBundle(
-                    monitor.getSerializableMomento()) {
-            protected void processWithProcessor(MonitorProcessor processor) {
-                processor.monitorCreated(_monitor);
-            }
-        });
+        enqueue(LifecyclePhase.MONITOR_CREATED, monitor);
     }
 
     public void monitorStarted(Monitor monitor) {
-        _monitorProcessingExecutor.execute(new MonitorProcessBundle(
-                    monitor.getSerializableMomento()) {
-            protected void processWithProcessor(MonitorProcessor processor) {
-                processor.monitorStarted(_monitor);
-            }
-        });
+        enqueue(LifecyclePhase.MONITOR_STARTED, monitor);
     }
 
     public void process(Monitor monitor) {
-        _monitorProcessingExecutor.execute(new MonitorProcessBundle(
-                    monitor.getSerializableMomento()) {
-            protected void processWithProcessor(MonitorProcessor processor) {
-                processor.process(_monitor);
-            }
-        });
+        enqueue(LifecyclePhase.PROCESS, monitor);
     }
 
+    /**
+     * Waits up to flushTimeoutMillis for every event enqueued before this call
+     * to be delivered to the attached processors. Events may continue to be
+     * enqueued while the flush is in progress. If the calling thread is
+     * interrupted, its interrupt flag is restored and this method returns.
+     */
     public void flushEvents() {
-        _monitorProcessingExecutor.shutdown();
-        while (! _monitorProcessingExecutor.isTerminated()) {
+        if (!flush(_flushTimeoutMillis, TimeUnit.MILLISECONDS) &&
+                !Thread.currentThread().isInterrupted()) {
+            log.warn("AsyncMonitorProcessor " + _name + " did not flush within " +
+                    _flushTimeoutMillis + "ms");
+        }
+    }
+
+    /**
+     * Waits up to the supplied timeout for every event enqueued before this
+     * call to be delivered to the attached processors. Intake is not stopped;
+     * events enqueued while the flush is in progress are simply not waited
+     * for.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the events were delivered, false if the timeout elapsed
+     * or the calling thread was interrupted first
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        if (_workerThread == null) {
+            return _queue.isEmpty();
+        }
+
+        CountDownLatch latch = enqueueMarker(false);
+        try {
+            return latch.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting events and waits up to the supplied timeout for the
+     * events already queued to be delivered, then stops the worker thread.
+     * Events that could not be delivered in time are discarded and counted as
+     * dropped. The processor can be started again with {@link #startup()}.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the number of events delivered and dropped during the drain
+     */
+    public DrainResult drain(long timeout, TimeUnit unit) {
+        long deliveredBefore = _deliveredCount.get();
+        _running = false;
+        // events that got past the _running check are queued before the drain
+        while (_enqueuing.get() > 0) {
+            Thread.yield();
+        }
+
+        Thread workerThread = _workerThread;
+        if (workerThread != null) {
+            CountDownLatch latch = enqueueMarker(true);
+            boolean interrupted = false;
             try {
-                _monitorProcessingExecutor.awaitTermination(100, TimeUnit.MILLISECONDS);
+                if (!latch.await(timeout, unit)) {
+                    abandon(workerThread);
+                }
+                workerThread.join(100);
             } catch (InterruptedException e) {
-                // ignore
+                interrupted = true;
+                abandon(workerThread);
+            }
+            _workerThread = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
 
-        _monitorProcessingExecutor = Executors.newSingleThreadExecutor();
+        _queue.clear();
+        // a worker stuck in a processor may still finish events counted here
+        long dropped = Math.max(0,
+                _enqueuedCount.get() - _deliveredCount.get() - _droppedCount.get());
+        _droppedCount.addAndGet(dropped);
+        return new DrainResult(_deliveredCount.get() - deliveredBefore, dropped);
     }
 
     public void addMonitorProcessor(MonitorProcessor processor) {
         _processors.add(processor);
+        refreshBatchProcessors();
     }
 
     public List getMonitorProcessors() {
@@ -113,25 +246,373 @@ public final class AsyncMonitorProcessor
         return _name;
     }
 
+    /**
+     * Gets the union of the phases subscribed to by the attached processors.
+     *
+     * @return the subscribed phases
+     */
+    public Set<LifecyclePhase> getSubscribedPhases() {
+        return _subscribedPhases;
+    }
+
     public void setName(final String name) {
         _name = name;
     }
 
+    public int getMaxBatchSize() {
+        return _maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events the worker thread will drain from the
+     * queue and deliver as a single batch.
+     *
+     * @param maxBatchSize the maximum batch size, must be at least 1
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        _maxBatchSize = maxBatchSize;
+    }
+
+    public long getMaxBatchDelayMicros() {
+        return _maxBatchDelayMicros;
+    }
+
+    /**
+     * Sets how long the worker thread will wait for a batch to fill after
+     * taking its first event. The default of 0 delivers whatever is queued
+     * without waiting.
+     *
+     * @param maxBatchDelayMicros the maximum wait in microseconds
+     */
+    public void setMaxBatchDelayMicros(final long maxBatchDelayMicros) {
+        _maxBatchDelayMicros = maxBatchDelayMicros;
+    }
+
+    public boolean isDeferDecomposition() {
+        return _deferDecomposition;
+    }
+
+    /**
+     * Sets whether the decomposition of monitors into serializable momentos is
+     * deferred to the worker thread (the default) or done on the calling
+     * thread.
+     *
+     * @param deferDecomposition false to decompose on the calling thread
+     */
+    public void setDeferDecomposition(final boolean deferDecomposition) {
+        _deferDecomposition = deferDecomposition;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return _shutdownTimeoutMillis;
+    }
+
+    /**
+     * Sets how long shutdown will wait for queued events to be delivered
+     * before dropping them. Defaults to 5 seconds.
+     *
+     * @param shutdownTimeoutMillis the maximum wait in milliseconds
+     */
+    public void setShutdownTimeoutMillis(final long shutdownTimeoutMillis) {
+        _shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public long getFlushTimeoutMillis() {
+        return _flushTimeoutMillis;
+    }
+
+    /**
+     * Sets how long {@link #flushEvents()} will wait for queued events to be
+     * delivered. Defaults to 5 seconds.
+     *
+     * @param flushTimeoutMillis the maximum wait in milliseconds
+     */
+    public void setFlushTimeoutMillis(final long flushTimeoutMillis) {
+        _flushTimeoutMillis = flushTimeoutMillis;
+    }
+
+    /**
+     * Gets the number of events accepted since this processor was created.
+     *
+     * @return the number of events enqueued
+     */
+    public long getEnqueuedCount() {
+        return _enqueuedCount.get();
+    }
+
+    /**
+     * Gets the number of events delivered to the attached processors since
+     * this processor was created.
+     *
+     * @return the number of events delivered
+     */
+    public long getDeliveredCount() {
+        return _deliveredCount.get();
+    }
+
+    /**
+     * Gets the number of events discarded by {@link #drain(long, TimeUnit)}
+     * since this processor was created.
+     *
+     * @return the number of events dropped
+     */
+    public long getDroppedCount() {
+        return _droppedCount.get();
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void enqueue(LifecyclePhase phase, Monitor monitor) {
+        if (!_subscribedPhases.contains(phase)) {
+            return;
+        }
+        _enqueuing.incrementAndGet();
+        try {
+            if (_running) {
+                QueuedEvent event;
+                if (_deferDecomposition) {
+                    event = new QueuedEvent(phase, MonitorSnapshot.capture(monitor));
+                } else {
+                    event = new QueuedEvent(phase, monitor.getSerializableMomento());
+                }
+                _enqueuedCount.incrementAndGet();
+                _queue.offer(event);
+            }
+        } finally {
+            _enqueuing.decrementAndGet();
+        }
+    }
+
+    // the worker stops delivering as soon as it is no longer the current worker
+    private void abandon(Thread workerThread) {
+        _workerThread = null;
+        workerThread.interrupt();
+    }
+
+    private CountDownLatch enqueueMarker(boolean stop) {
+        CountDownLatch latch = new CountDownLatch(1);
+        _queue.offer(new QueuedEvent(latch, stop));
+        return latch;
+    }
+
+    private void refreshBatchProcessors() {
+        BatchMonitorProcessor[] batchProcessors = new BatchMonitorProcessor[_processors.size()];
+        Set<LifecyclePhase> subscribedPhases = EnumSet.noneOf(LifecyclePhase.class);
+        for (int i = 0; i < batchProcessors.length; i++) {
+            MonitorProcessor processor = (MonitorProcessor) _processors.get(i);
+            batchProcessors[i] = BatchMonitorProcessorAdapter.adapt(processor);
+            for (LifecyclePhase phase : LifecyclePhase.values()) {
+                if (phase.isSubscribedBy(processor)) {
+                    subscribedPhases.add(phase);
+                }
+            }
+        }
+        _batchProcessors = batchProcessors;
+        _subscribedPhases = Collections.unmodifiableSet(subscribedPhases);
+    }
+
     // ** INNER CLASSES *******************************************************
-    private abstract class MonitorProcessBundle implements Runnable {
-        protected Monitor _monitor;
+    /**
+     * The outcome of a {@link AsyncMonitorProcessor#drain(long, TimeUnit)}.
+     */
+    public static final class DrainResult {
+        private final long _deliveredCount;
+        private final long _droppedCount;
+
+        private DrainResult(long deliveredCount, long droppedCount) {
+            _deliveredCount = deliveredCount;
+            _droppedCount = droppedCount;
+        }
+
+        /**
+         * Gets the number of events delivered while draining.
+         *
+         * @return the number of events delivered
+         */
+        public long getDeliveredCount() {
+            return _deliveredCount;
+        }
+
+        /**
+         * Gets the number of events discarded because they could not be
+         * delivered before the timeout elapsed.
+         *
+         * @return the number of events dropped
+         */
+        public long getDroppedCount() {
+            return _droppedCount;
+        }
+
+        public String toString() {
+            return "delivered=" + _deliveredCount + ", dropped=" + _droppedCount;
+        }
+    }
+
+    // an event for a lifecycle phase, or a flush marker if _phase is null; a
+    // stop marker additionally ends the worker thread
+    private static final class QueuedEvent {
+        private final LifecyclePhase _phase;
+        private final MonitorSnapshot _snapshot;
+        private final CountDownLatch _flushLatch;
+        private final boolean _stop;
+        private Monitor _monitor;
 
-        protected MonitorProcessBundle(Monitor monitor) {
+        private QueuedEvent(LifecyclePhase phase, Monitor monitor) {
+            _phase = phase;
             _monitor = monitor;
+            _snapshot = null;
+            _flushLatch = null;
+            _stop = false;
+        }
+
+        private QueuedEvent(LifecyclePhase phase, MonitorSnapshot snapshot) {
+            _phase = phase;
+            _snapshot = snapshot;
+            _flushLatch = null;
+            _stop = false;
+        }
+
+        private QueuedEvent(CountDownLatch flushLatch, boolean stop) {
+            _phase = null;
+            _snapshot = null;
+            _flushLatch = flushLatch;
+            _stop = stop;
+        }
+
+        // builds the serializable momento on first use; only ever called
+        // from the worker thread
+        private Monitor getMonitor() {
+            if (_monitor == null && _snapshot != null) {
+                try {
+                    _monitor = _snapshot.toSerializableMomento();
+                } catch (Throwable t) {
+                    log.warn("Throwable caught while decomposing monitor; application is unaffected: ", t);
+                }
+            }
+            return _monitor;
         }
+    }
+
+    private final class Worker implements Runnable {
+        private final List<QueuedEvent> _events = new ArrayList<QueuedEvent>();
+        private final List<Monitor> _batch = new ArrayList<Monitor>();
 
         public void run() {
-            for (Iterator i = _processors.iterator(); i.hasNext();) {
-                MonitorProcessor processor = (MonitorProcessor) i.next();
-                processWithProcessor(processor);
+            boolean stopped = false;
+            while (!stopped) {
+                try {
+                    fillBatch();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                stopped = deliver();
+                _events.clear();
+            }
+        }
+
+        private void fillBatch() throws InterruptedException {
+            int maxBatchSize = _maxBatchSize;
+            _events.add(_queue.take());
+            _queue.drainTo(_events, maxBatchSize - _events.size());
+
+            if (_maxBatchDelayMicros > 0) {
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(_maxBatchDelayMicros);
+                while (_events.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    QueuedEvent event = _queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    _events.add(event);
+                    _queue.drainTo(_events, maxBatchSize - _events.size());
+                }
+            }
+        }
+
+        // completed monitors are gathered into runs so that the relative order
+        // of lifecycle events and flush markers is preserved; returns true if
+        // a stop marker was reached
+        private boolean deliver() {
+            int pending = 0;
+            for (int i = 0; i < _events.size(); i++) {
+                if (_workerThread != Thread.currentThread()) {
+                    _batch.clear();
+                    return true;
+                }
+                QueuedEvent event = _events.get(i);
+                if (event._phase == LifecyclePhase.PROCESS) {
+                    Monitor monitor = event.getMonitor();
+                    if (monitor != null) {
+                        _batch.add(monitor);
+                    }
+                    pending++;
+                } else {
+                    deliverBatch();
+                    if (event._phase == null) {
+                        _deliveredCount.addAndGet(pending);
+                        pending = 0;
+                        event._flushLatch.countDown();
+                        if (event._stop) {
+                            return true;
+                        }
+                    } else {
+                        deliverEvent(event);
+                        pending++;
+                    }
+                }
             }
+            deliverBatch();
+            _deliveredCount.addAndGet(pending);
+            return false;
         }
 
-        protected abstract void processWithProcessor(MonitorProcessor processor);
+        private void deliverBatch() {
+            if (_batch.isEmpty()) {
+                return;
+            }
+
+            BatchMonitorProcessor[] processors = _batchProcessors;
+            for (int i = 0; i < processors.length; i++) {
+                if (!LifecyclePhase.PROCESS.isSubscribedBy(processors[i])) {
+                    continue;
+                }
+                try {
+                    processors[i].processBatch(_batch);
+                } catch (Throwable t) {
+                    log.warn("Throwable caught while processing batch of " + _batch.size() +
+                            " monitors; application is unaffected: ", t);
+                }
+            }
+            _batch.clear();
+        }
+
+        private void deliverEvent(QueuedEvent event) {
+            Monitor monitor = event.getMonitor();
+            if (monitor == null) {
+                return;
+            }
+
+            BatchMonitorProcessor[] processors = _batchProcessors;
+            for (int i = 0; i < processors.length; i++) {
+                if (!event._phase.isSubscribedBy(processors[i])) {
+                    continue;
+                }
+                try {
+                    if (event._phase == LifecyclePhase.MONITOR_CREATED) {
+                        processors[i].monitorCreated(monitor);
+                    } else {
+                        processors[i].monitorStarted(monitor);
+                    }
+                } catch (Throwable t) {
+                    log.warn("Throwable caught while processing " + monitor +
+                            "; application is unaffected: ", t);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,99 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.BatchMonitorProcessor;
+import com.orbitz.monitoring.api.LifecyclePhase;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.SubscribingMonitorProcessor;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adapts a single-event {@link MonitorProcessor} to the
+ * {@link BatchMonitorProcessor} interface. A batch is delivered by calling
+ * process() on the wrapped processor once for each monitor, in order, so
+ * existing processors keep working unchanged when attached to a processor
+ * that delivers in batches.
+ *
+ * @since 4.1
+ */
+public class BatchMonitorProcessorAdapter
+        implements BatchMonitorProcessor, SubscribingMonitorProcessor {
+
+    private final MonitorProcessor delegate;
+
+    /**
+     * Creates an adapter around the supplied processor.
+     *
+     * @param delegate the processor to deliver monitors to
+     */
+    public BatchMonitorProcessorAdapter(final MonitorProcessor delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the supplied processor as a BatchMonitorProcessor, wrapping it
+     * in an adapter only if it does not support batches itself.
+     *
+     * @param processor the processor to adapt
+     * @return a BatchMonitorProcessor that delivers to the supplied processor
+     */
+    public static BatchMonitorProcessor adapt(final MonitorProcessor processor) {
+        if (processor instanceof BatchMonitorProcessor) {
+            return (BatchMonitorProcessor) processor;
+        }
+        return new BatchMonitorProcessorAdapter(processor);
+    }
+
+    public void processBatch(final List<Monitor> monitors) {
+        for (int i = 0; i < monitors.size(); i++) {
+            delegate.process(monitors.get(i));
+        }
+    }
+
+    public void startup() {
+        delegate.startup();
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    public void monitorCreated(Monitor monitor) {
+        delegate.monitorCreated(monitor);
+    }
+
+    public void monitorStarted(Monitor monitor) {
+        delegate.monitorStarted(monitor);
+    }
+
+    public void process(Monitor monitor) {
+        delegate.process(monitor);
+    }
+
+    public String getName() {
+        return delegate.getName();
+    }
+
+    public Set<LifecyclePhase> getSubscribedPhases() {
+        if (delegate instanceof SubscribingMonitorProcessor) {
+            return ((SubscribingMonitorProcessor) delegate).getSubscribedPhases();
+        }
+        return Collections.unmodifiableSet(EnumSet.allOf(LifecyclePhase.class));
+    }
+
+    /**
+     * Gets the processor this adapter delivers to.
+     *
+     * @return the wrapped processor
+     */
+    public MonitorProcessor getDelegate() {
+        return delegate;
+    }
+}
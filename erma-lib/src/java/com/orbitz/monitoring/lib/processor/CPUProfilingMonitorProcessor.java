@@ -1,30 +1,55 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.timertask.IntervalStatsPublisher;
 import org.apache.log4j.Logger;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is an implementation of the {@link MonitorProcessor} interface that
  * uses a ThreadMXBean to determine CPU time used by the current thread within the scope
- * of a TransactionMonitor.
+ * of a TransactionMonitor.<p>
+ *
+ * When allocation tracking is enabled and the VM exposes a per-thread
+ * allocated bytes counter (com.sun.management.ThreadMXBean), the bytes
+ * allocated by the current thread within the scope of a TransactionMonitor
+ * are recorded as allocatedBytes. The allocations are also rolled up by
+ * monitor name and published as AllocationStats EventMonitors by
+ * {@link #publishIntervalStats()}.
  *
  * @author Matt O'Keefe
- * 
+ *
  * @@org.springframework.jmx.export.metadata.ManagedResource
  * (description="This MonitorProcessor can be dis/enabled.")
  */
 
 public class CPUProfilingMonitorProcessor
-        extends MonitorProcessorAdapter {
+        extends MonitorProcessorAdapter implements IntervalStatsPublisher {
 
     private static final Logger log = Logger.getLogger(CPUProfilingMonitorProcessor.class);
 
+    private static final AllocationCounter allocationCounter = AllocationCounter.create();
+
     private boolean enabled = false;
+    private boolean allocationTrackingEnabled = false;
+
+    private final ConcurrentMap<String, AllocationStats> allocationStats =
+            new ConcurrentHashMap<String, AllocationStats>();
+    private volatile long intervalStart = System.currentTimeMillis();
 
     // ** PUBLIC METHODS ******************************************************
     public void monitorStarted(Monitor monitor) {
@@ -33,6 +58,12 @@ public class CPUProfilingMonitorProcessor
             ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
             monitor.set("startCPUTime", tmxbean.getCurrentThreadCpuTime());
         }
+        if (allocationTrackingEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
+            long allocatedBytes = allocationCounter.getCurrentThreadAllocatedBytes();
+            if (allocatedBytes >= 0) {
+                monitor.set("startAllocatedBytes", allocatedBytes);
+            }
+        }
     }
 
     public void process(Monitor monitor) {
@@ -48,6 +79,62 @@ public class CPUProfilingMonitorProcessor
             }
             monitor.set("cpuTimeMillis", cpuTimeMillis);
         }
+        if (allocationTrackingEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())
+                && monitor.hasAttribute("startAllocatedBytes")) {
+            long endAllocatedBytes = allocationCounter.getCurrentThreadAllocatedBytes();
+            if (endAllocatedBytes >= 0) {
+                long allocatedBytes = endAllocatedBytes - monitor.getAsLong("startAllocatedBytes");
+                monitor.set("allocatedBytes", allocatedBytes);
+                getAllocationStats(monitor.getAsString(Attribute.NAME)).add(allocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * Gets the bytes allocated so far in the current interval by the
+     * transactions of each monitor name.
+     *
+     * @return a map of monitor name to Long allocated bytes
+     */
+    public Map getAllocatedBytesByName() {
+        Map all = new HashMap();
+        for (Iterator i = allocationStats.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            all.put(entry.getKey(), new Long(((AllocationStats) entry.getValue()).bytes.get()));
+        }
+        return all;
+    }
+
+    /**
+     * Fires an AllocationStats EventMonitor for each monitor name that
+     * completed a transaction in the interval, carrying the transaction
+     * count, total and average allocated bytes and the allocation rate in
+     * bytes per second, then starts a new interval.
+     */
+    public void publishIntervalStats() {
+        long now = System.currentTimeMillis();
+        long intervalMillis = now - intervalStart;
+        intervalStart = now;
+
+        for (Iterator i = allocationStats.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            AllocationStats stats = (AllocationStats) entry.getValue();
+            long count = stats.count.getAndSet(0);
+            long bytes = stats.bytes.getAndSet(0);
+            if (count == 0) {
+                continue;
+            }
+
+            EventMonitor monitor = new EventMonitor("AllocationStats", MonitoringLevel.ESSENTIAL);
+            monitor.set("monitorName", (String) entry.getKey());
+            monitor.set("count", count);
+            monitor.set("allocatedBytes", bytes);
+            monitor.set("averageAllocatedBytes", bytes / count);
+            if (intervalMillis > 0) {
+                monitor.set("allocatedBytesPerSecond", bytes * 1000.0 / intervalMillis);
+            }
+            monitor.fire();
+        }
     }
 
     /**
@@ -72,4 +159,117 @@ public class CPUProfilingMonitorProcessor
             log.warn("Thread CPU time monitoring is not supported by this VM");
         }
     }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="true if allocation tracking is enabled")
+     *
+     * @return boolean
+     */
+    public boolean isAllocationTrackingEnabled() {
+        return allocationTrackingEnabled;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="set to true to record allocatedBytes")
+     *
+     */
+    public void setAllocationTrackingEnabled(boolean allocationTrackingEnabled) {
+        if (allocationCounter.setEnabled(allocationTrackingEnabled)) {
+            this.allocationTrackingEnabled = allocationTrackingEnabled;
+        } else {
+            log.warn("Thread allocated memory monitoring is not supported by this VM");
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private AllocationStats getAllocationStats(String name) {
+        AllocationStats stats = allocationStats.get(name);
+        if (stats == null) {
+            AllocationStats newStats = new AllocationStats();
+            stats = allocationStats.putIfAbsent(name, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class AllocationStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private void add(long allocatedBytes) {
+            count.incrementAndGet();
+            bytes.addAndGet(allocatedBytes);
+        }
+    }
+
+    /*
+     * The per-thread allocation counter is an extension of the platform
+     * ThreadMXBean that not every VM provides, so it is looked up
+     * reflectively once. Every method degrades to a no-op when it is missing.
+     */
+    private static final class AllocationCounter {
+        private final ThreadMXBean threadBean;
+        private final Method getThreadAllocatedBytes;
+        private final Method isSupported;
+        private final Method setEnabled;
+
+        private AllocationCounter(ThreadMXBean threadBean, Method getThreadAllocatedBytes,
+                                  Method isSupported, Method setEnabled) {
+            this.threadBean = threadBean;
+            this.getThreadAllocatedBytes = getThreadAllocatedBytes;
+            this.isSupported = isSupported;
+            this.setEnabled = setEnabled;
+        }
+
+        private static AllocationCounter create() {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            try {
+                Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+                if (beanClass.isInstance(threadBean)) {
+                    return new AllocationCounter(threadBean,
+                            beanClass.getMethod("getThreadAllocatedBytes", new Class[] {long.class}),
+                            beanClass.getMethod("isThreadAllocatedMemorySupported", new Class[0]),
+                            beanClass.getMethod("setThreadAllocatedMemoryEnabled", new Class[] {boolean.class}));
+                }
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Thread allocated memory counter is not available", e);
+                }
+            }
+            return new AllocationCounter(threadBean, null, null, null);
+        }
+
+        // returns true if the counter is supported and was dis/enabled
+        private boolean setEnabled(boolean enabled) {
+            if (getThreadAllocatedBytes == null) {
+                return false;
+            }
+            try {
+                if (!((Boolean) isSupported.invoke(threadBean, new Object[0])).booleanValue()) {
+                    return false;
+                }
+                setEnabled.invoke(threadBean, new Object[] {Boolean.valueOf(enabled)});
+                return true;
+            } catch (Exception e) {
+                log.warn("Exception caught while enabling thread allocated memory monitoring", e);
+                return false;
+            }
+        }
+
+        // returns -1 if the counter is not available
+        private long getCurrentThreadAllocatedBytes() {
+            if (getThreadAllocatedBytes == null) {
+                return -1;
+            }
+            try {
+                Object[] args = new Object[] {new Long(Thread.currentThread().getId())};
+                return ((Long) getThreadAllocatedBytes.invoke(threadBean, args)).longValue();
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
 }
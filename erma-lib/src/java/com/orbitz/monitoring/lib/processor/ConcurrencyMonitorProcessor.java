@@ -2,25 +2,46 @@ package com.orbitz.monitoring.lib.processor;
 
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.timertask.IntervalStatsPublisher;
 import org.apache.log4j.Logger;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface that
- * maintains counts of concurrently executing transactions.
+ * maintains counts of concurrently executing transactions.<p>
+ *
+ * Each monitor name has its own lock-free gauge, so transactions with
+ * different names never contend with each other. Besides the current count,
+ * each gauge tracks the peak and the time-weighted average concurrency since
+ * the last call to {@link #publishIntervalStats()}, which fires one
+ * ConcurrencyStats EventMonitor per active name. Schedule it with an
+ * {@link com.orbitz.monitoring.lib.timertask.IntervalStatsTimerTask}.<p>
+ *
+ * The gauges are shared by all instances of this processor, so the
+ * interval stats of only one of them should be published.
  *
  * @author Matt O'Keefe
  */
 
 public class ConcurrencyMonitorProcessor
-        extends MonitorProcessorAdapter {
+        extends MonitorProcessorAdapter implements IntervalStatsPublisher {
 
     private static final Logger log = Logger.getLogger(ConcurrencyMonitorProcessor.class);
 
-    private static final Map map = new HashMap();
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    // shared by every instance, as the counts always have been
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
 
     private boolean isEnabled = true;
 
@@ -28,42 +49,58 @@ public class ConcurrencyMonitorProcessor
     public void monitorStarted(Monitor monitor) {
         if (isEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
             String name = monitor.getAsString(Attribute.NAME);
-            synchronized(map) {
-                Integer cnt = (Integer) map.get(name);
-                if (cnt == null) {
-                    map.put(name, new Integer(1));
-                } else {
-                    int count = cnt.intValue();
-                    map.put(name, new Integer(count+1));
+            Gauge gauge = gauges.get(name);
+            if (gauge == null) {
+                Gauge newGauge = new Gauge(now());
+                gauge = gauges.putIfAbsent(name, newGauge);
+                if (gauge == null) {
+                    gauge = newGauge;
                 }
             }
+            gauge.increment(now());
         }
     }
 
     public void process(Monitor monitor) {
         if (isEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
             String name = monitor.getAsString(Attribute.NAME);
-            synchronized(map) {
-                Integer cnt = (Integer) map.get(name);
-                if (cnt == null) {
-                    log.warn("No count available for Monitor named "+name);
-                } else {
-                    int count = cnt.intValue();
-                    map.put(name, new Integer(count-1));
-                    monitor.set("concurrencyCount", count);
-                }
+            Gauge gauge = gauges.get(name);
+            if (gauge == null) {
+                log.warn("No count available for Monitor named "+name);
+            } else {
+                monitor.set("concurrencyCount", gauge.decrement(now()));
             }
         }
     }
 
+    /**
+     * Gets the current concurrency of each monitor name. The map is built
+     * without blocking the threads being monitored.
+     *
+     * @return a map of monitor name to Integer count
+     */
     public Map getAll() {
         Map all = new HashMap();
-        synchronized (map) {
-            all.putAll(map);
+        for (Iterator i = gauges.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            all.put(entry.getKey(), new Integer(((Gauge) entry.getValue()).current.get()));
         }
         return all;
     }
 
+    /**
+     * Fires a ConcurrencyStats EventMonitor for each monitor name that was
+     * active in the interval, carrying the current, peak and time-weighted
+     * average concurrency, then starts a new interval.
+     */
+    public void publishIntervalStats() {
+        long now = now();
+        for (Iterator i = gauges.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            ((Gauge) entry.getValue()).rollover((String) entry.getKey(), now);
+        }
+    }
+
     public boolean isEnabled() {
         return isEnabled;
     }
@@ -71,4 +108,74 @@ public class ConcurrencyMonitorProcessor
     public void setEnabled(boolean enabled) {
         isEnabled = enabled;
     }
+
+    // ** PRIVATE METHODS *****************************************************
+    // microseconds since this class was loaded
+    private static long now() {
+        return (System.nanoTime() - EPOCH_NANOS) / 1000;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    /*
+     * The time-weighted average is the area under the concurrency curve
+     * divided by the length of the interval. Each transaction contributes the
+     * time it spent running inside the interval, which is the sum of the end
+     * times minus the sum of the start times of the transactions that started
+     * or ended in it, corrected for the transactions already running at the
+     * start of the interval and those still running at its end. Keeping the
+     * two sums lets every update be a single atomic add; a rollover racing
+     * with updates may misattribute a few microseconds.
+     */
+    private static final class Gauge {
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final AtomicLong startTimeSum = new AtomicLong();
+        private final AtomicLong endTimeSum = new AtomicLong();
+        // only written by the publishing thread
+        private volatile long intervalStart;
+        private volatile int currentAtIntervalStart;
+
+        private Gauge(long now) {
+            intervalStart = now;
+        }
+
+        private void increment(long now) {
+            int count = current.incrementAndGet();
+            startTimeSum.addAndGet(now);
+            int max = peak.get();
+            while (count > max && !peak.compareAndSet(max, count)) {
+                max = peak.get();
+            }
+        }
+
+        // returns the count including the ending transaction
+        private int decrement(long now) {
+            int count = current.getAndDecrement();
+            endTimeSum.addAndGet(now);
+            return count;
+        }
+
+        private void rollover(String name, long now) {
+            int count = current.get();
+            long area = endTimeSum.getAndSet(0) - startTimeSum.getAndSet(0)
+                    + (long) count * now - (long) currentAtIntervalStart * intervalStart;
+            int intervalPeak = peak.getAndSet(count);
+            long intervalMicros = now - intervalStart;
+
+            intervalStart = now;
+            currentAtIntervalStart = count;
+
+            if (intervalPeak == 0 || intervalMicros <= 0) {
+                return;
+            }
+
+            EventMonitor monitor = new EventMonitor("ConcurrencyStats", MonitoringLevel.ESSENTIAL);
+            monitor.set("monitorName", name);
+            monitor.set("concurrencyCount", count);
+            monitor.set("peakConcurrency", intervalPeak);
+            monitor.set("averageConcurrency", Math.max(0, (double) area / intervalMicros));
+            monitor.set("intervalMillis", intervalMicros / 1000);
+            monitor.fire();
+        }
+    }
 }
@@ -0,0 +1,233 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.timertask.IntervalStatsPublisher;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface that
+ * analyzes the tree of transactions below each completed root transaction.<p>
+ *
+ * For every transaction in the tree the self time is computed as its latency
+ * minus the time covered by its child transactions. The critical path is then
+ * followed back from the end of the root: at each level the child that ended
+ * last before the current point is on the path, and the time between
+ * children is attributed to the parent, so the critical path times of a tree
+ * add up to the latency of its root.<p>
+ *
+ * Self time and critical path time and frequency are summed per monitor name,
+ * and {@link #publishIntervalStats()} fires them as CriticalPathStats
+ * EventMonitors. Transactions are recognized by their start and end time
+ * attributes, so serializable momentos can be analyzed as well.
+ *
+ * @since 4.1
+ */
+public class CriticalPathMonitorProcessor extends MonitorProcessorAdapter
+        implements IntervalStatsPublisher {
+
+    private static final Logger log = Logger.getLogger(CriticalPathMonitorProcessor.class);
+
+    private static final Comparator<Monitor> BY_START_TIME = new Comparator<Monitor>() {
+        public int compare(Monitor a, Monitor b) {
+            long difference = startOf(a) - startOf(b);
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    private static final Comparator<Monitor> BY_END_TIME = new Comparator<Monitor>() {
+        public int compare(Monitor a, Monitor b) {
+            long difference = endOf(a) - endOf(b);
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    private final ConcurrentMap<String, NodeStats> stats = new ConcurrentHashMap<String, NodeStats>();
+
+    // ** PUBLIC METHODS ******************************************************
+    public void process(Monitor monitor) {
+        try {
+            if (monitor instanceof CompositeMonitor && isTransaction(monitor)
+                    && !monitor.hasAttribute(Attribute.PARENT_SEQUENCE_ID)) {
+                recordSelfTime(monitor);
+                recordCriticalPath(monitor, endOf(monitor));
+            }
+        } catch (Throwable t) {
+            log.warn("Throwable caught while analyzing " + monitor + "; application is unaffected: ", t);
+        }
+    }
+
+    /**
+     * Fires a CriticalPathStats EventMonitor for each monitor name seen in
+     * the interval, then starts a new interval. Each carries the number of
+     * transactions, their total and average self time, the share of all self
+     * time in the interval, and how often and for how long the name was on
+     * a critical path.
+     */
+    public void publishIntervalStats() {
+        List<NodeStats.Snapshot> snapshots = new ArrayList<NodeStats.Snapshot>();
+        long totalSelfTime = 0;
+        for (Iterator i = stats.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            NodeStats.Snapshot snapshot = ((NodeStats) entry.getValue()).rollover((String) entry.getKey());
+            if (snapshot.count > 0) {
+                snapshots.add(snapshot);
+                totalSelfTime += snapshot.selfTime;
+            }
+        }
+
+        for (NodeStats.Snapshot snapshot : snapshots) {
+            EventMonitor monitor = new EventMonitor("CriticalPathStats", MonitoringLevel.ESSENTIAL);
+            monitor.set("monitorName", snapshot.name);
+            monitor.set("count", snapshot.count);
+            monitor.set("selfTime", snapshot.selfTime);
+            monitor.set("averageSelfTime", (double) snapshot.selfTime / snapshot.count);
+            if (totalSelfTime > 0) {
+                monitor.set("selfTimeShare", (double) snapshot.selfTime / totalSelfTime);
+            }
+            monitor.set("criticalPathCount", snapshot.criticalPathCount);
+            monitor.set("criticalPathTime", snapshot.criticalPathTime);
+            monitor.fire();
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void recordSelfTime(Monitor node) {
+        long start = startOf(node);
+        long end = endOf(node);
+        List<Monitor> children = getChildTransactions(node);
+        Collections.sort(children, BY_START_TIME);
+
+        long covered = 0;
+        long coveredUntil = start;
+        for (Monitor child : children) {
+            long childStart = Math.max(startOf(child), coveredUntil);
+            long childEnd = Math.min(endOf(child), end);
+            if (childEnd > childStart) {
+                covered += childEnd - childStart;
+                coveredUntil = childEnd;
+            }
+            recordSelfTime(child);
+        }
+
+        getStats(node.getAsString(Attribute.NAME)).addSelfTime(Math.max(0, end - start - covered));
+    }
+
+    // walks back from the supplied point; the children of a node are
+    // sequential unless work was handed to other threads, in which case
+    // children that overlap the path so far are not on it
+    private void recordCriticalPath(Monitor node, long until) {
+        long start = startOf(node);
+        long cursor = Math.min(endOf(node), until);
+        List<Monitor> children = getChildTransactions(node);
+        Collections.sort(children, BY_END_TIME);
+
+        long own = 0;
+        for (int i = children.size() - 1; i >= 0 && cursor > start; i--) {
+            Monitor child = children.get(i);
+            long childEnd = endOf(child);
+            if (childEnd > cursor || childEnd < start) {
+                continue;
+            }
+            own += cursor - childEnd;
+            recordCriticalPath(child, childEnd);
+            cursor = Math.max(startOf(child), start);
+        }
+        own += Math.max(0, cursor - start);
+
+        getStats(node.getAsString(Attribute.NAME)).addCriticalPathTime(own);
+    }
+
+    private List<Monitor> getChildTransactions(Monitor node) {
+        List<Monitor> children = new ArrayList<Monitor>();
+        if (node instanceof CompositeMonitor) {
+            for (Iterator i = ((CompositeMonitor) node).getChildMonitors().iterator(); i.hasNext();) {
+                Monitor child = (Monitor) i.next();
+                if (isTransaction(child)) {
+                    children.add(child);
+                }
+            }
+        }
+        return children;
+    }
+
+    private NodeStats getStats(String name) {
+        NodeStats nodeStats = stats.get(name);
+        if (nodeStats == null) {
+            NodeStats newStats = new NodeStats();
+            nodeStats = stats.putIfAbsent(name, newStats);
+            if (nodeStats == null) {
+                nodeStats = newStats;
+            }
+        }
+        return nodeStats;
+    }
+
+    private static boolean isTransaction(Monitor monitor) {
+        return monitor.hasAttribute(Attribute.START_TIME) && monitor.hasAttribute(Attribute.END_TIME)
+                && monitor.get(Attribute.START_TIME) instanceof Date
+                && monitor.get(Attribute.END_TIME) instanceof Date;
+    }
+
+    private static long startOf(Monitor monitor) {
+        return ((Date) monitor.get(Attribute.START_TIME)).getTime();
+    }
+
+    private static long endOf(Monitor monitor) {
+        return ((Date) monitor.get(Attribute.END_TIME)).getTime();
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class NodeStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong selfTime = new AtomicLong();
+        private final AtomicLong criticalPathCount = new AtomicLong();
+        private final AtomicLong criticalPathTime = new AtomicLong();
+
+        private void addSelfTime(long millis) {
+            count.incrementAndGet();
+            selfTime.addAndGet(millis);
+        }
+
+        private void addCriticalPathTime(long millis) {
+            criticalPathCount.incrementAndGet();
+            criticalPathTime.addAndGet(millis);
+        }
+
+        private Snapshot rollover(String name) {
+            return new Snapshot(name, count.getAndSet(0), selfTime.getAndSet(0),
+                    criticalPathCount.getAndSet(0), criticalPathTime.getAndSet(0));
+        }
+
+        private static final class Snapshot {
+            private final String name;
+            private final long count;
+            private final long selfTime;
+            private final long criticalPathCount;
+            private final long criticalPathTime;
+
+            private Snapshot(String name, long count, long selfTime,
+                             long criticalPathCount, long criticalPathTime) {
+                this.name = name;
+                this.count = count;
+                this.selfTime = selfTime;
+                this.criticalPathCount = criticalPathCount;
+                this.criticalPathTime = criticalPathTime;
+            }
+        }
+    }
+}
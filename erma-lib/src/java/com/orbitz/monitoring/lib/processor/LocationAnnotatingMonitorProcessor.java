@@ -1,32 +1,173 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * LocationAnnotatingMonitorProcessor adds an attribute named "stackTraceElement"
  * to the given Monitor.  The attribute's value is equal to StackTraceElement.toString()
  * for the first element that appears to identify the location of the ERMA API call.
- * We use the first element whose class name starts with "com.orbitz" but not
- * "com.orbitz.monitoring".
+ * We use the first element whose class name starts with the packagePrefix
+ * (default "com.orbitz") but not the excludedPackagePrefix (default
+ * "com.orbitz.monitoring").<p>
+ *
+ * Capturing a stack trace is expensive, and most monitor names are only ever
+ * created from one place. Once the location of a monitor name has been the
+ * same for observationsBeforeCaching monitors in a row, it is reused without
+ * looking at the stack. One in every revalidationInterval monitors of that
+ * name still captures the stack, and a location that has changed goes back to
+ * being observed.
  *
  * @author Matt O'Keefe
  */
 public class LocationAnnotatingMonitorProcessor extends MonitorProcessorAdapter {
 
+    private String packagePrefix = "com.orbitz";
+    private String excludedPackagePrefix = "com.orbitz.monitoring";
+    private int observationsBeforeCaching = 3;
+    private int revalidationInterval = 1000;
+
+    private final ConcurrentMap<String, CallSite> callSites = new ConcurrentHashMap<String, CallSite>();
+
     public void monitorCreated(Monitor monitor) {
-                
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        String attributeValue = null;
-        for (StackTraceElement stackTraceElement : stackTrace) {
-            String className = stackTraceElement.getClassName();
-            if (className.startsWith("com.orbitz") && !className.startsWith("com.orbitz.monitoring")) {
-                attributeValue = stackTraceElement.toString();
-                break;
-            }
+
+        String attributeValue;
+        String name = monitor.getAsString(Attribute.NAME);
+        if (name == null || observationsBeforeCaching <= 0) {
+            attributeValue = findLocation();
+        } else {
+            attributeValue = getCallSite(name).getLocation();
         }
         if (attributeValue != null) {
             monitor.set("stackTraceElement", attributeValue);
         }
     }
 
+    public String getPackagePrefix() {
+        return packagePrefix;
+    }
+
+    /**
+     * Sets the prefix of the class names that identify application code.
+     *
+     * @param packagePrefix the package prefix, such as "com.orbitz"
+     */
+    public void setPackagePrefix(String packagePrefix) {
+        this.packagePrefix = packagePrefix;
+        callSites.clear();
+    }
+
+    public String getExcludedPackagePrefix() {
+        return excludedPackagePrefix;
+    }
+
+    /**
+     * Sets the prefix of the class names within the packagePrefix that are
+     * skipped, such as the monitoring code itself. May be null.
+     *
+     * @param excludedPackagePrefix the package prefix to skip
+     */
+    public void setExcludedPackagePrefix(String excludedPackagePrefix) {
+        this.excludedPackagePrefix = excludedPackagePrefix;
+        callSites.clear();
+    }
+
+    public int getObservationsBeforeCaching() {
+        return observationsBeforeCaching;
+    }
+
+    /**
+     * Sets how many monitors of a name in a row must share a location before
+     * it is cached. 0 disables caching.
+     *
+     * @param observationsBeforeCaching the number of agreeing observations
+     */
+    public void setObservationsBeforeCaching(int observationsBeforeCaching) {
+        this.observationsBeforeCaching = observationsBeforeCaching;
+    }
+
+    public int getRevalidationInterval() {
+        return revalidationInterval;
+    }
+
+    /**
+     * Sets how often the stack is checked for a monitor name whose location
+     * has been cached, as one in every revalidationInterval monitors.
+     *
+     * @param revalidationInterval the revalidation interval, at least 1
+     */
+    public void setRevalidationInterval(int revalidationInterval) {
+        if (revalidationInterval < 1) {
+            throw new IllegalArgumentException("revalidationInterval must be at least 1");
+        }
+        this.revalidationInterval = revalidationInterval;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private CallSite getCallSite(String name) {
+        CallSite callSite = callSites.get(name);
+        if (callSite == null) {
+            CallSite newCallSite = new CallSite();
+            callSite = callSites.putIfAbsent(name, newCallSite);
+            if (callSite == null) {
+                callSite = newCallSite;
+            }
+        }
+        return callSite;
+    }
+
+    // walks the stack of the current thread up to the first application frame
+    private String findLocation() {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        for (StackTraceElement stackTraceElement : stackTrace) {
+            String className = stackTraceElement.getClassName();
+            if (className.startsWith(packagePrefix) &&
+                    (excludedPackagePrefix == null || !className.startsWith(excludedPackagePrefix))) {
+                return stackTraceElement.toString();
+            }
+        }
+        return null;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private final class CallSite {
+        private final AtomicInteger uses = new AtomicInteger();
+        private volatile String cachedLocation;
+        // guarded by this
+        private String candidate;
+        private int agreeing;
+
+        private String getLocation() {
+            String cached = cachedLocation;
+            if (cached != null && uses.incrementAndGet() % revalidationInterval != 0) {
+                return cached;
+            }
+
+            String location = findLocation();
+            synchronized (this) {
+                if (cached != null) {
+                    if (!cached.equals(location)) {
+                        cachedLocation = null;
+                        candidate = location;
+                        agreeing = 1;
+                    }
+                } else if (location != null && location.equals(candidate)) {
+                    if (++agreeing >= observationsBeforeCaching) {
+                        cachedLocation = location;
+                    }
+                } else {
+                    candidate = location;
+                    agreeing = 1;
+                    if (location != null && observationsBeforeCaching <= 1) {
+                        cachedLocation = location;
+                    }
+                }
+            }
+            return location;
+        }
+    }
 }
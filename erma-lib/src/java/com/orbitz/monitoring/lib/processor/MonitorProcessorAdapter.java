@@ -1,19 +1,31 @@
 package com.orbitz.monitoring.lib.processor;
 
-import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.SubscribingMonitorProcessor;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * An abstract adapter class for MonitorProcessors. The methods in this class are empty. This class exists as
  * convenience for creating MonitorProcessor objects; subclass it and override what you
- * need.
+ * need.<p>
+ *
+ * Subclasses are only subscribed to the lifecycle phases whose callback
+ * methods they override, so the MonitoringEngine does not call the empty
+ * methods of this class.
  *
  * @since 3.5
  *
  * @author Matt O'Keefe
  */
-public abstract class MonitorProcessorAdapter implements MonitorProcessor {
+public abstract class MonitorProcessorAdapter implements SubscribingMonitorProcessor {
+
+    private volatile Set<LifecyclePhase> subscribedPhases;
+
     /**
      * This is a lifecycle method that a processor can use to initialize itself
      * when the MonitorProcessorFactory starts up. The processor factory passes
@@ -65,4 +77,37 @@ public abstract class MonitorProcessorAdapter implements MonitorProcessor {
     public String getName() {
         return "";
     }
+
+    /**
+     * Gets the lifecycle phases whose callback methods are overridden by this
+     * processor's class. Subclasses may override this method to declare their
+     * subscriptions explicitly.
+     *
+     * @return the subscribed phases
+     */
+    public Set<LifecyclePhase> getSubscribedPhases() {
+        if (subscribedPhases == null) {
+            Set<LifecyclePhase> phases = EnumSet.noneOf(LifecyclePhase.class);
+            if (isOverridden("monitorCreated")) {
+                phases.add(LifecyclePhase.MONITOR_CREATED);
+            }
+            if (isOverridden("monitorStarted")) {
+                phases.add(LifecyclePhase.MONITOR_STARTED);
+            }
+            if (isOverridden("process")) {
+                phases.add(LifecyclePhase.PROCESS);
+            }
+            subscribedPhases = Collections.unmodifiableSet(phases);
+        }
+        return subscribedPhases;
+    }
+
+    private boolean isOverridden(String methodName) {
+        try {
+            return getClass().getMethod(methodName, Monitor.class).getDeclaringClass()
+                    != MonitorProcessorAdapter.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
 }
@@ -0,0 +1,274 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.monitor.serializable.MonitorSnapshot;
+import com.orbitz.monitoring.lib.timertask.IntervalStatsPublisher;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This is an implementation of the {@link MonitorProcessor} interface that
+ * retains, per monitor name and interval, the slowestCount slowest and the
+ * failedCount most recently failed root transactions, and passes only those
+ * on to its processors, such as an XmlLoggingMonitorProcessor or an
+ * EventPatternLoggingMonitorProcessor, when {@link #publishIntervalStats()}
+ * ends the interval. Slowest transactions are sent slowest first, followed
+ * by the failed ones oldest first; a transaction retained for both reasons
+ * is sent once.<p>
+ *
+ * The slowest transactions are kept in a min-heap. Once it is full, a
+ * transaction is only admitted if its latency exceeds that of the fastest
+ * one retained, which is checked without locking before the tree is
+ * captured, so most transactions cost a comparison. Admitted transactions
+ * are kept as {@link MonitorSnapshot}s, and their serializable momentos are
+ * only built for those still retained when the interval ends.
+ *
+ * @since 4.1
+ */
+public class SlowestTransactionsMonitorProcessor extends MonitorProcessorAdapter
+        implements IntervalStatsPublisher {
+
+    private static final Logger log = Logger.getLogger(SlowestTransactionsMonitorProcessor.class);
+
+    private List _processors;
+    private int _slowestCount = 10;
+    private int _failedCount = 10;
+
+    private final ConcurrentMap<String, Reservoir> _reservoirs = new ConcurrentHashMap<String, Reservoir>();
+
+    public SlowestTransactionsMonitorProcessor() {
+        _processors = new LinkedList();
+    }
+
+    /**
+     * Constructor that supports DI.
+     *
+     * @param processors the processors that retained transactions are sent to
+     */
+    public SlowestTransactionsMonitorProcessor(MonitorProcessor[] processors) {
+        this();
+        if (processors != null && processors.length > 0) {
+            _processors = new LinkedList(Arrays.asList(processors));
+        }
+    }
+
+    // ** PUBLIC METHODS ******************************************************
+    public void startup() {
+        for (int i = 0; i < _processors.size(); i++) {
+            ((MonitorProcessor) _processors.get(i)).startup();
+        }
+    }
+
+    /**
+     * Sends the transactions retained so far, then shuts down the processors.
+     */
+    public void shutdown() {
+        publishIntervalStats();
+        for (int i = 0; i < _processors.size(); i++) {
+            ((MonitorProcessor) _processors.get(i)).shutdown();
+        }
+    }
+
+    public void process(Monitor monitor) {
+        if (!(monitor instanceof CompositeMonitor) || monitor.hasAttribute(Attribute.PARENT_SEQUENCE_ID)
+                || !monitor.hasAttribute(Attribute.LATENCY)) {
+            return;
+        }
+        try {
+            long latency = monitor.getAsLong(Attribute.LATENCY);
+            boolean failed = _failedCount > 0 && monitor.getAsBoolean(Attribute.FAILED, false);
+            Reservoir reservoir = getReservoir(monitor.getAsString(Attribute.NAME));
+            boolean slow = _slowestCount > 0 && reservoir.admits(latency);
+            if (slow || failed) {
+                MonitorSnapshot snapshot = MonitorSnapshot.capture(monitor);
+                if (slow) {
+                    reservoir.addSlow(latency, snapshot, _slowestCount);
+                }
+                if (failed) {
+                    reservoir.addFailed(snapshot, _failedCount);
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("Throwable caught while retaining " + monitor + "; application is unaffected: ", t);
+        }
+    }
+
+    /**
+     * Sends the transactions retained in the interval to the processors,
+     * then starts a new interval.
+     */
+    public void publishIntervalStats() {
+        for (Iterator i = _reservoirs.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            List<MonitorSnapshot> retained = ((Reservoir) entry.getValue()).rollover();
+            if (retained.isEmpty()) {
+                i.remove();
+                continue;
+            }
+            for (MonitorSnapshot snapshot : retained) {
+                Monitor momento;
+                try {
+                    momento = snapshot.toSerializableMomento();
+                } catch (Throwable t) {
+                    log.warn("Throwable caught while decomposing a retained " + entry.getKey() +
+                            " transaction; application is unaffected: ", t);
+                    continue;
+                }
+                forward(momento);
+            }
+        }
+    }
+
+    public void addMonitorProcessor(MonitorProcessor processor) {
+        _processors.add(processor);
+    }
+
+    public List getMonitorProcessors() {
+        return _processors;
+    }
+
+    public int getSlowestCount() {
+        return _slowestCount;
+    }
+
+    /**
+     * Sets how many of the slowest root transactions of each name are
+     * retained per interval. 0 retains none.
+     *
+     * @param slowestCount the number of slowest transactions
+     */
+    public void setSlowestCount(int slowestCount) {
+        if (slowestCount < 0) {
+            throw new IllegalArgumentException("slowestCount cannot be negative");
+        }
+        _slowestCount = slowestCount;
+    }
+
+    public int getFailedCount() {
+        return _failedCount;
+    }
+
+    /**
+     * Sets how many of the most recently failed root transactions of each
+     * name are retained per interval. 0 retains none.
+     *
+     * @param failedCount the number of failed transactions
+     */
+    public void setFailedCount(int failedCount) {
+        if (failedCount < 0) {
+            throw new IllegalArgumentException("failedCount cannot be negative");
+        }
+        _failedCount = failedCount;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void forward(Monitor monitor) {
+        for (int i = 0; i < _processors.size(); i++) {
+            MonitorProcessor processor = (MonitorProcessor) _processors.get(i);
+            try {
+                processor.process(monitor);
+            } catch (Throwable t) {
+                log.warn("Throwable caught while forwarding " + monitor + " to " + processor.getName() +
+                        "; application is unaffected: ", t);
+            }
+        }
+    }
+
+    private Reservoir getReservoir(String name) {
+        Reservoir reservoir = _reservoirs.get(name);
+        if (reservoir == null) {
+            Reservoir newReservoir = new Reservoir();
+            reservoir = _reservoirs.putIfAbsent(name, newReservoir);
+            if (reservoir == null) {
+                reservoir = newReservoir;
+            }
+        }
+        return reservoir;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class Reservoir {
+        // the latency to beat once the heap is full
+        private volatile long _admissionThreshold = Long.MIN_VALUE;
+        // guarded by this
+        private PriorityQueue<Retained> _slowest = new PriorityQueue<Retained>();
+        private LinkedList<MonitorSnapshot> _failed = new LinkedList<MonitorSnapshot>();
+
+        private boolean admits(long latency) {
+            return latency > _admissionThreshold;
+        }
+
+        private synchronized void addSlow(long latency, MonitorSnapshot snapshot, int capacity) {
+            if (_slowest.size() >= capacity) {
+                if (latency <= _slowest.peek().latency) {
+                    return;
+                }
+                _slowest.poll();
+            }
+            _slowest.add(new Retained(latency, snapshot));
+            _admissionThreshold = (_slowest.size() >= capacity) ? _slowest.peek().latency : Long.MIN_VALUE;
+        }
+
+        private synchronized void addFailed(MonitorSnapshot snapshot, int capacity) {
+            _failed.addLast(snapshot);
+            while (_failed.size() > capacity) {
+                _failed.removeFirst();
+            }
+        }
+
+        private List<MonitorSnapshot> rollover() {
+            PriorityQueue<Retained> slowest;
+            LinkedList<MonitorSnapshot> failed;
+            synchronized (this) {
+                slowest = _slowest;
+                failed = _failed;
+                _slowest = new PriorityQueue<Retained>();
+                _failed = new LinkedList<MonitorSnapshot>();
+                _admissionThreshold = Long.MIN_VALUE;
+            }
+
+            List<Retained> sorted = new ArrayList<Retained>(slowest);
+            Collections.sort(sorted, Collections.reverseOrder());
+            Map<MonitorSnapshot, MonitorSnapshot> seen = new IdentityHashMap<MonitorSnapshot, MonitorSnapshot>();
+            List<MonitorSnapshot> retained = new ArrayList<MonitorSnapshot>();
+            for (Retained entry : sorted) {
+                seen.put(entry.snapshot, entry.snapshot);
+                retained.add(entry.snapshot);
+            }
+            for (MonitorSnapshot snapshot : failed) {
+                if (!seen.containsKey(snapshot)) {
+                    retained.add(snapshot);
+                }
+            }
+            return retained;
+        }
+    }
+
+    private static final class Retained implements Comparable<Retained> {
+        private final long latency;
+        private final MonitorSnapshot snapshot;
+
+        private Retained(long latency, MonitorSnapshot snapshot) {
+            this.latency = latency;
+            this.snapshot = snapshot;
+        }
+
+        public int compareTo(Retained other) {
+            return latency < other.latency ? -1 : (latency > other.latency ? 1 : 0);
+        }
+    }
+}
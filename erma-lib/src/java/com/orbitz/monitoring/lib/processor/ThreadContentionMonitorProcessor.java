@@ -1,12 +1,22 @@
 package com.orbitz.monitoring.lib.processor;
 
 import org.apache.log4j.Logger;
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.timertask.IntervalStatsPublisher;
 
 import java.lang.management.ThreadMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface that
@@ -14,6 +24,14 @@ import java.lang.management.ThreadInfo;
  *
  * <br>
  * Metrics are derived from <a href="http://java.sun.com/j2se/1.5.0/docs/api/java/lang/management/ThreadInfo.html">ThreadInfo</a>.
+ * <p>
+ * Reading ThreadInfo is expensive, so only a sample of the transactions of
+ * each monitor name may be measured: a fraction of them (sampleRate) and/or
+ * at most maxSamplesPerSecond of them. Measured deltas are added to per-name
+ * totals that {@link #publishIntervalStats()} fires as ThreadContentionStats
+ * EventMonitors. Setting annotateMonitors to false stops the blockedCount,
+ * blockedTime, waitedCount and waitedTime attributes from being set on the
+ * sampled monitors themselves.
  *
  * @author Matt O'Keefe
  *
@@ -22,37 +40,72 @@ import java.lang.management.ThreadInfo;
  */
 
 public class ThreadContentionMonitorProcessor
-        extends MonitorProcessorAdapter {
+        extends MonitorProcessorAdapter implements IntervalStatsPublisher {
 
     private static final Logger log = Logger.getLogger(ThreadContentionMonitorProcessor.class);
 
+    // holds the ThreadInfo counters read when a sampled monitor started
+    private static final String START_KEY = "threadContentionStart";
+
     private boolean enabled = false;
+    private boolean annotateMonitors = true;
+    private double sampleRate = 1.0;
+    private int maxSamplesPerSecond = 0;
+
+    private final ConcurrentMap<String, ContentionStats> stats =
+            new ConcurrentHashMap<String, ContentionStats>();
 
     // ** PUBLIC METHODS ******************************************************
     public void monitorStarted(Monitor monitor) {
 
         if (enabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
-            ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
-            long id = Thread.currentThread().getId();
-            ThreadInfo threadInfo = tmxbean.getThreadInfo(id);
-            monitor.set("startBlockedCount", threadInfo.getBlockedCount());
-            monitor.set("startBlockedTime", threadInfo.getBlockedTime());
-            monitor.set("startWaitedCount", threadInfo.getWaitedCount());
-            monitor.set("startWaitedTime", threadInfo.getWaitedTime());
+            ContentionStats contentionStats = getStats(monitor.getAsString(Attribute.NAME));
+            if (contentionStats.sample(sampleRate, maxSamplesPerSecond)) {
+                ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
+                long id = Thread.currentThread().getId();
+                ThreadInfo threadInfo = tmxbean.getThreadInfo(id);
+                long[] start = new long[] {threadInfo.getBlockedCount(), threadInfo.getBlockedTime(),
+                        threadInfo.getWaitedCount(), threadInfo.getWaitedTime()};
+                monitor.set(START_KEY, start).notSerializable();
+            }
         }
     }
 
     public void process(Monitor monitor) {
 
-        if (enabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
-            TransactionMonitor transactionMonitor = (TransactionMonitor) monitor;
-            ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();            
+        if (enabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())
+                && monitor.hasAttribute(START_KEY)) {
+            long[] start = (long[]) monitor.get(START_KEY);
+            monitor.unset(START_KEY);
+
+            ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
             long id = Thread.currentThread().getId();
             ThreadInfo threadInfo = tmxbean.getThreadInfo(id);
-            transactionMonitor.set("blockedCount", threadInfo.getBlockedCount()-transactionMonitor.getAsLong("startBlockedCount"));
-            transactionMonitor.set("blockedTime", threadInfo.getBlockedTime()-transactionMonitor.getAsLong("startBlockedTime"));
-            transactionMonitor.set("waitedCount", threadInfo.getWaitedCount()-transactionMonitor.getAsLong("startWaitedCount"));
-            transactionMonitor.set("waitedTime", threadInfo.getWaitedTime()-transactionMonitor.getAsLong("startWaitedTime"));
+            long blockedCount = threadInfo.getBlockedCount() - start[0];
+            long blockedTime = threadInfo.getBlockedTime() - start[1];
+            long waitedCount = threadInfo.getWaitedCount() - start[2];
+            long waitedTime = threadInfo.getWaitedTime() - start[3];
+
+            getStats(monitor.getAsString(Attribute.NAME)).add(blockedCount, blockedTime, waitedCount, waitedTime);
+            if (annotateMonitors) {
+                monitor.set("blockedCount", blockedCount);
+                monitor.set("blockedTime", blockedTime);
+                monitor.set("waitedCount", waitedCount);
+                monitor.set("waitedTime", waitedTime);
+            }
+        }
+    }
+
+    /**
+     * Fires a ThreadContentionStats EventMonitor for each monitor name that
+     * had sampled transactions in the interval, carrying the number of
+     * transactions seen and sampled and the summed blocked and waited counts
+     * and times of the samples, then starts a new interval.
+     */
+    public void publishIntervalStats() {
+        for (Iterator i = stats.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            ((ContentionStats) entry.getValue()).rollover((String) entry.getKey());
         }
     }
 
@@ -78,4 +131,153 @@ public class ThreadContentionMonitorProcessor
             log.warn("Thread contention monitoring is not supported by this VM");
         }
     }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="true if sampled monitors are annotated with their contention deltas")
+     *
+     * @return boolean
+     */
+    public boolean isAnnotateMonitors() {
+        return annotateMonitors;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="set to false to only aggregate contention deltas")
+     *
+     */
+    public void setAnnotateMonitors(boolean annotateMonitors) {
+        this.annotateMonitors = annotateMonitors;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="the fraction of transactions per name that are measured")
+     *
+     * @return double
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="set the fraction (0.0 to 1.0) of transactions per name to measure")
+     *
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="the maximum transactions measured per second per name, 0 for no limit")
+     *
+     * @return int
+     */
+    public int getMaxSamplesPerSecond() {
+        return maxSamplesPerSecond;
+    }
+
+    /**
+     * @@org.springframework.jmx.export.metadata.ManagedAttribute (description="set the maximum transactions measured per second per name, 0 for no limit")
+     *
+     */
+    public void setMaxSamplesPerSecond(int maxSamplesPerSecond) {
+        if (maxSamplesPerSecond < 0) {
+            throw new IllegalArgumentException("maxSamplesPerSecond cannot be negative");
+        }
+        this.maxSamplesPerSecond = maxSamplesPerSecond;
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private ContentionStats getStats(String name) {
+        ContentionStats contentionStats = stats.get(name);
+        if (contentionStats == null) {
+            ContentionStats newStats = new ContentionStats();
+            contentionStats = stats.putIfAbsent(name, newStats);
+            if (contentionStats == null) {
+                contentionStats = newStats;
+            }
+        }
+        return contentionStats;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static final class ContentionStats {
+        private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        // never reset, so the sampled fraction is exact across intervals
+        private final AtomicLong seen = new AtomicLong();
+        // the earliest time the next sample is due; see sample()
+        private final AtomicLong nextSampleNanos = new AtomicLong(System.nanoTime());
+
+        private final AtomicLong transactionCount = new AtomicLong();
+        private final AtomicLong sampleCount = new AtomicLong();
+        private final AtomicLong blockedCount = new AtomicLong();
+        private final AtomicLong blockedTime = new AtomicLong();
+        private final AtomicLong waitedCount = new AtomicLong();
+        private final AtomicLong waitedTime = new AtomicLong();
+
+        /*
+         * The fraction is applied deterministically: the nth transaction is
+         * sampled when n * rate crosses an integer. The rate limit is a token
+         * bucket holding up to one second of samples, kept as the time at
+         * which the next sample is due so that it can be updated with a
+         * single compare-and-set.
+         */
+        private boolean sample(double rate, int maxPerSecond) {
+            transactionCount.incrementAndGet();
+            if (rate < 1) {
+                long n = seen.getAndIncrement();
+                if ((long) ((n + 1) * rate) == (long) (n * rate)) {
+                    return false;
+                }
+            }
+            if (maxPerSecond > 0) {
+                long interval = ONE_SECOND_NANOS / maxPerSecond;
+                long now = System.nanoTime();
+                while (true) {
+                    long due = nextSampleNanos.get();
+                    if (due - now > ONE_SECOND_NANOS - interval) {
+                        return false;
+                    }
+                    long next = Math.max(due, now) + interval;
+                    if (nextSampleNanos.compareAndSet(due, next)) {
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void add(long blocked, long blockedMillis, long waited, long waitedMillis) {
+            sampleCount.incrementAndGet();
+            blockedCount.addAndGet(blocked);
+            blockedTime.addAndGet(blockedMillis);
+            waitedCount.addAndGet(waited);
+            waitedTime.addAndGet(waitedMillis);
+        }
+
+        private void rollover(String name) {
+            long transactions = transactionCount.getAndSet(0);
+            long samples = sampleCount.getAndSet(0);
+            long blocked = blockedCount.getAndSet(0);
+            long blockedMillis = blockedTime.getAndSet(0);
+            long waited = waitedCount.getAndSet(0);
+            long waitedMillis = waitedTime.getAndSet(0);
+            if (samples == 0) {
+                return;
+            }
+
+            EventMonitor monitor = new EventMonitor("ThreadContentionStats", MonitoringLevel.ESSENTIAL);
+            monitor.set("monitorName", name);
+            monitor.set("transactionCount", transactions);
+            monitor.set("sampleCount", samples);
+            monitor.set("blockedCount", blocked);
+            monitor.set("blockedTime", blockedMillis);
+            monitor.set("waitedCount", waited);
+            monitor.set("waitedTime", waitedMillis);
+            monitor.fire();
+        }
+    }
 }
@@ -3,7 +3,8 @@ package com.orbitz.monitoring.lib.renderer;
 import com.orbitz.monitoring.api.CompositeMonitor;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.Attribute;
-import org.apache.commons.beanutils.LazyDynaBean;
+import com.orbitz.monitoring.lib.decomposer.DecomposedThrowable;
+import org.apache.commons.beanutils.DynaBean;
 import org.apache.log4j.Logger;
 
 import java.util.Collection;
@@ -131,16 +132,19 @@ public class EventPatternMonitorRenderer {
                 }
             }
             buffer.append(t.getClass().getName());
-        } else if (LazyDynaBean.class.isAssignableFrom(o.getClass())) {
-            // serialized monitors will have throwableFailure fields that are decomposed
-            // into LazyDynaBean classes by the ReflectiveDecomposer, in other words this
+        } else if (o instanceof DecomposedThrowable) {
+            // the compact form that the AttributeDecomposer gives throwables
+            buffer.append(((DecomposedThrowable) o).getRootCause().getClassName());
+        } else if (DynaBean.class.isAssignableFrom(o.getClass())) {
+            // monitors serialized by older versions will have throwableFailure fields that
+            // are decomposed into DynaBeans by the ReflectiveDecomposer, in other words this
             // block will handle Throwable's created in remote VM's
-            LazyDynaBean ex = (LazyDynaBean) o;
+            DynaBean ex = (DynaBean) o;
             HashSet causeSet = new HashSet();
             causeSet.add(ex);
-            while ((ex.get("cause") != null) && (LazyDynaBean.class.isAssignableFrom(ex.get("cause").getClass()))) {
+            while ((ex.get("cause") != null) && (DynaBean.class.isAssignableFrom(ex.get("cause").getClass()))) {
                 if(!causeSet.contains(ex.get("cause"))) {
-                    ex = (LazyDynaBean) ex.get("cause");
+                    ex = (DynaBean) ex.get("cause");
                     causeSet.add(ex);
                 } else {
                     logger.warn("Unexpected cycle for failureThrowable field");
@@ -230,13 +234,13 @@ public class EventPatternMonitorRenderer {
     }
 
     // used to format dynabeans into a standard stack trace
-    private String formatThrowable(LazyDynaBean ex) {
+    private String formatThrowable(DynaBean ex) {
         final StringBuffer sb = new StringBuffer();
         final Object exceptionClass = (ex.get("class") == null) ? "(Unknown Exception)" : ex.get("class");
         sb.append(exceptionClass).append(": ").append(ex.get("message"));
         final Object trace[] = (Object[]) ex.get("stackTrace");
         for (int i = 0; i < trace.length; i++) {
-            final LazyDynaBean bean = (LazyDynaBean) trace[i];
+            final DynaBean bean = (DynaBean) trace[i];
             final Object nativeMethod = bean.get("nativeMethod");
             final Object lineNumber = bean.get("lineNumber");
 
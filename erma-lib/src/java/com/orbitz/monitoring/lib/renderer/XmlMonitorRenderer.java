@@ -2,6 +2,7 @@ package com.orbitz.monitoring.lib.renderer;
 
 import com.orbitz.monitoring.api.CompositeMonitor;
 import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.lib.decomposer.DecomposedThrowable;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import com.thoughtworks.xstream.io.xml.CompactWriter;
@@ -151,8 +152,11 @@ public class XmlMonitorRenderer {
                 if (attributeValue == null) {
                     writer.addAttribute(attributeName, "null");
                 } else {
-                    if (attributeValue.indexOf("LazyDynaBean") > -1) {
-                        DynaBean dynaBean = (DynaBean) monitor.get(attributeName);
+                    Object value = monitor.get(attributeName);
+                    if (value instanceof DecomposedThrowable) {
+                        attributeValue = ((DecomposedThrowable) value).getClassName();
+                    } else if (value instanceof DynaBean) {
+                        DynaBean dynaBean = (DynaBean) value;
                         Object clazz = dynaBean.get("class");
                         if (clazz != null) {
                             attributeValue = clazz.toString();
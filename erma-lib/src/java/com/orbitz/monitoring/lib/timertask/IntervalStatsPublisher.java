@@ -0,0 +1,17 @@
+package com.orbitz.monitoring.lib.timertask;
+
+/**
+ * Implemented by components that accumulate statistics over an interval and
+ * publish them as monitors when the interval is rolled over. Instances are
+ * scheduled through an {@link IntervalStatsTimerTask}.
+ *
+ * @since 4.1
+ */
+public interface IntervalStatsPublisher {
+
+    /**
+     * Publishes the statistics gathered since the previous call and starts a
+     * new interval.
+     */
+    public void publishIntervalStats();
+}
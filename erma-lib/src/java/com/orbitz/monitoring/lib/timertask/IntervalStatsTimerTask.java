@@ -0,0 +1,40 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Timer task that rolls over the interval of an {@link IntervalStatsPublisher}
+ * each time it is run. The task is typically registered in the timer tasks map
+ * of the BaseMonitoringEngineManager under the desired interval.
+ *
+ * @since 4.1
+ */
+public class IntervalStatsTimerTask implements Runnable {
+
+    private static final Logger log = Logger.getLogger(IntervalStatsTimerTask.class);
+
+    private final IntervalStatsPublisher publisher;
+
+    /**
+     * Creates a task that publishes the supplied publisher's statistics.
+     *
+     * @param publisher the publisher to roll over
+     */
+    public IntervalStatsTimerTask(final IntervalStatsPublisher publisher) {
+        if (publisher == null) {
+            throw new IllegalArgumentException("publisher cannot be null");
+        }
+        this.publisher = publisher;
+    }
+
+    /**
+     * Implementaion of {@link java.lang.Runnable#run}.
+     */
+    public void run() {
+        try {
+            publisher.publishIntervalStats();
+        } catch (Throwable t) {
+            log.warn("Throwable caught while publishing interval stats; application is unaffected: ", t);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Unit tests for the HyperLogLog.
+ */
+public class HyperLogLogTest extends TestCase {
+
+    public void testEmpty() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    public void testSmallCardinalities() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 10; i++) {
+                sketch.offer("customer" + i);
+            }
+        }
+        sketch.offer(null);
+        assertEquals(10, sketch.estimate());
+    }
+
+    public void testLargeCardinality() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long i = 0; i < 100000; i++) {
+            sketch.offer(new Long(i));
+            sketch.offer(new Long(i));
+        }
+        assertWithin(100000, sketch.estimate(), 0.05);
+    }
+
+    public void testMerge() throws Exception {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 30000; i++) {
+            first.offer("session" + i);
+        }
+        for (int i = 20000; i < 50000; i++) {
+            second.offer("session" + i);
+        }
+
+        HyperLogLog merged = new HyperLogLog();
+        merged.add(first);
+        merged.add(copy(second));
+        assertWithin(50000, merged.estimate(), 0.05);
+    }
+
+    public void testContentsAreHashed() {
+        HyperLogLog sketch = new HyperLogLog();
+        sketch.offer(new String("hotel1"));
+        sketch.offer(new StringBuffer("hotel1").toString());
+        sketch.offer(new Integer(7));
+        sketch.offer(new Long(7));
+        assertEquals(2, sketch.estimate());
+    }
+
+    public void testPrecisionMismatch() {
+        try {
+            new HyperLogLog(12).add(new HyperLogLog(10));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertWithin(long expected, long actual, double error) {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected * error);
+    }
+
+    private static HyperLogLog copy(HyperLogLog sketch) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(sketch);
+        out.close();
+        return (HyperLogLog) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+}
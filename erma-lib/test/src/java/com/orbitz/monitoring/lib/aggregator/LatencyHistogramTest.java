@@ -0,0 +1,112 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Unit tests for the LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getValueAtPercentile(50));
+        assertEquals(-1, histogram.getMaxNanos());
+        assertNull(histogram.getExemplar());
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i, null);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(55, histogram.getTotalNanos());
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(9, histogram.getValueAtPercentile(90));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+    }
+
+    public void testRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1000; value <= 100000000000L; value *= 3) {
+            histogram.reset();
+            histogram.record(value, null);
+            histogram.record(value * 2, null);
+            long reported = histogram.getValueAtPercentile(50);
+            assertTrue(value + " reported as " + reported,
+                    Math.abs(reported - value) <= value / 64 + 1);
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000, null);
+        }
+        assertWithin(5000000, histogram.getValueAtPercentile(50));
+        assertWithin(9000000, histogram.getValueAtPercentile(90));
+        assertWithin(9900000, histogram.getValueAtPercentile(99));
+        assertWithin(9990000, histogram.getValueAtPercentile(99.9));
+        assertEquals(10000000, histogram.getMaxNanos());
+    }
+
+    public void testExemplarOfSlowest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100, "a");
+        histogram.record(300, "b");
+        histogram.record(200, "c");
+        assertEquals(300, histogram.getMaxNanos());
+        assertEquals("b", histogram.getExemplar());
+    }
+
+    public void testMerge() throws Exception {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            LatencyHistogram target = (i % 3 == 0) ? first : second;
+            target.record(i * 7919, "s" + i);
+            all.record(i * 7919, "s" + i);
+        }
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(first);
+        merged.add(copy(second));
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getTotalNanos(), merged.getTotalNanos());
+        assertEquals("s1000", merged.getExemplar());
+        double[] percentiles = new double[] {0, 50, 90, 99, 99.9, 100};
+        for (int i = 0; i < percentiles.length; i++) {
+            assertEquals(all.getValueAtPercentile(percentiles[i]), merged.getValueAtPercentile(percentiles[i]));
+        }
+    }
+
+    public void testLargeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE, null);
+        histogram.record(-5, null);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertTrue(histogram.getValueAtPercentile(100) >= LatencyHistogram.MAX_VALUE / 2);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected / 64 + 1);
+    }
+
+    private static LatencyHistogram copy(LatencyHistogram histogram) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(histogram);
+        out.close();
+        return (LatencyHistogram) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+}
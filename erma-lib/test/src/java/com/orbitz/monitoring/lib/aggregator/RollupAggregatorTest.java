@@ -0,0 +1,288 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for the RollupAggregator.
+ */
+public class RollupAggregatorTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private RollupAggregator _aggregator;
+    private MockMonitorProcessor _mockProcessor;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _aggregator = new RollupAggregator();
+        _aggregator.setBucketMillis(0);
+        _mockProcessor = new MockMonitorProcessor();
+        MonitoringEngine.getInstance().setProcessorFactory(new MockMonitorProcessorFactory(_mockProcessor));
+        MonitoringEngine.getInstance().setDecomposer(new MockDecomposer());
+        MonitoringEngine.getInstance().setInheritableStrategy(new StackBasedInheritableStrategy());
+        MonitoringEngine.getInstance().startup();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        super.tearDown();
+
+        MonitoringEngine.getInstance().shutdown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testRollup() {
+        _aggregator.aggregate(monitor("a", 10, false));
+        _aggregator.aggregate(monitor("a", 30, true));
+        _aggregator.aggregate(monitor("a", 20, false));
+        _aggregator.aggregate(monitor("b", -1, false));
+        _mockProcessor.clear();
+
+        Map rollups = flush();
+        assertEquals(2, rollups.size());
+
+        Monitor a = (Monitor) rollups.get("a");
+        assertTrue(a.getAsBoolean(Attribute.AGGREGATED));
+        assertEquals(3, a.getAsLong("count"));
+        assertEquals(1, a.getAsLong("failureCount"));
+        assertEquals(3, a.getAsLong("latencyCount"));
+        assertEquals(60, a.getAsLong("latencySum"));
+        assertEquals(10, a.getAsLong("latencyMin"));
+        assertEquals(30, a.getAsLong("latencyMax"));
+        assertEquals(20.0, a.getAsDouble("latencyAverage"), 0.001);
+
+        Monitor b = (Monitor) rollups.get("b");
+        assertEquals(1, b.getAsLong("count"));
+        assertEquals(0, b.getAsLong("failureCount"));
+        assertFalse(b.hasAttribute("latencyCount"));
+    }
+
+    public void testBucketsAreIndependent() {
+        _aggregator.aggregate(monitor("a", 50, false));
+        _mockProcessor.clear();
+        assertEquals(1, flush().size());
+
+        _aggregator.aggregate(monitor("a", 5, false));
+        _mockProcessor.clear();
+        Monitor a = (Monitor) flush().get("a");
+        assertEquals(1, a.getAsLong("count"));
+        assertEquals(5, a.getAsLong("latencyMin"));
+        assertEquals(5, a.getAsLong("latencyMax"));
+
+        assertEquals(0, flush().size());
+    }
+
+    public void testRollupsAreNotAggregated() {
+        _aggregator.aggregate(monitor("a", 1, false));
+        _mockProcessor.clear();
+        Monitor rollup = (Monitor) flush().get("a");
+
+        _aggregator.aggregate(rollup);
+        assertEquals(0, flush().size());
+    }
+
+    public void testLatencyHistogram() {
+        _aggregator.setLatencyHistogramEnabled(true);
+        Monitor slowest = null;
+        for (int i = 1; i <= 100; i++) {
+            slowest = monitor("a", i, false);
+            _aggregator.aggregate(slowest);
+        }
+        TransactionMonitor transaction = new TransactionMonitor("a");
+        transaction.done();
+        _aggregator.aggregate(transaction);
+        _mockProcessor.clear();
+
+        Monitor a = (Monitor) flush().get("a");
+        assertEquals(101, a.getAsLong("count"));
+        assertEquals(50.0, a.getAsDouble("latencyP50"), 1.0);
+        assertEquals(90.0, a.getAsDouble("latencyP90"), 2.0);
+        assertEquals(99.0, a.getAsDouble("latencyP99"), 2.0);
+        assertEquals(slowest.getAsString(Attribute.SEQUENCE_ID), a.getAsString("latencyExemplar"));
+        assertEquals(101, ((LatencyHistogram) a.get("latencyHistogram")).getCount());
+        assertTrue(a.getAllSerializable().containsKey("latencyHistogram"));
+    }
+
+    public void testDimensions() {
+        List<String> dimensions = new ArrayList<String>();
+        dimensions.add("resultCode");
+        dimensions.add("host, failed");
+        _aggregator.setDimensions(dimensions);
+        assertEquals("host,failed", _aggregator.getDimensions().get(1));
+
+        aggregate("a", "OK", "h1", false);
+        aggregate("a", "OK", "h1", false);
+        aggregate("a", "ERROR", "h1", true);
+        aggregate("a", null, "h2", false);
+        _mockProcessor.clear();
+
+        _aggregator.flush();
+        Monitor[] monitors = _mockProcessor.extractProcessObjects();
+        assertEquals(1 + 3 + 3, monitors.length);
+
+        Map counts = new HashMap();
+        for (int i = 0; i < monitors.length; i++) {
+            Monitor rollup = monitors[i];
+            assertEquals("a", rollup.getAsString("monitorName"));
+            String key = rollup.hasAttribute("dimensions") ? rollup.getAsString("dimensions") : "";
+            if (rollup.hasAttribute("resultCode")) {
+                key += "/" + rollup.get("resultCode");
+            }
+            if (rollup.hasAttribute("host")) {
+                key += "/" + rollup.get("host") + "/" + rollup.get("failed");
+            }
+            counts.put(key, new Long(rollup.getAsLong("count")));
+        }
+        assertEquals(new Long(4), counts.get(""));
+        assertEquals(new Long(2), counts.get("resultCode/OK"));
+        assertEquals(new Long(1), counts.get("resultCode/ERROR"));
+        assertEquals(new Long(1), counts.get("resultCode"));
+        assertEquals(new Long(2), counts.get("host,failed/h1/false"));
+        assertEquals(new Long(1), counts.get("host,failed/h1/true"));
+        assertEquals(new Long(1), counts.get("host,failed/h2/false"));
+    }
+
+    public void testCardinalityCap() {
+        List<String> dimensions = new ArrayList<String>();
+        dimensions.add("resultCode");
+        _aggregator.setDimensions(dimensions);
+        _aggregator.setMaxCardinalityPerName(2);
+
+        for (int i = 0; i < 10; i++) {
+            aggregate("a", "code" + i, "h", false);
+        }
+        aggregate("a", "code0", "h", false);
+        _mockProcessor.clear();
+
+        _aggregator.flush();
+        Monitor[] monitors = _mockProcessor.extractProcessObjects();
+        assertEquals(1 + 2 + 1, monitors.length);
+        long overflowCount = 0;
+        long dimensionCount = 0;
+        for (int i = 0; i < monitors.length; i++) {
+            if (monitors[i].hasAttribute("dimensionOverflow")) {
+                overflowCount += monitors[i].getAsLong("count");
+                assertFalse(monitors[i].hasAttribute("resultCode"));
+            } else if (monitors[i].hasAttribute("dimensions")) {
+                dimensionCount += monitors[i].getAsLong("count");
+            }
+        }
+        assertEquals(3, dimensionCount);
+        assertEquals(8, overflowCount);
+
+        // combinations idle for a whole bucket give up their place
+        _aggregator.flush();
+        _aggregator.flush();
+        aggregate("a", "code5", "h", false);
+        _mockProcessor.clear();
+        _aggregator.flush();
+        monitors = _mockProcessor.extractProcessObjects();
+        assertEquals(2, monitors.length);
+        Monitor dimension = monitors[0].hasAttribute("dimensions") ? monitors[0] : monitors[1];
+        assertEquals("code5", dimension.getAsString("resultCode"));
+    }
+
+    public void testDistinctCount() {
+        _aggregator.setDistinctCountAttribute("customerId");
+        for (int i = 0; i < 100; i++) {
+            Monitor monitor = monitor("a", 1, false);
+            monitor.set("customerId", "c" + (i % 25));
+            _aggregator.aggregate(monitor);
+        }
+        _aggregator.aggregate(monitor("a", 1, false));
+        _mockProcessor.clear();
+
+        Monitor a = (Monitor) flush().get("a");
+        assertEquals(101, a.getAsLong("count"));
+        assertEquals("customerId", a.getAsString("distinctCountAttribute"));
+        assertEquals(25, a.getAsLong("distinctCount"));
+        assertEquals(25, ((HyperLogLog) a.get("distinctCountSketch")).estimate());
+
+        _aggregator.aggregate(monitor("a", 1, false));
+        _mockProcessor.clear();
+        assertEquals(0, ((Monitor) flush().get("a")).getAsLong("distinctCount"));
+    }
+
+    public void testConcurrentAggregation() throws Exception {
+        final int threads = 4;
+        final int perThread = 5000;
+        final Monitor monitor = monitor("concurrent", 2, false);
+        _mockProcessor.clear();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        _aggregator.aggregate(monitor);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long count = 0;
+        long latencySum = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (int i = 0; i < threads; i++) {
+                running |= workers[i].isAlive();
+            }
+            Monitor rollup = (Monitor) flush().get("concurrent");
+            if (rollup != null) {
+                count += rollup.getAsLong("count");
+                latencySum += rollup.getAsLong("latencySum");
+            }
+        }
+
+        assertEquals(threads * perThread, count);
+        assertEquals(2L * threads * perThread, latencySum);
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor monitor(String name, long latency, boolean failed) {
+        Monitor monitor = new EventMonitor(name);
+        if (latency >= 0) {
+            monitor.set(Attribute.LATENCY, latency);
+        }
+        monitor.set(Attribute.FAILED, failed);
+        return monitor;
+    }
+
+    private void aggregate(String name, String resultCode, String host, boolean failed) {
+        Monitor monitor = monitor(name, 1, failed);
+        if (resultCode != null) {
+            monitor.set("resultCode", resultCode);
+        }
+        monitor.set("host", host);
+        _aggregator.aggregate(monitor);
+    }
+
+    private Map flush() {
+        _aggregator.flush();
+        Map rollups = new HashMap();
+        Monitor[] monitors = _mockProcessor.extractProcessObjects();
+        for (int i = 0; i < monitors.length; i++) {
+            if ("MonitorRollup".equals(monitors[i].getAsString(Attribute.NAME))) {
+                rollups.put(monitors[i].getAsString("monitorName"), monitors[i]);
+            }
+        }
+        return rollups;
+    }
+}
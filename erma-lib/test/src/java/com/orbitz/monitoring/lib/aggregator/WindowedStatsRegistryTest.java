@@ -0,0 +1,138 @@
+package com.orbitz.monitoring.lib.aggregator;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Unit tests for the WindowedStatsRegistry.
+ */
+public class WindowedStatsRegistryTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private WindowedStatsRegistry _registry;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _registry = new WindowedStatsRegistry();
+        _registry.setMBeanDomain("test.windowed");
+        MonitoringEngine.getInstance().setProcessorFactory(new MockMonitorProcessorFactory(new MockMonitorProcessor()));
+        MonitoringEngine.getInstance().setDecomposer(new MockDecomposer());
+        MonitoringEngine.getInstance().startup();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        super.tearDown();
+
+        _registry.shutdown();
+        MonitoringEngine.getInstance().shutdown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testCountsAndRates() {
+        for (int i = 0; i < 10; i++) {
+            _registry.aggregate(monitor("a", 5, i < 2));
+        }
+        _registry.aggregate(monitor("b", -1, false));
+
+        WindowedStats a = _registry.getStats("a");
+        assertEquals(10, a.getCount());
+        assertEquals(2, a.getFailureCount());
+        assertEquals(0.0, a.getOneMinuteRate(), 0.0);
+
+        a.tick();
+        assertEquals(2.0, a.getOneMinuteRate(), 0.0001);
+        assertEquals(2.0, a.getFifteenMinuteRate(), 0.0001);
+        assertEquals(0.4, a.getOneMinuteFailureRate(), 0.0001);
+
+        a.tick();
+        assertTrue("1m s/b decaying faster", a.getOneMinuteRate() < a.getFiveMinuteRate());
+        assertTrue(a.getFiveMinuteRate() < a.getFifteenMinuteRate());
+
+        assertEquals(1, _registry.getStats("b").getCount());
+        assertNull(_registry.getStats("c"));
+        assertEquals(2, _registry.getNames().length);
+    }
+
+    public void testPercentiles() {
+        assertEquals(-1.0, new WindowedStats("empty", 60000).getLatencyP50(), 0.0);
+
+        for (int i = 1; i <= 100; i++) {
+            _registry.aggregate(monitor("a", i, false));
+        }
+        WindowedStats a = _registry.getStats("a");
+        assertEquals(50.0, a.getLatencyP50(), 2.0);
+        assertEquals(99.0, a.getLatencyP99(), 4.0);
+        assertEquals(100, a.getWindowHistogram().getCount());
+    }
+
+    public void testIgnoresAggregated() {
+        Monitor monitor = monitor("a", 1, false);
+        monitor.set(Attribute.AGGREGATED, true);
+        _registry.aggregate(monitor);
+
+        assertNull(_registry.getStats("a"));
+    }
+
+    public void testNamesOverMaxNamesOverflow() {
+        _registry.setMaxNames(2);
+        _registry.aggregate(monitor("a", 1, false));
+        _registry.aggregate(monitor("b", 1, false));
+        _registry.aggregate(monitor("c", 1, false));
+        _registry.aggregate(monitor("d", 1, true));
+        _registry.aggregate(monitor("a", 1, false));
+
+        assertEquals(2, _registry.getStats("a").getCount());
+        assertNull(_registry.getStats("c"));
+        WindowedStats overflow = _registry.getStats(WindowedStatsRegistry.OVERFLOW_NAME);
+        assertEquals(2, overflow.getCount());
+        assertEquals(1, overflow.getFailureCount());
+        assertEquals(2, _registry.getOverflowCount());
+        assertEquals(3, _registry.getNames().length);
+    }
+
+    public void testMBeans()
+            throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName registryName = new ObjectName("test.windowed:type=WindowedStatsRegistry");
+        ObjectName aName = new ObjectName("test.windowed:type=WindowedStats,name=" + ObjectName.quote("a"));
+        ObjectName bName = new ObjectName("test.windowed:type=WindowedStats,name=" + ObjectName.quote("b:c"));
+
+        _registry.aggregate(monitor("a", 1, false));
+        assertFalse(server.isRegistered(registryName));
+
+        _registry.startup();
+        _registry.aggregate(monitor("b:c", 1, true));
+        assertTrue(server.isRegistered(registryName));
+        assertEquals(new Long(1), server.getAttribute(aName, "Count"));
+        assertEquals(new Long(1), server.getAttribute(bName, "FailureCount"));
+        assertEquals(2, ((String[]) server.getAttribute(registryName, "Names")).length);
+
+        _registry.shutdown();
+        assertFalse(server.isRegistered(registryName));
+        assertFalse(server.isRegistered(aName));
+        assertFalse(server.isRegistered(bName));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor monitor(String name, long latency, boolean failed) {
+        Monitor monitor = new EventMonitor(name);
+        if (latency >= 0) {
+            monitor.set(Attribute.LATENCY, latency);
+        }
+        monitor.set(Attribute.FAILED, failed);
+        return monitor;
+    }
+}
@@ -1,5 +1,6 @@
 package com.orbitz.monitoring.lib.decomposer;
 
+import com.orbitz.monitoring.api.annotation.ImmutableValue;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.AttributeMap;
 import com.orbitz.monitoring.api.monitor.AttributeHolder;
@@ -10,9 +11,13 @@ import org.apache.commons.beanutils.LazyDynaBean;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -236,8 +241,209 @@ public class AttributeDecomposerTest extends TestCase {
         m.set("a", _decomposer.decompose(a1));
     }
 
+    public void testImmutableLeavesAreReturned() {
+        String string = new String("foo");
+        Long number = new Long(12345);
+        Date date = new Date();
+
+        assertSame(string, _decomposer.decompose(string));
+        assertSame(number, _decomposer.decompose(number));
+        assertSame(date, _decomposer.decompose(date));
+        assertNull(_decomposer.decompose(null));
+    }
+
+    public void testStepResolutionIsShared() {
+        BaseAttributeDecomposer registry = BaseAttributeDecomposer.getInstance();
+        assertSame(registry, BaseAttributeDecomposer.getInstance());
+
+        AttributeDecomposer.Step listStep = registry.getStep(ArrayList.class);
+        assertTrue(listStep instanceof ListDecomposer);
+        assertSame(listStep, registry.getStep(LinkedList.class));
+        assertTrue(registry.getStep(String[].class) instanceof ArrayDecomposer);
+        assertTrue(registry.getStep(Node.class) instanceof ReflectiveDecomposer);
+        assertTrue(registry.getStep(Timestamp.class) instanceof IdentityDecomposer);
+    }
+
+    public void testNestedHolders() {
+        AttributeHolder holder = new AttributeHolder(new AttributeHolder(new StringBuffer("abc")));
+
+        AttributeHolder decomposed = (AttributeHolder) _decomposer.decompose(holder);
+        assertEquals("abc", ((AttributeHolder) decomposed.getValue()).getValue());
+    }
+
+    public void testHoldersKeepTheirFlags() {
+        CompositeAttributeHolder holder = new CompositeAttributeHolder(new StringBuffer("abc"), true);
+        holder.serializable().lock();
+
+        CompositeAttributeHolder decomposed = (CompositeAttributeHolder) _decomposer.decompose(holder);
+        assertEquals("abc", decomposed.getValue());
+        assertTrue(decomposed.isInheritable());
+        assertTrue(decomposed.isSerializable());
+        assertTrue(decomposed.isLocked());
+
+        AttributeHolder plain = (AttributeHolder) _decomposer.decompose(new AttributeHolder("xyz"));
+        assertFalse(plain instanceof CompositeAttributeHolder);
+        assertFalse(plain.isSerializable());
+        assertFalse(plain.isLocked());
+    }
+
+    public void testMaxCollectionSize() {
+        _decomposer.setMaxCollectionSize(3);
+        List list = new ArrayList();
+        for (int i = 0; i < 5; i++) {
+            list.add(new Integer(i));
+        }
+        Map map = new HashMap();
+        map.put("big", list);
+        map.put("small", new ArrayList(list.subList(0, 3)));
+
+        Map decomposed = (Map) _decomposer.decompose(map);
+        TruncatedValue big = (TruncatedValue) decomposed.get("big");
+        assertEquals(TruncatedValue.Reason.SIZE, big.getReason());
+        assertEquals(5, big.getOriginalSize());
+        assertEquals(ArrayList.class.getName(), big.getClassName());
+        assertEquals(3, ((List) decomposed.get("small")).size());
+        assertEquals(1, _decomposer.getSizeTruncations());
+    }
+
+    public void testMaxDepth() {
+        _decomposer.setMaxDepth(2);
+        List inner = new ArrayList();
+        inner.add("deep");
+        List middle = new ArrayList();
+        middle.add(inner);
+        middle.add("shallow");
+        List outer = new ArrayList();
+        outer.add(middle);
+
+        AttributeHolder decomposed = (AttributeHolder) _decomposer.decompose(new AttributeHolder(outer));
+        List decomposedMiddle = (List) ((List) decomposed.getValue()).get(0);
+        assertEquals(TruncatedValue.Reason.DEPTH, ((TruncatedValue) decomposedMiddle.get(0)).getReason());
+        assertEquals("shallow", decomposedMiddle.get(1));
+        assertEquals(1, _decomposer.getDepthTruncations());
+    }
+
+    public void testMaxNodes() {
+        _decomposer.setMaxNodes(3);
+        List list = new ArrayList();
+        list.add("a");
+        list.add("b");
+        list.add("c");
+
+        List decomposed = (List) _decomposer.decompose(list);
+        assertEquals("a", decomposed.get(0));
+        assertEquals("b", decomposed.get(1));
+        assertEquals(TruncatedValue.Reason.NODES, ((TruncatedValue) decomposed.get(2)).getReason());
+        assertEquals(1, _decomposer.getNodeTruncations());
+
+        // each call has its own budget
+        assertEquals("b", ((List) _decomposer.decompose(list)).get(1));
+    }
+
+    public void testMaxStringLength() {
+        _decomposer.setMaxStringLength(4);
+
+        TruncatedValue truncated = (TruncatedValue) _decomposer.decompose("abcdefgh");
+        assertEquals("abcd", truncated.getPrefix());
+        assertEquals(8, truncated.getOriginalSize());
+        assertEquals("abcd...(truncated from 8 characters)", truncated.toString());
+        assertEquals("abcd", _decomposer.decompose("abcd"));
+
+        AttributeHolder holder = (AttributeHolder) _decomposer.decompose(new AttributeHolder(new StringBuffer("abcdef")));
+        assertEquals("abcd", ((TruncatedValue) holder.getValue()).getPrefix());
+        assertEquals(2, _decomposer.getLengthTruncations());
+    }
+
+    public void testBudgetsAreUnlimitedByDefault() {
+        List list = new ArrayList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(String.valueOf(i));
+        }
+
+        assertEquals(1000, ((List) _decomposer.decompose(list)).size());
+        assertEquals(0, _decomposer.getSizeTruncations() + _decomposer.getNodeTruncations());
+    }
+
+    public void testIdentityCacheIsDisabledByDefault() {
+        Settings settings = new Settings("foo");
+
+        assertNotSame(_decomposer.decompose(settings), _decomposer.decompose(settings));
+        assertEquals(0, _decomposer.getIdentityCacheHits() + _decomposer.getIdentityCacheMisses());
+    }
+
+    public void testIdentityCacheSharesAnnotatedValues() {
+        _decomposer.setIdentityCacheSize(10);
+        Settings settings = new Settings("foo");
+        List list = new ArrayList();
+        list.add(settings);
+
+        Object decomposed = _decomposer.decompose(settings);
+        assertSame(decomposed, ((List) _decomposer.decompose(list)).get(0));
+        assertNotSame(decomposed, _decomposer.decompose(new Settings("foo")));
+        assertEquals(1, _decomposer.getIdentityCacheHits());
+        assertEquals(2, _decomposer.getIdentityCacheMisses());
+        assertEquals(1.0 / 3, _decomposer.getIdentityCacheHitRate(), 0.0001);
+        assertEquals(2, _decomposer.getIdentityCacheEntries());
+
+        // mutable values are decomposed every time
+        List mutable = new ArrayList();
+        assertNotSame(_decomposer.decompose(mutable), _decomposer.decompose(mutable));
+        assertEquals(3, _decomposer.getIdentityCacheHits() + _decomposer.getIdentityCacheMisses());
+    }
+
+    public void testIdentityCacheSharesAllowedClasses() {
+        _decomposer.setIdentityCacheSize(10);
+        _decomposer.setImmutableClasses(Collections.singletonList(UnannotatedSettings.class.getName()));
+        UnannotatedSettings settings = new UnannotatedSettings("foo");
+
+        assertSame(_decomposer.decompose(settings), _decomposer.decompose(settings));
+        assertEquals(1, _decomposer.getIdentityCacheHits());
+    }
+
+    public void testIdentityCacheIsBounded() {
+        _decomposer.setIdentityCacheSize(2);
+        List values = new ArrayList();
+        for (int i = 0; i < 3; i++) {
+            values.add(new Settings(String.valueOf(i)));
+            _decomposer.decompose(values.get(i));
+        }
+
+        assertEquals(2, _decomposer.getIdentityCacheEntries());
+        assertNotSame(_decomposer.decompose(values.get(2)), _decomposer.decompose(values.get(2)));
+        assertSame(_decomposer.decompose(values.get(0)), _decomposer.decompose(values.get(0)));
+    }
+
+    public void testIdentityCacheSkipsTruncatedValues() {
+        _decomposer.setIdentityCacheSize(10);
+        _decomposer.setMaxStringLength(2);
+        Settings settings = new Settings("foo");
+
+        _decomposer.decompose(settings);
+        assertEquals(0, _decomposer.getIdentityCacheEntries());
+    }
+
     public void testStringBufferSupport() {
         StringBuffer buf = new StringBuffer("abc");
         //assertEquals("abc", _decomposer.decompose(buf));
     }
+
+    // ** INNER CLASSES *******************************************************
+    @ImmutableValue
+    public static class Settings implements Serializable {
+        private final String _name;
+
+        public Settings(String name) {
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+    }
+
+    public static class UnannotatedSettings extends Settings {
+        public UnannotatedSettings(String name) {
+            super(name);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import junit.framework.TestCase;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ClassCache}.
+ */
+public class ClassCacheTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private ClassCache<Object> _cache;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _cache = new ClassCache<Object>();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testClassesOfOtherLoadersAreNotPinned()
+            throws Exception {
+        assertTrue(ClassCache.isPinned(String.class));
+        assertTrue(ClassCache.isPinned(int[].class));
+        assertTrue(ClassCache.isPinned(ClassCacheTest.class));
+        assertFalse(ClassCache.isPinned(loadUnloadable(createLoader())));
+    }
+
+    public void testPutIfAbsentKeepsFirstValue()
+            throws Exception {
+        Class unloadable = loadUnloadable(createLoader());
+        Object first = new Object();
+        assertSame(first, _cache.putIfAbsent(unloadable, first));
+        assertSame(first, _cache.putIfAbsent(unloadable, new Object()));
+        assertSame(first, _cache.get(unloadable));
+
+        assertSame(first, _cache.putIfAbsent(String.class, first));
+        assertSame(first, _cache.putIfAbsent(String.class, new Object()));
+        assertSame(first, _cache.get(String.class));
+    }
+
+    public void testValuesSurviveCollections()
+            throws Exception {
+        Class unloadable = loadUnloadable(createLoader());
+        _cache.putIfAbsent(unloadable, new Object());
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        assertNotNull(_cache.get(unloadable));
+    }
+
+    public void testValuesDoNotKeepLoaderAlive()
+            throws Exception {
+        ClassLoader loader = createLoader();
+        _cache.putIfAbsent(loadUnloadable(loader), new Object());
+
+        WeakReference<ClassLoader> loaderReference = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        for (int i = 0; i < 50 && (loaderReference.get() != null || _cache.size() > 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loaderReference.get());
+        assertEquals(0, _cache.size());
+    }
+
+    public void testValuesReferringToTheirClassAreReleasedUnderMemoryPressure()
+            throws Exception {
+        ClassLoader loader = createLoader();
+        Class unloadable = loadUnloadable(loader);
+        Object value = unloadable.getDeclaredConstructor(new Class[0]);
+        _cache.putIfAbsent(unloadable, value);
+        assertEquals(1, _cache.size());
+
+        WeakReference<ClassLoader> loaderReference = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        unloadable = null;
+        value = null;
+        clearSoftReferences();
+        for (int i = 0; i < 50 && (loaderReference.get() != null || _cache.size() > 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loaderReference.get());
+        assertEquals(0, _cache.size());
+    }
+
+    // ** PACKAGE METHODS *****************************************************
+    // a loader of the test classes that does not delegate to the one that
+    // loaded the cache, so that its classes can be unloaded
+    static ClassLoader createLoader() {
+        URL location = ClassCacheTest.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[] {location}, null);
+    }
+
+    // the garbage collector clears all soft references before it gives up
+    // on an allocation
+    static void clearSoftReferences() {
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        int chunkSize = (int) Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / 8);
+        try {
+            while (true) {
+                chunks.add(new byte[chunkSize]);
+            }
+        } catch (OutOfMemoryError e) {
+            chunks.clear();
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private static Class loadUnloadable(ClassLoader loader)
+            throws ClassNotFoundException {
+        return loader.loadClass(Unloadable.class.getName());
+    }
+
+    // ** INNER CLASSES *******************************************************
+    public static class Unloadable {
+    }
+}
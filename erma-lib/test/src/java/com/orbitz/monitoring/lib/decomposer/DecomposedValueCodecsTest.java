@@ -0,0 +1,127 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoDecoder;
+import com.orbitz.monitoring.api.monitor.serializable.MomentoEncoder;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link DecomposedValueCodecs}.
+ */
+public class DecomposedValueCodecsTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private AttributeDecomposer _decomposer;
+    private MomentoEncoder _encoder;
+    private MomentoDecoder _decoder;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _decomposer = new AttributeDecomposer();
+        _encoder = new MomentoEncoder();
+        DecomposedValueCodecs.registerWith(_encoder);
+        _decoder = new MomentoDecoder();
+        DecomposedValueCodecs.registerWith(_decoder);
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testCircularBeans()
+            throws Exception {
+        AttributeDecomposerTest.Node a = new AttributeDecomposerTest.Node("a");
+        AttributeDecomposerTest.Node b = new AttributeDecomposerTest.Node("b");
+        a.addNext(b);
+        b.addNext(a);
+
+        DecomposedBean decoded = (DecomposedBean) roundTrip(_decomposer.decompose(a));
+        assertEquals(AttributeDecomposerTest.Node.class.getName(), decoded.getDynaClass().getName());
+        assertEquals("a", decoded.get("value"));
+        DecomposedBean next = (DecomposedBean) ((Set) decoded.get("next")).iterator().next();
+        assertEquals("b", next.get("value"));
+        assertSame(decoded, ((Set) next.get("next")).iterator().next());
+        assertSame(decoded.getDynaClass(), next.getDynaClass());
+    }
+
+    public void testThrowables()
+            throws Exception {
+        IllegalStateException cause = new IllegalStateException("inner");
+        RuntimeException e = new RuntimeException("outer", cause);
+        DecomposedThrowable decomposed = (DecomposedThrowable) _decomposer.decompose(e);
+
+        DecomposedThrowable decoded = (DecomposedThrowable) roundTrip(decomposed);
+        assertEquals("java.lang.RuntimeException: outer", decoded.toString());
+        assertEquals(decomposed.getFingerprint(), decoded.getFingerprint());
+        StackTraceElement[] stackTrace = decoded.getStackTrace();
+        assertEquals(e.getStackTrace().length, stackTrace.length);
+        for (int i = 0; i < stackTrace.length; i++) {
+            assertEquals(e.getStackTrace()[i].getClassName(), stackTrace[i].getClassName());
+            assertEquals(e.getStackTrace()[i].getMethodName(), stackTrace[i].getMethodName());
+            assertEquals(e.getStackTrace()[i].getFileName(), stackTrace[i].getFileName());
+            assertEquals(e.getStackTrace()[i].getLineNumber(), stackTrace[i].getLineNumber());
+        }
+        assertEquals(IllegalStateException.class.getName(), decoded.getRootCause().getClassName());
+    }
+
+    public void testTruncatedValues()
+            throws Exception {
+        _decomposer.setMaxStringLength(3);
+
+        TruncatedValue decoded = (TruncatedValue) roundTrip(_decomposer.decompose("abcdef"));
+        assertEquals(TruncatedValue.Reason.LENGTH, decoded.getReason());
+        assertEquals("abc", decoded.getPrefix());
+        assertEquals(6, decoded.getOriginalSize());
+    }
+
+    public void testRepeatedThrowablesAreSmallerThanSerialized()
+            throws Exception {
+        Serializable decomposed = _decomposer.decompose(new RuntimeException("failed"));
+        MomentoEncoder plainEncoder = new MomentoEncoder();
+        ByteArrayOutputStream coded = new ByteArrayOutputStream();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        for (int i = 0; i < 2; i++) {
+            coded.reset();
+            serialized.reset();
+            _encoder.encode(createMomento(decomposed), coded);
+            plainEncoder.encode(createMomento(decomposed), serialized);
+        }
+        assertTrue(coded.size() + " bytes", coded.size() * 4 < serialized.size());
+    }
+
+    public void testDecoderWithoutCodecsRejectsCodedValues()
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        _encoder.encode(createMomento(_decomposer.decompose(new RuntimeException())), out);
+        try {
+            new MomentoDecoder().decode(new ByteArrayInputStream(out.toByteArray()));
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf(DecomposedThrowable.class.getName()) > 0);
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Object roundTrip(Serializable value)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        _encoder.encode(createMomento(value), out);
+        return _decoder.decode(new ByteArrayInputStream(out.toByteArray())).get("value");
+    }
+
+    private static SerializableMonitor createMomento(Serializable value) {
+        Map holders = new HashMap();
+        holders.put("value", new AttributeHolder(value).serializable());
+        SerializableMonitor momento = new SerializableMonitor(null);
+        momento.setAllAttributeHolders(holders);
+        return momento;
+    }
+}
@@ -1,11 +1,18 @@
 package com.orbitz.monitoring.lib.decomposer;
 
 import junit.framework.TestCase;
-import org.apache.commons.beanutils.LazyDynaBean;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.PropertyUtils;
 
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 
 /**
  * Unit tests for <code>ReflectiveDecomposer</code>.
@@ -54,7 +61,7 @@ public class ReflectiveDecomposerTest extends TestCase {
     public void testDecompose() {
         ExampleClass original = new ExampleClass();
 
-        LazyDynaBean decomposed = (LazyDynaBean) _decomposer.decompose(original, new IdentityHashMap());
+        DynaBean decomposed = (DynaBean) _decomposer.decompose(original, new IdentityHashMap());
 
         assertNotNull(decomposed.get("stringValue"));
         assertNotNull(decomposed.get("booleanValue"));
@@ -66,4 +73,77 @@ public class ReflectiveDecomposerTest extends TestCase {
                 Boolean.valueOf(original.isBooleanValue())));
         assertTrue(decomposedObjects.contains(original.getExceptionValue()));
     }
+
+    public void testSchemaIsShared()
+            throws Exception {
+        DecomposedBean first = (DecomposedBean) _decomposer.decompose(new ExampleClass(), new IdentityHashMap());
+        DecomposedBean second = (DecomposedBean) _decomposer.decompose(new ExampleClass(), new IdentityHashMap());
+
+        assertSame(first.getDynaClass(), second.getDynaClass());
+        assertEquals(ExampleClass.class.getName(), first.getDynaClass().getName());
+        assertNotNull(first.getDynaClass().getDynaProperty("stringValue"));
+        assertNull(first.getDynaClass().getDynaProperty("missing"));
+        assertNull(first.get("missing"));
+        assertEquals(ExampleClass.class.toString(), first.get("class"));
+
+        List beans = new ArrayList();
+        beans.add(first);
+        beans.add(second);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(beans)));
+        List copies = (List) in.readObject();
+        DecomposedBean firstCopy = (DecomposedBean) copies.get(0);
+        assertSame(firstCopy.getDynaClass(), ((DecomposedBean) copies.get(1)).getDynaClass());
+        assertEquals("abc", firstCopy.get("stringValue"));
+        assertEquals("abc", PropertyUtils.getProperty(firstCopy, "stringValue"));
+    }
+
+    public void testNotSerializable() {
+        DecomposedBean decomposed = (DecomposedBean) _decomposer.decompose(new Object(), new IdentityHashMap());
+
+        assertEquals(0, decomposed.getDynaClass().getDynaProperties().length);
+        assertEquals(0, _delegate.getDecomposedObjects().size());
+    }
+
+    public void testUnknownPropertiesCannotBeSet() {
+        DecomposedBean decomposed = (DecomposedBean) _decomposer.decompose(new ExampleClass(), new IdentityHashMap());
+
+        decomposed.set("stringValue", "def");
+        assertEquals("def", decomposed.get("stringValue"));
+        try {
+            decomposed.set("missing", "def");
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testPlansDoNotKeepClassLoadersAlive()
+            throws Exception {
+        ClassLoader loader = ClassCacheTest.createLoader();
+        Object example = loader.loadClass(ExampleClass.class.getName()).newInstance();
+        DecomposedBean decomposed = (DecomposedBean) _decomposer.decompose(example, new IdentityHashMap());
+        assertEquals("abc", decomposed.get("stringValue"));
+
+        // the exception property refers to its stack frames' classes
+        _delegate.getDecomposedObjects().clear();
+        WeakReference<ClassLoader> loaderReference = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        example = null;
+        ClassCacheTest.clearSoftReferences();
+        for (int i = 0; i < 50 && loaderReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loaderReference.get());
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private byte[] serialize(Object object)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
 }
@@ -0,0 +1,110 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import junit.framework.TestCase;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Unit tests for <code>ThrowableDecomposer</code>.
+ */
+public class ThrowableDecomposerTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private ThrowableDecomposer _decomposer;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _decomposer = new ThrowableDecomposer(BaseAttributeDecomposer.getInstance());
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testDecompose() {
+        Exception cause = new IllegalStateException("inner");
+        Exception e = new RuntimeException("outer", cause);
+
+        DecomposedThrowable decomposed = decompose(e);
+        assertEquals(RuntimeException.class.getName(), decomposed.getClassName());
+        assertEquals("outer", decomposed.getMessage());
+        assertEquals(e.getStackTrace().length, decomposed.getStackTrace().length);
+        assertEquals(IllegalStateException.class.getName(), decomposed.getCause().getClassName());
+        assertSame(decomposed.getCause(), decomposed.getRootCause());
+        assertNull(decomposed.getCause().getCause());
+        assertEquals("java.lang.RuntimeException: outer", decomposed.toString());
+        assertTrue(decomposed.formatStackTrace().indexOf("\nCaused by: java.lang.IllegalStateException: inner") > 0);
+    }
+
+    public void testIdenticalTracesAreInterned() {
+        DecomposedThrowable first = null;
+        for (int i = 0; i < 3; i++) {
+            DecomposedThrowable decomposed = decompose(new Exception("same place " + i));
+            if (first == null) {
+                first = decomposed;
+            } else {
+                assertEquals(first.getFingerprint(), decomposed.getFingerprint());
+                assertSame(first.getStackTrace(), decomposed.getStackTrace());
+            }
+        }
+        DecomposedThrowable other = decompose(createElsewhere());
+        assertTrue(first.getFingerprint() != other.getFingerprint());
+        assertNotSame(first.getStackTrace(), other.getStackTrace());
+        assertEquals(2, _decomposer.getInternedTraceCount());
+    }
+
+    public void testInternedTracesAreBounded() {
+        for (int i = 0; i < ThrowableDecomposer.MAX_INTERNED_TRACES * 3; i++) {
+            assertEquals(i, decompose(createAtLine(i)).getStackTrace()[0].getLineNumber());
+            assertTrue(_decomposer.getInternedTraceCount() <= ThrowableDecomposer.MAX_INTERNED_TRACES);
+        }
+
+        // traces first seen once the cache has filled up are still interned
+        int line = ThrowableDecomposer.MAX_INTERNED_TRACES * 3;
+        assertSame(decompose(createAtLine(line)).getStackTrace(), decompose(createAtLine(line)).getStackTrace());
+    }
+
+    public void testRecurringTracesStayInterned() {
+        StackTraceElement[] hot = decompose(createAtLine(-1)).getStackTrace();
+        for (int i = 0; i < ThrowableDecomposer.MAX_INTERNED_TRACES * 3; i++) {
+            decompose(createAtLine(i));
+            if (i % 100 == 0) {
+                assertSame(hot, decompose(createAtLine(-1)).getStackTrace());
+            }
+        }
+    }
+
+    public void testCycle() {
+        Exception e1 = new Exception("foo");
+        Exception e2 = new IllegalStateException("bar", e1);
+        e1.initCause(e2);
+
+        DecomposedThrowable decomposed = decompose(e1);
+        assertSame(decomposed, decomposed.getCause().getCause());
+        assertEquals(IllegalStateException.class.getName(), decomposed.getRootCause().getClassName());
+        assertTrue(decomposed.formatStackTrace().length() > 0);
+    }
+
+    public void testAttributeDecomposerUsesCompactForm()
+            throws Exception {
+        Object decomposed = new AttributeDecomposer().decompose(new RuntimeException("foo", new Error("bar")));
+
+        assertEquals("foo", PropertyUtils.getProperty(decomposed, "message"));
+        assertEquals(Error.class.getName(), PropertyUtils.getProperty(decomposed, "cause.className"));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private DecomposedThrowable decompose(Throwable t) {
+        return (DecomposedThrowable) _decomposer.decompose(t, new IdentityHashMap());
+    }
+
+    private static Exception createAtLine(int line) {
+        Exception e = new Exception();
+        e.setStackTrace(new StackTraceElement[] {new StackTraceElement("Foo", "bar", "Foo.java", line)});
+        return e;
+    }
+
+    private Exception createElsewhere() {
+        return new Exception("another place");
+    }
+}
@@ -2,15 +2,18 @@ package com.orbitz.monitoring.lib.factory;
 
 import junit.framework.TestCase;
 import com.orbitz.monitoring.api.Aggregator;
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.ValueMonitor;
+import com.orbitz.monitoring.lib.processor.AggregationMonitorProcessor;
 import com.orbitz.monitoring.test.MockMonitorProcessor;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
@@ -39,6 +42,17 @@ public class AggregationMonitorProcessorFactoryTest extends TestCase {
         assertFalse(aggregator.isRunning());
     }
 
+    public void testAllProcessorsIncludeAggregationGroup() {
+        final List<MonitorProcessor> all = Arrays.asList(factory.getAllProcessors());
+        assertEquals(2, all.size());
+        assertTrue(all.contains(processor));
+        assertTrue(all.get(1) instanceof AggregationMonitorProcessor);
+
+        factory.startup();
+        assertEquals(1, aggregator.getStartups());
+        factory.shutdown();
+    }
+
     public void testNotRoutingToAggregation() {
         aggregator.setShouldAggregate(false);
         final Monitor m = new EventMonitor("should.not.aggregate");
@@ -82,6 +96,18 @@ public class AggregationMonitorProcessorFactoryTest extends TestCase {
         assertEquals(0, aggregator.getMonitors().size());
     }
 
+    public void testAggregatedMonitorsSkipAggregation() {
+        final Monitor m = new ValueMonitor("should.aggregate", 1.0);
+        m.set(Attribute.AGGREGATED, true);
+        for(MonitorProcessor processor : factory.getProcessorsForMonitor(m)) {
+            processor.process(m);
+        }
+        assertEquals(0, aggregator.getMonitors().size());
+        final Monitor[] monitors = processor.extractProcessObjects();
+        assertEquals(1, monitors.length);
+        assertSame(m, monitors[0]);
+    }
+
     protected void tearDown() throws Exception {
         factory = null;
         processor = null;
@@ -92,6 +118,7 @@ public class AggregationMonitorProcessorFactoryTest extends TestCase {
     static class MockAggregator implements Aggregator {
 
         private boolean running = false;
+        private int startups = 0;
         private boolean shouldAggregate = true;
         private List<Monitor> monitors = new LinkedList<Monitor>();
 
@@ -123,6 +150,11 @@ public class AggregationMonitorProcessorFactoryTest extends TestCase {
 
         public void startup() {
             running = true;
+            startups++;
+        }
+
+        public int getStartups() {
+            return startups;
         }
     }
 }
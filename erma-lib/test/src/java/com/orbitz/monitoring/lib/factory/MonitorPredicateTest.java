@@ -0,0 +1,98 @@
+package com.orbitz.monitoring.lib.factory;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import junit.framework.TestCase;
+import org.apache.commons.jexl.ExpressionFactory;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.commons.jexl.JexlHelper;
+
+/**
+ * Unit tests for {@link MonitorPredicate}. Every expression is checked
+ * against the outcome of interpreting it over a full copy of the monitor's
+ * attributes.
+ */
+public class MonitorPredicateTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private static final String[] EXPRESSIONS = new String[] {
+            "name == 'foo'", "name eq \"foo\"", "name == 'bar'", "name.equals('foo')",
+            "m.get('name') == 'foo'", "m.get('name').equals('bar')",
+            "name.startsWith('fo')", "name.startsWith('ba')", "m.get('name').startsWith('f')",
+            "missing == 'foo'", "missing.startsWith('foo')", "m.get('missing') == 'foo'",
+            "count == '3'", "count.startsWith('3')",
+            "failed", "failed == true", "failed == false", "!failed", "not failed",
+            "m.get('failed')", "!m.get('failed')", "missing", "!missing", "!m.get('missing')", "name",
+            "m.level == 'ESSENTIAL'", "m.level == 'DEBUG'", "m.getLevel() == 'ESSENTIAL'",
+            "name == 'foo' && failed", "m.get('name').matches('f.*')", "m.bar"};
+
+    private Monitor[] _monitors;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        Monitor foo = new EventMonitor("foo", MonitoringLevel.ESSENTIAL);
+        foo.set("failed", true);
+        foo.set("count", 3);
+        Monitor bar = new EventMonitor("bar");
+        bar.set("failed", false);
+        Monitor baz = new EventMonitor("foo");
+        baz.set("failed", "true");
+        baz.set("m", "shadow");
+        _monitors = new Monitor[] {foo, bar, baz, new EventMonitor("foo", MonitoringLevel.DEBUG)};
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testMatchesInterpreter()
+            throws Exception {
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            MonitorPredicate predicate = MonitorPredicate.compile(EXPRESSIONS[i]);
+            for (int j = 0; j < _monitors.length; j++) {
+                assertEquals(EXPRESSIONS[i] + " on monitor " + j, interpret(EXPRESSIONS[i], _monitors[j]),
+                        matches(predicate, _monitors[j]));
+            }
+        }
+    }
+
+    public void testAttributesShadowMonitor()
+            throws Exception {
+        Monitor monitor = new EventMonitor("foo");
+        monitor.set("m", "shadow");
+
+        assertTrue(MonitorPredicate.compile("m == 'shadow'").matches(monitor));
+    }
+
+    public void testInvalidExpression() {
+        try {
+            MonitorPredicate.compile("name == ");
+            fail("expected a parse failure");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    // failures do not match, as in ProcessGroup
+    private boolean matches(MonitorPredicate predicate, Monitor monitor) {
+        try {
+            return predicate.matches(monitor);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // the way expressions were evaluated before they were compiled
+    private boolean interpret(String expression, Monitor monitor) {
+        try {
+            JexlContext context = JexlHelper.createContext();
+            context.getVars().put("m", monitor);
+            context.getVars().putAll(monitor.getAll());
+            Object result = ExpressionFactory.createExpression(expression).evaluate(context);
+            return Boolean.TRUE.equals(result);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -2,12 +2,20 @@ package com.orbitz.monitoring.lib.factory;
 
 import junit.framework.TestCase;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.SubscribingMonitorProcessor;
 import com.orbitz.monitoring.test.MockMonitorProcessor;
 
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Unit tests for {@link ProcessGroup}.
@@ -220,4 +228,165 @@ public class ProcessGroupTest extends TestCase {
         processors = _pGroup.getProcessorsFor(new EventMonitor("test"));
         assertEquals("Processor should appy to monitor", 0, processors.size());
     }
+
+    public void testSamplingAdaptsToTarget() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(10);
+
+        assertEquals(1000, countAdmitted("sampled", 1000));
+        Thread.sleep(1100);
+
+        int admitted = 0;
+        double weight = 0;
+        for (int i = 0; i < 1000; i++) {
+            EventMonitor monitor = new EventMonitor("sampled");
+            if (_pGroup.getProcessorsFor(monitor).size() > 0) {
+                admitted++;
+                weight = monitor.getAsDouble("sampleWeight");
+            }
+        }
+        assertTrue("admitted " + admitted, admitted < 100);
+        assertTrue("weight " + weight, weight > 10);
+        assertEquals("other names s/b sampled separately", 10, countAdmitted("other", 10));
+    }
+
+    public void testSamplingDecisionIsStable() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(1);
+        countAdmitted("stable", 1000);
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 100; i++) {
+            EventMonitor monitor = new EventMonitor("stable");
+            int first = _pGroup.getProcessorsFor(monitor).size();
+            assertEquals(first, _pGroup.getProcessorsFor(monitor).size());
+        }
+    }
+
+    public void testSamplingKeepsFailuresAndSlowMonitors() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(1);
+        _pGroup.setSlowThresholdMillis(100);
+        Map thresholds = new HashMap();
+        thresholds.put("outliers", new Long(1000));
+        _pGroup.setSlowThresholds(thresholds);
+        countAdmitted("outliers", 1000);
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 100; i++) {
+            EventMonitor failed = new EventMonitor("outliers");
+            failed.set(Attribute.FAILED, true);
+            assertEquals(1, _pGroup.getProcessorsFor(failed).size());
+            assertEquals(1.0, failed.getAsDouble("sampleWeight"), 0.0);
+
+            EventMonitor slow = new EventMonitor("outliers");
+            slow.set(Attribute.LATENCY, 1001L);
+            assertEquals(1, _pGroup.getProcessorsFor(slow).size());
+        }
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            EventMonitor fastEnough = new EventMonitor("outliers");
+            fastEnough.set(Attribute.LATENCY, 500L);
+            admitted += _pGroup.getProcessorsFor(fastEnough).size();
+        }
+        assertTrue("admitted " + admitted, admitted < 50);
+    }
+
+    public void testSlowThresholdsAreConverted() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(1);
+        Map thresholds = new HashMap();
+        thresholds.put("configured", " 1000");
+        _pGroup.setSlowThresholds(thresholds);
+        assertEquals(new Long(1000), _pGroup.getSlowThresholds().get("configured"));
+        countAdmitted("configured", 1000);
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 100; i++) {
+            EventMonitor slow = new EventMonitor("configured");
+            slow.set(Attribute.LATENCY, 1001L);
+            assertEquals(1, _pGroup.getProcessorsFor(slow).size());
+        }
+
+        thresholds.put("configured", "slow");
+        try {
+            _pGroup.setSlowThresholds(thresholds);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(new Long(1000), _pGroup.getSlowThresholds().get("configured"));
+    }
+
+    public void testSamplingDecisionIsKeptAcrossPhases() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(1);
+        countAdmitted("paired", 1000);
+        Thread.sleep(1100);
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("paired");
+            int started = _pGroup.getProcessorsFor(monitor, LifecyclePhase.MONITOR_STARTED).size();
+            // a failure found at the end does not admit a monitor sampled out
+            monitor.set(Attribute.FAILED, true);
+            assertEquals(started, _pGroup.getProcessorsFor(monitor, LifecyclePhase.PROCESS).size());
+            assertEquals(started > 0, monitor.getAsDouble("sampleWeight") > 0);
+            admitted += started;
+        }
+        assertTrue("admitted " + admitted, admitted < 50);
+    }
+
+    public void testSamplingWaitsForSubscribedPhase() throws Exception {
+        _pGroup = new ProcessGroup(new ProcessOnlyProcessor());
+        _pGroup.setTargetSamplesPerSecond(1);
+        countAdmitted("processOnly", 1000);
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 100; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("processOnly");
+            assertEquals(1, _pGroup.getProcessorsFor(monitor, LifecyclePhase.MONITOR_STARTED).size());
+            assertFalse(monitor.hasAttribute("sampleWeight"));
+            monitor.set(Attribute.FAILED, true);
+            assertEquals(1, _pGroup.getProcessorsFor(monitor, LifecyclePhase.PROCESS).size());
+            assertEquals(1.0, monitor.getAsDouble("sampleWeight"), 0.0);
+        }
+    }
+
+    public void testSamplingGroupsKeepTheirOwnWeights() throws Exception {
+        _pGroup.setTargetSamplesPerSecond(1);
+        _pGroup.setSampleWeightKey("sparseWeight");
+        ProcessGroup dense = new ProcessGroup(new MockMonitorProcessor());
+        dense.setTargetSamplesPerSecond(1000);
+        dense.setSampleWeightKey("denseWeight");
+        for (int i = 0; i < 100; i++) {
+            EventMonitor monitor = new EventMonitor("weighted");
+            _pGroup.getProcessorsFor(monitor);
+            dense.getProcessorsFor(monitor);
+        }
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 100; i++) {
+            EventMonitor monitor = new EventMonitor("weighted");
+            boolean sparse = _pGroup.getProcessorsFor(monitor).size() > 0;
+            assertEquals(1, dense.getProcessorsFor(monitor).size());
+            assertEquals(1.0, monitor.getAsDouble("denseWeight"), 0.0);
+            assertEquals(sparse, monitor.getAsDouble("sparseWeight") > 0);
+            if (sparse) {
+                assertTrue(monitor.getAsDouble("sparseWeight") > 10);
+            }
+        }
+    }
+
+    private int countAdmitted(String name, int count) {
+        int admitted = 0;
+        for (int i = 0; i < count; i++) {
+            admitted += _pGroup.getProcessorsFor(new EventMonitor(name)).size();
+        }
+        return admitted;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static class ProcessOnlyProcessor extends MockMonitorProcessor
+            implements SubscribingMonitorProcessor {
+        public Set<LifecyclePhase> getSubscribedPhases() {
+            return EnumSet.of(LifecyclePhase.PROCESS);
+        }
+    }
 }
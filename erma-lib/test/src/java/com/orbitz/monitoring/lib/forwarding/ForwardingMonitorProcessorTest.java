@@ -0,0 +1,213 @@
+package com.orbitz.monitoring.lib.forwarding;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.BaseMonitoringEngineManager;
+import com.orbitz.monitoring.lib.factory.ProcessGroup;
+import com.orbitz.monitoring.lib.factory.SimpleMonitorProcessorFactory;
+import com.orbitz.monitoring.lib.processor.MonitorProcessorAdapter;
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ForwardingMonitorProcessor} and
+ * {@link MonitorCollector} over loopback.
+ */
+public class ForwardingMonitorProcessorTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private CollectingProcessor _collected;
+    private BaseMonitoringEngineManager _monitoringEngineManager;
+    private MonitorCollector _collector;
+    private ForwardingMonitorProcessor _processor;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        // the collector's engine; the forwarding processor is called directly
+        _collected = new CollectingProcessor();
+        _monitoringEngineManager = new BaseMonitoringEngineManager(
+                new SimpleMonitorProcessorFactory(new ProcessGroup[] {new ProcessGroup(_collected)}));
+        _monitoringEngineManager.startup();
+        _collected.clear();
+
+        _collector = new MonitorCollector();
+
+        _processor = new ForwardingMonitorProcessor();
+        _processor.setName("forwarding");
+        _processor.setHost("127.0.0.1");
+        _processor.setMaxBatchDelayMillis(0);
+        _processor.setReconnectDelayMillis(50);
+    }
+
+    protected void tearDown()
+            throws Exception {
+        _processor.shutdown();
+        _collector.shutdown();
+        _monitoringEngineManager.shutdown();
+
+        super.tearDown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testForwardsMonitors()
+            throws Exception {
+        _collector.startup();
+        _processor.setPort(_collector.getLocalPort());
+        _processor.startup();
+
+        for (int i = 0; i < 100; i++) {
+            EventMonitor event = new EventMonitor("event" + i);
+            event.set("index", i);
+            _processor.process(event);
+        }
+        TransactionMonitor transaction = new TransactionMonitor("transaction");
+        transaction.set("result", "ok");
+        transaction.succeeded();
+        MonitoringEngine.getInstance().clearCurrentThread();
+        _processor.process(transaction);
+
+        for (int i = 0; i < 100; i++) {
+            Monitor monitor = _collected.next();
+            assertEquals("event" + i, monitor.get(Attribute.NAME));
+            assertEquals(i, monitor.getAsInt("index"));
+        }
+        Monitor monitor = _collected.next();
+        assertEquals("transaction", monitor.get(Attribute.NAME));
+        assertEquals("ok", monitor.get("result"));
+        assertEquals(Boolean.FALSE, monitor.get(Attribute.FAILED));
+        assertEquals(101, _processor.getSentCount());
+        assertEquals(101, _collector.getReceivedCount());
+        assertEquals(1, _processor.getConnectCount());
+    }
+
+    public void testCollectorListensOnLoopbackByDefault() {
+        assertEquals("127.0.0.1", _collector.getBindAddress());
+    }
+
+    public void testConnectsWhenCollectorStarts()
+            throws Exception {
+        int port = freePort();
+        _processor.setPort(port);
+        _processor.startup();
+        _processor.process(new EventMonitor("early"));
+        Thread.sleep(200);
+        assertFalse(_processor.isConnected());
+
+        _collector.setPort(port);
+        _collector.startup();
+        assertEquals("early", _collected.next().get(Attribute.NAME));
+        assertTrue(_processor.isConnected());
+    }
+
+    public void testQueueIsBounded()
+            throws Exception {
+        _processor.setPort(freePort());
+        _processor.setMaxQueueSize(2);
+        _processor.setMaxBatchSize(1);
+        _processor.setShutdownTimeoutMillis(0);
+        _processor.startup();
+
+        for (int i = 0; i < 10; i++) {
+            _processor.process(new EventMonitor("dropped"));
+        }
+        assertTrue(_processor.getDroppedCount() >= 7);
+        assertTrue(_processor.getQueueSize() <= 2);
+
+        _processor.shutdown();
+        assertEquals(10, _processor.getDroppedCount());
+    }
+
+    public void testCollectorClosesOversizedFrames()
+            throws Exception {
+        _collector.setMaxFrameBytes(1024);
+        _collector.startup();
+
+        Socket socket = new Socket("127.0.0.1", _collector.getLocalPort());
+        try {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(4096);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+        assertEquals(1, _collector.getRejectedCount());
+    }
+
+    public void testCollectorSurvivesUndecodableFrames()
+            throws Exception {
+        _collector.startup();
+        int port = _collector.getLocalPort();
+
+        // a string whose length is the varint -1
+        assertClosed(new byte[] {'E', 'R', 'M', 'A', 1, 17, 0, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x0F});
+        // an attribute with a null key
+        assertClosed(new byte[] {'E', 'R', 'M', 'A', 1, 17, 0, 1, 0, 0, 0});
+        assertEquals(2, _collector.getRejectedCount());
+        assertEquals(port, _collector.getLocalPort());
+
+        _processor.setPort(port);
+        _processor.startup();
+        _processor.process(new EventMonitor("afterRejects"));
+        assertEquals("afterRejects", _collected.next().get(Attribute.NAME));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void assertClosed(byte[] frame)
+            throws Exception {
+        Socket socket = new Socket("127.0.0.1", _collector.getLocalPort());
+        try {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static int freePort()
+            throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static class CollectingProcessor extends MonitorProcessorAdapter {
+        private final BlockingQueue<Monitor> _monitors = new LinkedBlockingQueue<Monitor>();
+
+        public void process(Monitor monitor) {
+            _monitors.add(monitor);
+        }
+
+        private void clear() {
+            _monitors.clear();
+        }
+
+        private Monitor next()
+                throws InterruptedException {
+            Monitor monitor = _monitors.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no monitor collected", monitor);
+            return monitor;
+        }
+    }
+}
@@ -1,17 +1,28 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.BatchMonitorProcessor;
+import com.orbitz.monitoring.api.LifecyclePhase;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
 import com.orbitz.monitoring.lib.BaseMonitoringEngineManager;
 import com.orbitz.monitoring.lib.factory.ProcessGroup;
 import com.orbitz.monitoring.lib.factory.SimpleMonitorProcessorFactory;
 import com.orbitz.monitoring.test.MockMonitorProcessor;
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit tests for the AsyncMonitorProcessor.
@@ -88,4 +99,270 @@ public class AsyncMonitorProcessorTest extends TestCase {
         }
        assertTrue(checkMonitorCreated);
     }
+
+    public void testProcessBatch() {
+        RecordingBatchProcessor batchProcessor = new RecordingBatchProcessor();
+        GatedProcessor singleProcessor = new GatedProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {batchProcessor, singleProcessor});
+        processor.setMaxBatchSize(10);
+        processor.startup();
+
+        try {
+            // the worker waits at the gate until every event is queued
+            for (int i = 0; i < 25; i++) {
+                processor.process(new EventMonitor("batch" + i));
+            }
+            singleProcessor.gate.countDown();
+            processor.flushEvents();
+        } finally {
+            singleProcessor.gate.countDown();
+            processor.shutdown();
+        }
+
+        assertEquals(25, batchProcessor.processed.size());
+        for (int i = 0; i < 25; i++) {
+            Monitor monitor = (Monitor) batchProcessor.processed.get(i);
+            assertEquals("batch" + i, monitor.get(Attribute.NAME));
+        }
+        assertTrue(batchProcessor.largestBatch > 1);
+        assertTrue(batchProcessor.largestBatch <= 10);
+        assertEquals(25, singleProcessor.processed.size());
+    }
+
+    public void testDeferredMomentoKeepsAttributeFlags() {
+        TransactionMonitor monitor = new TransactionMonitor("flags");
+        monitor.setInheritable("tenant", "acme").serializable().lock();
+        monitor.set("plain", "value");
+        _processor.process(monitor);
+        _processor.flushEvents();
+
+        SerializableMonitor momento = (SerializableMonitor) findProcessed("flags");
+        Map holders = momento.getAllAttributeHolders();
+        CompositeAttributeHolder tenant = (CompositeAttributeHolder) holders.get("tenant");
+        assertEquals("acme", tenant.getValue());
+        assertTrue(tenant.isLocked());
+        assertTrue(tenant.isInheritable());
+        assertTrue(tenant.isSerializable());
+        AttributeHolder plain = (AttributeHolder) holders.get("plain");
+        assertFalse(plain.isLocked());
+        assertFalse(((CompositeAttributeHolder) plain).isInheritable());
+    }
+
+    public void testMonitorCreatedNotBatched() {
+        RecordingBatchProcessor batchProcessor = new RecordingBatchProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {batchProcessor});
+        processor.startup();
+
+        try {
+            processor.monitorCreated(new EventMonitor("created"));
+            processor.flushEvents();
+        } finally {
+            processor.shutdown();
+        }
+
+        assertEquals(1, batchProcessor.created.size());
+        assertEquals(0, batchProcessor.processed.size());
+    }
+
+    public void testSubscribedPhases() {
+        final List processed = new ArrayList();
+        MonitorProcessor processOnly = new MonitorProcessorAdapter() {
+            public void process(Monitor monitor) {
+                processed.add(monitor);
+            }
+        };
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {processOnly});
+        assertEquals(EnumSet.of(LifecyclePhase.PROCESS), processor.getSubscribedPhases());
+
+        processor.addMonitorProcessor(new RecordingBatchProcessor());
+        assertEquals(EnumSet.of(LifecyclePhase.MONITOR_CREATED, LifecyclePhase.PROCESS),
+                processor.getSubscribedPhases());
+
+        processor.addMonitorProcessor(new MockMonitorProcessor());
+        assertEquals(EnumSet.allOf(LifecyclePhase.class), processor.getSubscribedPhases());
+    }
+
+    public void testFlushDoesNotStopIntake() throws Exception {
+        GatedProcessor gated = new GatedProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {gated});
+        processor.startup();
+
+        try {
+            processor.process(new EventMonitor("first"));
+            assertFalse(processor.flush(50, TimeUnit.MILLISECONDS));
+
+            processor.process(new EventMonitor("second"));
+            gated.gate.countDown();
+            assertTrue(processor.flush(5, TimeUnit.SECONDS));
+            assertEquals(2, gated.processed.size());
+            assertEquals(2, processor.getDeliveredCount());
+        } finally {
+            gated.gate.countDown();
+            processor.shutdown();
+        }
+    }
+
+    public void testFlushEventsIsBounded() {
+        GatedProcessor gated = new GatedProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {gated});
+        processor.setFlushTimeoutMillis(50);
+        processor.startup();
+
+        try {
+            processor.process(new EventMonitor("stuck"));
+            processor.flushEvents();
+            assertEquals(0, gated.processed.size());
+
+            Thread.currentThread().interrupt();
+            processor.flushEvents();
+            assertTrue(Thread.interrupted());
+        } finally {
+            gated.gate.countDown();
+            processor.shutdown();
+        }
+    }
+
+    public void testDrainDeliversQueuedEvents() {
+        MockMonitorProcessor attached = new MockMonitorProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {attached});
+        processor.startup();
+
+        for (int i = 0; i < 20; i++) {
+            processor.process(new EventMonitor("drain" + i));
+        }
+        AsyncMonitorProcessor.DrainResult result = processor.drain(5, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getDroppedCount());
+        assertEquals(20, processor.getDeliveredCount());
+        assertEquals(20, attached.extractProcessObjects().length);
+
+        processor.process(new EventMonitor("afterDrain"));
+        assertEquals(20, processor.getEnqueuedCount());
+    }
+
+    public void testDrainDropsAfterTimeout() {
+        GatedProcessor gated = new GatedProcessor();
+        AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {gated});
+        processor.setMaxBatchSize(1);
+        processor.startup();
+
+        for (int i = 0; i < 5; i++) {
+            processor.process(new EventMonitor("stuck" + i));
+        }
+        AsyncMonitorProcessor.DrainResult result = processor.drain(50, TimeUnit.MILLISECONDS);
+
+        // the event in process() when the drain timed out was handed over
+        assertEquals(5, result.getDeliveredCount() + result.getDroppedCount());
+        assertTrue(result.getDroppedCount() >= 4);
+        assertEquals(result.getDroppedCount(), processor.getDroppedCount());
+        assertEquals(0, gated.processed.size());
+    }
+
+    public void testDrainWaitsForEventsBeingEnqueued() throws Exception {
+        MockMonitorProcessor attached = new MockMonitorProcessor();
+        final AsyncMonitorProcessor processor = new AsyncMonitorProcessor(
+                new MonitorProcessor[] {attached});
+        processor.startup();
+
+        final CapturingMonitor monitor = new CapturingMonitor("capturing");
+        Thread producer = new Thread() {
+            public void run() {
+                processor.process(monitor);
+            }
+        };
+        producer.start();
+        assertTrue(monitor.capturing.await(5, TimeUnit.SECONDS));
+
+        final AsyncMonitorProcessor.DrainResult[] result = new AsyncMonitorProcessor.DrainResult[1];
+        Thread drainer = new Thread() {
+            public void run() {
+                result[0] = processor.drain(5, TimeUnit.SECONDS);
+            }
+        };
+        drainer.start();
+        drainer.join(100);
+        assertTrue(drainer.isAlive());
+
+        monitor.release.countDown();
+        producer.join(5000);
+        drainer.join(5000);
+        assertEquals(1, result[0].getDeliveredCount());
+        assertEquals(1, processor.getEnqueuedCount());
+        assertEquals(1, attached.extractProcessObjects().length);
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor findProcessed(String name) {
+        Monitor[] monitors = _attachedProcessor.extractProcessObjects();
+        for (int i = 0; i < monitors.length; i++) {
+            if (name.equals(monitors[i].get(Attribute.NAME))) {
+                return monitors[i];
+            }
+        }
+        fail(name + " was not processed");
+        return null;
+    }
+
+    // ** INNER CLASSES *******************************************************
+    // blocks while its attributes are captured until it is released
+    private static class CapturingMonitor extends EventMonitor {
+        private final CountDownLatch capturing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private CapturingMonitor(String name) {
+            super(name);
+        }
+
+        public Map getAllSerializableAttributeHolders() {
+            capturing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getAllSerializableAttributeHolders();
+        }
+    }
+
+    // blocks in process() until the gate is opened or the thread is interrupted
+    private static class GatedProcessor extends MonitorProcessorAdapter {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List processed = new ArrayList();
+
+        public void process(Monitor monitor) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            processed.add(monitor);
+        }
+    }
+
+    private static class RecordingBatchProcessor extends MonitorProcessorAdapter
+            implements BatchMonitorProcessor {
+        private final List processed = new ArrayList();
+        private final List created = new ArrayList();
+        private int largestBatch;
+
+        public void monitorCreated(Monitor monitor) {
+            created.add(monitor);
+        }
+
+        public void process(Monitor monitor) {
+            fail("process() should not be called on a BatchMonitorProcessor");
+        }
+
+        public void processBatch(List<Monitor> monitors) {
+            largestBatch = Math.max(largestBatch, monitors.size());
+            processed.addAll(monitors);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitoringEngine;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
@@ -56,6 +57,35 @@ public class CPUProfilingMonitorProcessorTest extends TestCase {
         assertTrue("CPU time apparently not measured", (cpuTimeMillis>1));
     }
 
+    public void testAllocatedBytes() {
+        cpuProfilingMonitorProcessor.setAllocationTrackingEnabled(true);
+        if (!cpuProfilingMonitorProcessor.isAllocationTrackingEnabled()) {
+            // the VM has no allocated bytes counter
+            return;
+        }
+
+        TransactionMonitor monitor = new TransactionMonitor("Allocating");
+        byte[][] garbage = new byte[64][];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = new byte[16384];
+        }
+        monitor.done();
+
+        long allocatedBytes = monitor.getAsLong("allocatedBytes");
+        assertTrue("allocation apparently not measured", allocatedBytes >= 64 * 16384);
+        Long rolledUp = (Long) cpuProfilingMonitorProcessor.getAllocatedBytesByName().get("Allocating");
+        assertEquals(allocatedBytes, rolledUp.longValue());
+
+        mockMonitorProcessor.clear();
+        cpuProfilingMonitorProcessor.publishIntervalStats();
+        Monitor[] monitors = mockMonitorProcessor.extractProcessObjects();
+        assertEquals(1, monitors.length);
+        assertEquals("AllocationStats", monitors[0].get(Monitor.NAME));
+        assertEquals(1, monitors[0].getAsLong("count"));
+        assertEquals(allocatedBytes, monitors[0].getAsLong("allocatedBytes"));
+        assertEquals(new Long(0), cpuProfilingMonitorProcessor.getAllocatedBytesByName().get("Allocating"));
+    }
+
     private void consumeCPU() {
         long start = System.currentTimeMillis();
         while (System.currentTimeMillis() < start+500) {
@@ -68,4 +68,43 @@ public class ConcurrencyMonitorProcessorTest extends TestCase {
         mockMonitorProcessor.clear();
     }
 
+    public void testPublishIntervalStats() throws Exception {
+        TransactionMonitor first = new TransactionMonitor("Stats");
+        TransactionMonitor second = new TransactionMonitor("Stats");
+        Thread.sleep(20);
+        second.done();
+        mockMonitorProcessor.clear();
+
+        concurrencyMonitorProcessor.publishIntervalStats();
+
+        Monitor stats = findStats("Stats");
+        assertNotNull("ConcurrencyStats s/b fired for Stats", stats);
+        assertEquals(1, stats.getAsInt("concurrencyCount"));
+        assertEquals(2, stats.getAsInt("peakConcurrency"));
+        double average = stats.getAsDouble("averageConcurrency");
+        assertTrue("average s/b between 1 and 2 but was " + average, average > 1 && average <= 2);
+
+        first.done();
+        mockMonitorProcessor.clear();
+        concurrencyMonitorProcessor.publishIntervalStats();
+        stats = findStats("Stats");
+        assertEquals(0, stats.getAsInt("concurrencyCount"));
+        assertEquals(1, stats.getAsInt("peakConcurrency"));
+
+        mockMonitorProcessor.clear();
+        concurrencyMonitorProcessor.publishIntervalStats();
+        assertNull("idle names s/b skipped", findStats("Stats"));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor findStats(String name) {
+        Monitor[] monitors = mockMonitorProcessor.extractProcessObjects();
+        for (int i = 0; i < monitors.length; i++) {
+            if ("ConcurrencyStats".equals(monitors[i].get(Monitor.NAME))
+                    && name.equals(monitors[i].get("monitorName"))) {
+                return monitors[i];
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,171 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableCompositeMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for the CriticalPathMonitorProcessor.
+ */
+public class CriticalPathMonitorProcessorTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private CriticalPathMonitorProcessor _processor;
+    private MockMonitorProcessor _mockProcessor;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _processor = new CriticalPathMonitorProcessor();
+        _mockProcessor = new MockMonitorProcessor();
+        MonitoringEngine.getInstance().setProcessorFactory(new MockMonitorProcessorFactory(_mockProcessor));
+        MonitoringEngine.getInstance().setDecomposer(new MockDecomposer());
+        MonitoringEngine.getInstance().startup();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        super.tearDown();
+
+        MonitoringEngine.getInstance().shutdown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testSequentialTree() {
+        // root [0,100] -> a [10,40] -> c [15,35]
+        //              -> b [50,90]
+        Monitor c = transaction("c", 15, 35, null);
+        Monitor a = transaction("a", 10, 40, new Monitor[] {c});
+        Monitor b = transaction("b", 50, 90, null);
+        Monitor root = transaction("root", 0, 100, new Monitor[] {a, b});
+        root.unset(Attribute.PARENT_SEQUENCE_ID);
+
+        _processor.process(root);
+        Map stats = publish();
+
+        assertStats(stats, "root", 1, 30, 30);
+        assertStats(stats, "a", 1, 10, 10);
+        assertStats(stats, "b", 1, 40, 40);
+        assertStats(stats, "c", 1, 20, 20);
+    }
+
+    public void testOverlappingChildrenOffCriticalPath() {
+        // root [0,100] -> slow [10,90]
+        //              -> fast [20,50], ran on another thread
+        Monitor slow = transaction("slow", 10, 90, null);
+        Monitor fast = transaction("fast", 20, 50, null);
+        Monitor root = transaction("root", 0, 100, new Monitor[] {slow, fast});
+        root.unset(Attribute.PARENT_SEQUENCE_ID);
+
+        _processor.process(root);
+        Map stats = publish();
+
+        assertStats(stats, "root", 1, 20, 20);
+        assertStats(stats, "slow", 1, 80, 80);
+        Monitor fastStats = (Monitor) stats.get("fast");
+        assertEquals(30, fastStats.getAsLong("selfTime"));
+        assertEquals(0, fastStats.getAsLong("criticalPathCount"));
+    }
+
+    public void testLiveTransactionTree() throws Exception {
+        MonitoringEngine.getInstance().shutdown();
+        MonitoringEngine.getInstance().setInheritableStrategy(new StackBasedInheritableStrategy());
+        MonitoringEngine.getInstance().setProcessorFactory(
+                new MockMonitorProcessorFactory(new MonitorProcessor[] {_processor, _mockProcessor}));
+        MonitoringEngine.getInstance().startup();
+
+        TransactionMonitor root = new TransactionMonitor("liveRoot");
+        TransactionMonitor child = new TransactionMonitor("liveChild");
+        new EventMonitor("liveEvent").fire();
+        Thread.sleep(20);
+        child.done();
+        root.done();
+
+        Map stats = publish();
+        Monitor rootStats = (Monitor) stats.get("liveRoot");
+        Monitor childStats = (Monitor) stats.get("liveChild");
+        assertEquals(1, rootStats.getAsLong("criticalPathCount"));
+        assertEquals(1, childStats.getAsLong("criticalPathCount"));
+        assertTrue(childStats.getAsLong("selfTime") >= 15);
+        assertEquals(root.getAsLong(Attribute.LATENCY),
+                rootStats.getAsLong("criticalPathTime") + childStats.getAsLong("criticalPathTime"));
+    }
+
+    public void testChildTransactionsAreNotRoots() {
+        Monitor child = transaction("child", 0, 10, null);
+
+        _processor.process(child);
+
+        assertTrue(publish().isEmpty());
+    }
+
+    public void testAggregatesAcrossTransactions() {
+        for (int i = 0; i < 3; i++) {
+            Monitor root = transaction("repeated", 0, 10 * (i + 1), null);
+            root.unset(Attribute.PARENT_SEQUENCE_ID);
+            _processor.process(root);
+        }
+
+        Monitor stats = (Monitor) publish().get("repeated");
+        assertEquals(3, stats.getAsLong("count"));
+        assertEquals(60, stats.getAsLong("selfTime"));
+        assertEquals(20.0, stats.getAsDouble("averageSelfTime"), 0.001);
+        assertEquals(1.0, stats.getAsDouble("selfTimeShare"), 0.001);
+        assertTrue("interval s/b reset", publish().isEmpty());
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor transaction(String name, long start, long end, Monitor[] children) {
+        List childList = new ArrayList();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                childList.add(children[i]);
+            }
+        }
+        Monitor monitor = new SerializableCompositeMonitor(new HashMap(), childList);
+        monitor.set(Attribute.NAME, name);
+        monitor.set(Attribute.START_TIME, new Date(start));
+        monitor.set(Attribute.END_TIME, new Date(end));
+        monitor.set(Attribute.LATENCY, end - start);
+        monitor.set(Attribute.PARENT_SEQUENCE_ID, "m");
+        return monitor;
+    }
+
+    private Map publish() {
+        _mockProcessor.clear();
+        _processor.publishIntervalStats();
+        Map stats = new HashMap();
+        Monitor[] monitors = _mockProcessor.extractProcessObjects();
+        for (int i = 0; i < monitors.length; i++) {
+            if ("CriticalPathStats".equals(monitors[i].get(Attribute.NAME))) {
+                stats.put(monitors[i].get("monitorName"), monitors[i]);
+            }
+        }
+        return stats;
+    }
+
+    private void assertStats(Map stats, String name, long criticalPathCount,
+                             long selfTime, long criticalPathTime) {
+        Monitor monitor = (Monitor) stats.get(name);
+        assertNotNull("no stats for " + name, monitor);
+        assertEquals(name, selfTime, monitor.getAsLong("selfTime"));
+        assertEquals(name, criticalPathCount, monitor.getAsLong("criticalPathCount"));
+        assertEquals(name, criticalPathTime, monitor.getAsLong("criticalPathTime"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the LocationAnnotatingMonitorProcessor.
+ */
+public class LocationAnnotatingMonitorProcessorTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private LocationAnnotatingMonitorProcessor _processor;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _processor = new LocationAnnotatingMonitorProcessor();
+        _processor.setPackagePrefix(LocationAnnotatingMonitorProcessorTest.class.getName());
+        _processor.setExcludedPackagePrefix(null);
+        MonitoringEngine.getInstance().setProcessorFactory(new MockMonitorProcessorFactory(_processor));
+        MonitoringEngine.getInstance().setDecomposer(new MockDecomposer());
+        MonitoringEngine.getInstance().startup();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        super.tearDown();
+
+        MonitoringEngine.getInstance().shutdown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testLocation() {
+        Monitor monitor = createAtA("location");
+
+        String location = monitor.getAsString("stackTraceElement");
+        assertTrue(location, location.indexOf("createAtA") > 0);
+    }
+
+    public void testUnmatchedPrefix() {
+        _processor.setPackagePrefix("org.example");
+
+        assertFalse(createAtA("unmatched").hasAttribute("stackTraceElement"));
+    }
+
+    public void testCachedAndRevalidated() {
+        _processor.setObservationsBeforeCaching(2);
+        _processor.setRevalidationInterval(3);
+
+        assertAt("createAtA", createAtA("cached"));
+        assertAt("createAtA", createAtA("cached"));
+
+        // cached: the stack is not looked at
+        assertAt("createAtA", createAtB("cached"));
+        assertAt("createAtA", createAtB("cached"));
+
+        // revalidated: the change is noticed and observed again
+        assertAt("createAtB", createAtB("cached"));
+        assertAt("createAtB", createAtB("cached"));
+        assertAt("createAtB", createAtB("cached"));
+    }
+
+    public void testCachingDisabled() {
+        _processor.setObservationsBeforeCaching(0);
+
+        assertAt("createAtA", createAtA("uncached"));
+        assertAt("createAtA", createAtA("uncached"));
+        assertAt("createAtB", createAtB("uncached"));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private void assertAt(String methodName, Monitor monitor) {
+        String location = monitor.getAsString("stackTraceElement");
+        assertTrue("expected " + methodName + " but was " + location, location.indexOf(methodName) > 0);
+    }
+
+    private Monitor createAtA(String name) {
+        return new EventMonitor(name);
+    }
+
+    private Monitor createAtB(String name) {
+        return new EventMonitor(name);
+    }
+}
@@ -0,0 +1,161 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableCompositeMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+import junit.framework.TestCase;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Unit tests for the SlowestTransactionsMonitorProcessor.
+ */
+public class SlowestTransactionsMonitorProcessorTest extends TestCase {
+    // ** PRIVATE DATA ********************************************************
+    private SlowestTransactionsMonitorProcessor _processor;
+    private MockMonitorProcessor _downstream;
+    private MockDecomposer _decomposer;
+
+    // ** TEST SUITE METHODS **************************************************
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        _downstream = new MockMonitorProcessor();
+        _processor = new SlowestTransactionsMonitorProcessor(new MonitorProcessor[] {_downstream});
+        _processor.setSlowestCount(3);
+        _processor.setFailedCount(2);
+        MonitoringEngine.getInstance().setProcessorFactory(new MockMonitorProcessorFactory(new MockMonitorProcessor()));
+        _decomposer = new MockDecomposer();
+        MonitoringEngine.getInstance().setDecomposer(_decomposer);
+        MonitoringEngine.getInstance().startup();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        super.tearDown();
+
+        MonitoringEngine.getInstance().shutdown();
+    }
+
+    // ** TEST METHODS ********************************************************
+    public void testRetainsSlowest() {
+        long[] latencies = new long[] {5, 40, 10, 70, 20, 60, 1};
+        for (int i = 0; i < latencies.length; i++) {
+            _processor.process(transaction("a", latencies[i], false, true));
+        }
+        assertEquals(0, _downstream.extractProcessObjects().length);
+
+        _processor.publishIntervalStats();
+        assertLatencies(new long[] {70, 60, 40}, _downstream.extractProcessObjects());
+
+        _processor.publishIntervalStats();
+        assertEquals("interval s/b reset", 0, _downstream.extractProcessObjects().length);
+    }
+
+    public void testRetainsMostRecentFailures() {
+        _processor.setSlowestCount(1);
+        _processor.process(transaction("a", 100, true, true));
+        _processor.process(transaction("a", 1, true, true));
+        _processor.process(transaction("a", 2, true, true));
+        _processor.process(transaction("a", 3, true, true));
+        _processor.process(transaction("a", 4, false, true));
+
+        _processor.publishIntervalStats();
+        assertLatencies(new long[] {100, 2, 3}, _downstream.extractProcessObjects());
+    }
+
+    public void testSlowFailureIsSentOnce() {
+        _processor.process(transaction("a", 100, true, true));
+
+        _processor.publishIntervalStats();
+        assertLatencies(new long[] {100}, _downstream.extractProcessObjects());
+    }
+
+    public void testNamesAreSeparate() {
+        _processor.setSlowestCount(1);
+        _processor.process(transaction("a", 10, false, true));
+        _processor.process(transaction("b", 5, false, true));
+
+        _processor.publishIntervalStats();
+        assertEquals(2, _downstream.extractProcessObjects().length);
+    }
+
+    public void testIgnoresChildTransactions() {
+        _processor.process(transaction("a", 10, true, false));
+
+        _processor.publishIntervalStats();
+        assertEquals(0, _downstream.extractProcessObjects().length);
+    }
+
+    public void testShutdownSendsRetained() {
+        _processor.process(transaction("a", 10, false, true));
+
+        _processor.shutdown();
+        assertEquals(1, _downstream.extractProcessObjects().length);
+    }
+
+    public void testOnlySurvivorsAreDecomposed() {
+        _processor.setFailedCount(0);
+        for (int i = 0; i < 6; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("a");
+            monitor.set(Attribute.LATENCY, (long) i);
+            monitor.set("payload", new Payload(i)).serializable();
+            _processor.process(monitor);
+            monitor.done();
+        }
+        assertFalse(_decomposer.getDecomposedObjects().contains(new Payload(5)));
+
+        _processor.publishIntervalStats();
+        assertLatencies(new long[] {5, 4, 3}, _downstream.extractProcessObjects());
+        List decomposed = _decomposer.getDecomposedObjects();
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i >= 3, decomposed.contains(new Payload(i)));
+        }
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor transaction(String name, long latency, boolean failed, boolean root) {
+        Monitor monitor = new SerializableCompositeMonitor(new HashMap(), new ArrayList());
+        monitor.set(Attribute.NAME, name);
+        monitor.set(Attribute.LATENCY, latency);
+        monitor.set(Attribute.FAILED, failed);
+        if (!root) {
+            monitor.set(Attribute.PARENT_SEQUENCE_ID, "m");
+        }
+        return monitor;
+    }
+
+    private void assertLatencies(long[] expected, Monitor[] monitors) {
+        assertEquals(expected.length, monitors.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], monitors[i].getAsLong(Attribute.LATENCY));
+        }
+    }
+
+    // ** INNER CLASSES *******************************************************
+    private static class Payload implements Serializable {
+        private final int id;
+
+        private Payload(int id) {
+            this.id = id;
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof Payload) && ((Payload) o).id == id;
+        }
+
+        public int hashCode() {
+            return id;
+        }
+    }
+}
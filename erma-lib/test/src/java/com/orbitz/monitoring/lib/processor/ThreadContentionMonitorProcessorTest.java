@@ -3,7 +3,10 @@ package com.orbitz.monitoring.lib.processor;
 import junit.framework.TestCase;
 import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
 import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
 import com.orbitz.monitoring.lib.BaseMonitoringEngineManager;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitoringEngine;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 
@@ -17,6 +20,7 @@ import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 public class ThreadContentionMonitorProcessorTest extends TestCase {
     // ** PRIVATE DATA ********************************************************
     private ThreadContentionMonitorProcessor _processor = new ThreadContentionMonitorProcessor();
+    private MockMonitorProcessor _mockProcessor = new MockMonitorProcessor();
 
     // ** TEST SUITE METHODS **************************************************
     protected void setUp()
@@ -25,7 +29,7 @@ public class ThreadContentionMonitorProcessorTest extends TestCase {
 
         _processor.setEnabled(true);
         MockMonitorProcessorFactory mockMonitorProcessorFactory =
-                new MockMonitorProcessorFactory(_processor);
+                new MockMonitorProcessorFactory(new MonitorProcessor[] {_processor, _mockProcessor});
         MockDecomposer mockDecomposer = new MockDecomposer();
         BaseMonitoringEngineManager monitoringEngineManager =
                 new BaseMonitoringEngineManager(mockMonitorProcessorFactory, mockDecomposer);
@@ -88,4 +92,57 @@ public class ThreadContentionMonitorProcessorTest extends TestCase {
         assertEquals(1, monitor.getAsInt("blockedCount"));
         assertTrue(monitor.getAsLong("blockedTime")>0);
     }
+
+    public void testSampleRate() {
+        _processor.setSampleRate(0.25);
+        _processor.setAnnotateMonitors(false);
+
+        for (int i = 0; i < 100; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("sampled");
+            monitor.done();
+            assertFalse(monitor.hasAttribute("waitedCount"));
+            assertFalse(monitor.hasAttribute("threadContentionStart"));
+        }
+
+        _mockProcessor.clear();
+        _processor.publishIntervalStats();
+        Monitor stats = findStats("sampled");
+        assertNotNull(stats);
+        assertEquals(100, stats.getAsLong("transactionCount"));
+        assertEquals(25, stats.getAsLong("sampleCount"));
+
+        _mockProcessor.clear();
+        _processor.publishIntervalStats();
+        assertNull(findStats("sampled"));
+    }
+
+    public void testMaxSamplesPerSecond() {
+        _processor.setMaxSamplesPerSecond(5);
+
+        int annotated = 0;
+        for (int i = 0; i < 50; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("limited");
+            monitor.done();
+            if (monitor.hasAttribute("waitedCount")) {
+                annotated++;
+            }
+        }
+
+        assertTrue("expected about 5 samples but was " + annotated, annotated >= 5 && annotated <= 6);
+        _mockProcessor.clear();
+        _processor.publishIntervalStats();
+        assertEquals(annotated, findStats("limited").getAsLong("sampleCount"));
+    }
+
+    // ** PRIVATE METHODS *****************************************************
+    private Monitor findStats(String name) {
+        Monitor[] monitors = _mockProcessor.extractProcessObjects();
+        for (int i = 0; i < monitors.length; i++) {
+            if ("ThreadContentionStats".equals(monitors[i].get(Monitor.NAME))
+                    && name.equals(monitors[i].get("monitorName"))) {
+                return monitors[i];
+            }
+        }
+        return null;
+    }
 }